@@ -0,0 +1,670 @@
+/**
+ * Copyright 2012 Blazebit
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.blazebit.collection;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A thread safe trie implementation that can be used as concurrent map with
+ * char sequence keys. Like {@link TrieMap}, this implementation offers methods
+ * to check if a key prefix is contained and to retrieve prefixed views on the
+ * map.
+ *
+ * The nodes of the trie are immutable and use the same sorted
+ * <code>char</code> array layout for the children as {@link TrieMap}. A
+ * modification copies the path from the root to the modified node and
+ * publishes the new root with a compare and set, so reads never lock or
+ * retry and writes never block. Since a root is never modified once published,
+ * {@link #snapshot()} is <code>O(1)</code> and iterators work on a consistent
+ * snapshot of the map, they never throw a
+ * {@link ConcurrentModificationException}.
+ *
+ * This map does neither support null keys nor null values.
+ *
+ * @param <V>
+ *            The value type that the trie holds.
+ *
+ * @since 0.1.22
+ */
+public class ConcurrentTrieMap<V> extends AbstractMap<CharSequence, V>
+        implements ConcurrentMap<CharSequence, V>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final class Node<V> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private static final char[] EMPTY_KEYS = new char[0];
+        private static final Node<?>[] EMPTY_CHILDREN = new Node<?>[0];
+
+        private final char[] keys;
+        private final Node<V>[] children;
+        private final V value;
+        private final boolean inUse;
+        /* The number of nodes in use in this subtree */
+        private final int count;
+
+        private Node(final char[] keys, final Node<V>[] children,
+                     final V value, final boolean inUse, final int count) {
+            this.keys = keys;
+            this.children = children;
+            this.value = value;
+            this.inUse = inUse;
+            this.count = count;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Node<V> empty() {
+            return new Node<V>(EMPTY_KEYS, (Node<V>[]) EMPTY_CHILDREN, null,
+                    false, 0);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> Node<V>[] newChildren(final int size) {
+            return (Node<V>[]) new Node<?>[size];
+        }
+
+        Node<V> getChild(final char c) {
+            final int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node<V> withValue(final V newValue, final boolean newInUse,
+                          final int newCount) {
+            return new Node<V>(keys, children, newValue, newInUse, newCount);
+        }
+
+        /**
+         * Returns a copy of this node with the given child stored under the
+         * given character, or without a child for that character if the given
+         * child is null.
+         */
+        Node<V> withChild(final char c, final Node<V> child, final int newCount) {
+            final int index = Arrays.binarySearch(keys, c);
+            final int length = keys.length;
+            final char[] newKeys;
+            final Node<V>[] newChildren;
+
+            if (index >= 0) {
+                if (child == null) {
+                    newKeys = new char[length - 1];
+                    newChildren = newChildren(length - 1);
+                    System.arraycopy(keys, 0, newKeys, 0, index);
+                    System.arraycopy(keys, index + 1, newKeys, index, length
+                            - index - 1);
+                    System.arraycopy(children, 0, newChildren, 0, index);
+                    System.arraycopy(children, index + 1, newChildren, index,
+                            length - index - 1);
+                } else {
+                    /* Keys stay the same, so they can be shared */
+                    newKeys = keys;
+                    newChildren = children.clone();
+                    newChildren[index] = child;
+                }
+            } else if (child == null) {
+                return withValue(value, inUse, newCount);
+            } else {
+                final int insertionPoint = -(index + 1);
+                newKeys = new char[length + 1];
+                newChildren = newChildren(length + 1);
+                System.arraycopy(keys, 0, newKeys, 0, insertionPoint);
+                System.arraycopy(keys, insertionPoint, newKeys,
+                        insertionPoint + 1, length - insertionPoint);
+                System.arraycopy(children, 0, newChildren, 0, insertionPoint);
+                System.arraycopy(children, insertionPoint, newChildren,
+                        insertionPoint + 1, length - insertionPoint);
+                newKeys[insertionPoint] = c;
+                newChildren[insertionPoint] = child;
+            }
+
+            return new Node<V>(newKeys, newChildren, value, inUse, newCount);
+        }
+    }
+
+    private final AtomicReference<Node<V>> root;
+    private final String prefix;
+    private final boolean readOnly;
+
+    /**
+     * Constructs an empty ConcurrentTrieMap
+     */
+    public ConcurrentTrieMap() {
+        this(new AtomicReference<Node<V>>(Node.<V>empty()), "", false);
+    }
+
+    /**
+     * Constructs a new ConcurrentTrieMap with the values from the given map.
+     *
+     * @param map
+     *            The map from which to construct this ConcurrentTrieMap
+     */
+    public ConcurrentTrieMap(final Map<? extends CharSequence, ? extends V> map) {
+        this();
+        putAll(map);
+    }
+
+    private ConcurrentTrieMap(final AtomicReference<Node<V>> root,
+                              final String prefix, final boolean readOnly) {
+        this.root = root;
+        this.prefix = prefix;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Returns a new map that contains the entries of this map at the time of
+     * the invocation. This operation is <code>O(1)</code> since the nodes are
+     * shared until one of the maps is modified. Snapshots of sub maps have the
+     * same prefix as the sub map.
+     *
+     * @return A modifiable snapshot of this map
+     */
+    public ConcurrentTrieMap<V> snapshot() {
+        return new ConcurrentTrieMap<V>(new AtomicReference<Node<V>>(
+                root.get()), prefix, false);
+    }
+
+    /**
+     * Like {@link #snapshot()} but returns a map that throws
+     * {@link UnsupportedOperationException} on modifications.
+     *
+     * @return A read only snapshot of this map
+     */
+    public ConcurrentTrieMap<V> readOnlySnapshot() {
+        return new ConcurrentTrieMap<V>(new AtomicReference<Node<V>>(
+                root.get()), prefix, true);
+    }
+
+    /**
+     * Returns a view on the current map that acts like if every method call to
+     * the current map where a key is involved would be prefixed with the given
+     * prefix.
+     *
+     * @param prefix
+     *            The prefix which to use for the sub map.
+     * @return A prefixed view on the current map.
+     */
+    public ConcurrentTrieMap<V> subMap(final CharSequence prefix) {
+        return new ConcurrentTrieMap<V>(root, fullKey(keyCheck(prefix)),
+                readOnly);
+    }
+
+    /**
+     * Returns true when an entry exists that that has the given prefix.
+     *
+     * @param prefix
+     *            The prefix for which to check if an entry is contained.
+     * @return True when an entry with the given prefix exists, otherwise false.
+     */
+    public boolean containsKeyPrefix(final CharSequence prefix) {
+        final Node<V> node = find(root.get(), keyCheck(prefix));
+        return node != null && node.count > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get(final Object key) {
+        final Node<V> node = find(root.get(), keyCheck(key));
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(final Object key) {
+        final Node<V> node = find(root.get(), keyCheck(key));
+        return node != null && node.inUse;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        final Node<V> node = find(root.get(), "");
+        return node == null ? 0 : node.count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V put(final CharSequence key, final V value) {
+        return update(keyCheck(key), null, valueCheck(value), UPDATE_ALWAYS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V putIfAbsent(final CharSequence key, final V value) {
+        return update(keyCheck(key), null, valueCheck(value), UPDATE_ABSENT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V replace(final CharSequence key, final V value) {
+        return update(keyCheck(key), null, valueCheck(value), UPDATE_PRESENT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean replace(final CharSequence key, final V oldValue,
+                           final V newValue) {
+        return update(keyCheck(key), valueCheck(oldValue),
+                valueCheck(newValue), UPDATE_MATCHING) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V remove(final Object key) {
+        return update(keyCheck(key), null, null, UPDATE_ALWAYS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove(final Object key, final Object value) {
+        return value != null
+                && update(keyCheck(key), value, null, UPDATE_MATCHING) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        checkWritable();
+
+        if (prefix.length() == 0) {
+            root.set(Node.<V>empty());
+            return;
+        }
+
+        Node<V> current;
+        Node<V> updated;
+
+        do {
+            current = root.get();
+            final Node<V> subRoot = find(current, "");
+
+            if (subRoot == null || subRoot.count == 0) {
+                return;
+            }
+
+            updated = removeSubtree(current, prefix, 0, subRoot);
+        } while (!root.compareAndSet(current, updated));
+    }
+
+    private static final int UPDATE_ALWAYS = 0;
+    private static final int UPDATE_ABSENT = 1;
+    private static final int UPDATE_PRESENT = 2;
+    private static final int UPDATE_MATCHING = 3;
+
+    /**
+     * Sets the given value for the given key, or removes the mapping if the
+     * value is null, if the condition given by mode holds. Returns the
+     * previous value, or for {@link #UPDATE_ABSENT} the value that prevented
+     * the update.
+     */
+    private V update(final CharSequence key, final Object expectedValue,
+                     final V value, final int mode) {
+        checkWritable();
+        final String fullKey = fullKey(key);
+        Node<V> current;
+        Node<V> updated;
+        V previousValue;
+
+        do {
+            current = root.get();
+            final Node<V> node = find(current, fullKey, 0);
+            final boolean present = node != null && node.inUse;
+            previousValue = present ? node.value : null;
+
+            switch (mode) {
+                case UPDATE_ABSENT:
+                    if (present) {
+                        return previousValue;
+                    }
+                    break;
+                case UPDATE_PRESENT:
+                    if (!present) {
+                        return null;
+                    }
+                    break;
+                case UPDATE_MATCHING:
+                    if (!present || !previousValue.equals(expectedValue)) {
+                        return null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            if (value != null) {
+                updated = put(current, fullKey, 0, value, !present);
+            } else if (present) {
+                updated = remove(current, fullKey, 0);
+
+                if (updated == null) {
+                    updated = Node.empty();
+                }
+            } else {
+                return null;
+            }
+        } while (!root.compareAndSet(current, updated));
+
+        return previousValue;
+    }
+
+    /**
+     * Returns a copy of the given node with the value set for the key
+     * beginning at index.
+     */
+    private static <V> Node<V> put(final Node<V> node, final String key,
+                                   final int index, final V value,
+                                   final boolean added) {
+        final int delta = added ? 1 : 0;
+
+        if (index == key.length()) {
+            return node == null ? Node.<V>empty().withValue(value, true, 1)
+                    : node.withValue(value, true, node.count + delta);
+        }
+
+        final char c = key.charAt(index);
+
+        if (node == null) {
+            return Node.<V>empty().withChild(c,
+                    put(null, key, index + 1, value, added), 1);
+        }
+
+        return node.withChild(c,
+                put(node.getChild(c), key, index + 1, value, added),
+                node.count + delta);
+    }
+
+    /**
+     * Returns a copy of the given node without the value for the key beginning
+     * at index which must be present. Returns null if the copy would be empty.
+     */
+    private static <V> Node<V> remove(final Node<V> node, final String key,
+                                      final int index) {
+        if (index == key.length()) {
+            return node.count == 1 ? null : node.withValue(null, false,
+                    node.count - 1);
+        }
+
+        final char c = key.charAt(index);
+        final Node<V> newChild = remove(node.getChild(c), key, index + 1);
+
+        if (newChild == null && node.count == 1) {
+            return null;
+        }
+
+        return node.withChild(c, newChild, node.count - 1);
+    }
+
+    /**
+     * Returns a copy of the given node without the given subtree at the key
+     * beginning at index.
+     */
+    private static <V> Node<V> removeSubtree(final Node<V> node,
+                                             final String key, final int index, final Node<V> subtree) {
+        if (index == key.length()) {
+            return null;
+        }
+
+        final char c = key.charAt(index);
+        final Node<V> newChild = removeSubtree(node.getChild(c), key,
+                index + 1, subtree);
+        final int newCount = node.count - subtree.count;
+
+        if (newChild == null && newCount == 0 && index != 0) {
+            return null;
+        }
+
+        return node.withChild(c, newChild, newCount);
+    }
+
+    /**
+     * Returns the node for the given key relative to the prefix of this map.
+     */
+    private Node<V> find(final Node<V> rootNode, final CharSequence key) {
+        return find(find(rootNode, prefix, 0), key, 0);
+    }
+
+    private static <V> Node<V> find(final Node<V> node, final CharSequence key,
+                                    final int beginIndex) {
+        final int keyLength = key.length();
+        Node<V> currentNode = node;
+
+        for (int i = beginIndex; i < keyLength && currentNode != null; i++) {
+            currentNode = currentNode.getChild(key.charAt(i));
+        }
+
+        return currentNode;
+    }
+
+    private String fullKey(final CharSequence key) {
+        final String localPrefix = prefix;
+
+        if (localPrefix.length() == 0) {
+            return key.toString();
+        }
+
+        return new StringBuilder(localPrefix.length() + key.length())
+                .append(localPrefix).append(key).toString();
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException(
+                    "This map is a read only snapshot");
+        }
+    }
+
+    private static CharSequence keyCheck(final Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException(
+                    "This map does not support null keys");
+        } else if (!(key instanceof CharSequence)) {
+            throw new IllegalArgumentException(
+                    "Argument must be instance of CharSequence");
+        }
+
+        return (CharSequence) key;
+    }
+
+    private static <T> T valueCheck(final T value) {
+        if (value == null) {
+            throw new IllegalArgumentException(
+                    "This map does not support null values");
+        }
+
+        return value;
+    }
+
+	/*
+	 * Iterators
+	 */
+
+    /**
+     * Entry implementation for ConcurrentTrieMap which writes through to the
+     * map.
+     */
+    private final class TrieEntry extends SimpleEntry<CharSequence, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        public TrieEntry(final CharSequence key, final V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(final V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    /**
+     * Iterator implementation for ConcurrentTrieMap that iterates over the
+     * entries of the root which was current at construction time.
+     */
+    private final class EntryIterator implements Iterator<Entry<CharSequence, V>> {
+
+        private final Deque<Node<V>> nodes = new ArrayDeque<Node<V>>();
+        private final Deque<String> keys = new ArrayDeque<String>();
+        private TrieEntry next;
+        private TrieEntry current;
+
+        public EntryIterator() {
+            final Node<V> startNode = find(root.get(), "");
+
+            if (startNode != null) {
+                nodes.add(startNode);
+                keys.add("");
+            }
+
+            fetchEntry();
+        }
+
+        private void fetchEntry() {
+            TrieEntry localNext = null;
+
+            while (localNext == null && !nodes.isEmpty()) {
+                final Node<V> node = nodes.removeFirst();
+                final String key = keys.removeFirst();
+
+                if (node.inUse) {
+                    localNext = new TrieEntry(key, node.value);
+                }
+
+                /* Push in reverse order so that keys are visited ascending */
+                for (int i = node.keys.length - 1; i >= 0; i--) {
+                    nodes.addFirst(node.children[i]);
+                    keys.addFirst(key + node.keys[i]);
+                }
+            }
+
+            next = localNext;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<CharSequence, V> next() {
+            final TrieEntry entry = next;
+
+            if (entry == null) {
+                throw new NoSuchElementException();
+            }
+
+            current = entry;
+            fetchEntry();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            final TrieEntry entry = current;
+
+            if (entry == null) {
+                throw new IllegalStateException();
+            }
+
+            ConcurrentTrieMap.this.remove(entry.getKey());
+            current = null;
+        }
+    }
+
+    /*
+     * Views
+     */
+    private transient Set<Entry<CharSequence, V>> entrySet;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Entry<CharSequence, V>> entrySet() {
+        final Set<Entry<CharSequence, V>> es = entrySet;
+        return es != null ? es : (entrySet = new EntrySet());
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<CharSequence, V>> {
+
+        @Override
+        public void clear() {
+            ConcurrentTrieMap.this.clear();
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            final V value = e.getKey() instanceof CharSequence ? get(e
+                    .getKey()) : null;
+            return value != null && value.equals(e.getValue());
+        }
+
+        @Override
+        public Iterator<Entry<CharSequence, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public boolean remove(final Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return ConcurrentTrieMap.this.remove(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentTrieMap.this.size();
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/**
+ * Copyright 2012 Blazebit
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.blazebit.collection;
+
+import java.util.*;
+
+/**
+ * Base class of the immutable trie maps that store a trie in the flat layout
+ * described in {@link FrozenTrieMap}. Subclasses only provide access to the
+ * arrays of the layout, wherever they are stored, and this class implements
+ * the lookups and the iteration on top of that.
+ *
+ * @param <V>
+ *            The value type that the trie holds.
+ *
+ * @since 0.1.22
+ */
+abstract class FlatTrieMap<V> extends AbstractMap<CharSequence, V> {
+
+    /**
+     * Returns the root node of this view.
+     */
+    abstract int root();
+
+    /**
+     * Returns the number of label characters of the root node that are
+     * already consumed by the prefix of this view.
+     */
+    abstract int rootLabelOffset();
+
+    abstract int childStart(int node);
+
+    abstract char edgeChar(int edge);
+
+    abstract int edgeTarget(int edge);
+
+    abstract int labelStart(int node);
+
+    abstract char labelChar(int index);
+
+    /**
+     * Returns the index of the value of the given node or -1 if the node is
+     * not in use.
+     */
+    abstract int valueIndex(int node);
+
+    /**
+     * Returns the number of nodes in use in the subtree of the given node.
+     */
+    abstract int entryCount(int node);
+
+    abstract V value(int index);
+
+    /**
+     * Returns the node reached from the given node via the edge with the
+     * given character or -1 if there is no such edge.
+     */
+    final int child(final int node, final char c) {
+        int low = childStart(node);
+        int high = childStart(node + 1) - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midChar = edgeChar(mid);
+
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTarget(mid);
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the number of label characters of the given node beginning at
+     * labelOffset that match the key beginning at beginIndex.
+     */
+    private int matchLabel(final int node, final int labelOffset,
+                           final CharSequence key, final int beginIndex) {
+        final int start = labelStart(node) + labelOffset;
+        final int max = Math.min(labelStart(node + 1) - start, key.length()
+                - beginIndex);
+        int i = 0;
+
+        while (i < max && labelChar(start + i) == key.charAt(beginIndex + i)) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private int labelLength(final int node) {
+        return labelStart(node + 1) - labelStart(node);
+    }
+
+    /**
+     * Walks the given key from the root of this view and returns the node at
+     * which it ends in the upper and the number of consumed label characters
+     * of that node in the lower 32 bits, or -1 if the key is not a path of the
+     * trie.
+     */
+    final long locate(final CharSequence key) {
+        final int keyLength = key.length();
+        int node = root();
+        int matched = matchLabel(node, rootLabelOffset(), key, 0);
+        int consumed = rootLabelOffset() + matched;
+        int i = matched;
+
+        while (i < keyLength) {
+            if (consumed < labelLength(node)) {
+                return -1;
+            }
+
+            node = child(node, key.charAt(i++));
+
+            if (node < 0) {
+                return -1;
+            }
+
+            matched = matchLabel(node, 0, key, i);
+            consumed = matched;
+            i += matched;
+        }
+
+        return ((long) node << 32) | consumed;
+    }
+
+    /**
+     * Returns the node at which the given key ends exactly or -1.
+     */
+    private int findNode(final CharSequence key) {
+        final long location = locate(key);
+
+        if (location < 0) {
+            return -1;
+        }
+
+        final int node = (int) (location >>> 32);
+        return (int) location == labelLength(node) ? node : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get(final Object key) {
+        final int node = findNode(keyCheck(key));
+
+        if (node < 0) {
+            return null;
+        }
+
+        final int index = valueIndex(node);
+        return index < 0 ? null : value(index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(final Object key) {
+        final int node = findNode(keyCheck(key));
+        return node >= 0 && valueIndex(node) >= 0;
+    }
+
+    /**
+     * Returns true when an entry exists that that has the given prefix.
+     *
+     * @param prefix
+     *            The prefix for which to check if an entry is contained.
+     * @return True when an entry with the given prefix exists, otherwise false.
+     */
+    public boolean containsKeyPrefix(final CharSequence prefix) {
+        final long location = locate(keyCheck(prefix));
+        return location >= 0 && entryCount((int) (location >>> 32)) > 0;
+    }
+
+    /**
+     * Returns the longest prefix of the given string that is a path in this
+     * trie, regardless of whether an entry exists for that prefix.
+     *
+     * @param str
+     *            The string to match
+     * @return The longest prefix of the string that is a path in the trie
+     */
+    public String getBestMatch(final CharSequence str) {
+        final int strLen = keyCheck(str).length();
+        final int rootLabelOffset = rootLabelOffset();
+        int node = root();
+        int i = matchLabel(node, rootLabelOffset, str, 0);
+
+        if (rootLabelOffset + i == labelLength(node)) {
+            while (i < strLen) {
+                node = child(node, str.charAt(i));
+
+                if (node < 0) {
+                    break;
+                }
+
+                final int matched = matchLabel(node, 0, str, i + 1);
+                i += matched + 1;
+
+                if (matched < labelLength(node)) {
+                    break;
+                }
+            }
+        }
+
+        return str.subSequence(0, i).toString();
+    }
+
+    /**
+     * Returns the length of the longest key of this map that is a prefix of
+     * the given string or -1 if no key is a prefix of the string.
+     *
+     * @param str
+     *            The string to match
+     * @return The length of the longest key that is a prefix or -1
+     */
+    public int longestPrefixOf(final CharSequence str) {
+        final long location = longestPrefix(str);
+        return location < 0 ? -1 : (int) location;
+    }
+
+    /**
+     * Returns the value of the longest key of this map that is a prefix of
+     * the given string or null if no key is a prefix of the string.
+     *
+     * @param str
+     *            The string to match
+     * @return The value of the longest key that is a prefix or null
+     */
+    public V valueOfLongestPrefix(final CharSequence str) {
+        final long location = longestPrefix(str);
+        return location < 0 ? null
+                : value(valueIndex((int) (location >>> 32)));
+    }
+
+    /**
+     * Returns the node of the longest key that is a prefix of the given
+     * string in the upper and the key length in the lower 32 bits, or -1.
+     */
+    private long longestPrefix(final CharSequence str) {
+        final int strLen = keyCheck(str).length();
+        final int rootLabelOffset = rootLabelOffset();
+        int node = root();
+        int i = matchLabel(node, rootLabelOffset, str, 0);
+        long longest = -1;
+
+        if (rootLabelOffset + i < labelLength(node)) {
+            return -1;
+        }
+
+        while (true) {
+            if (valueIndex(node) >= 0) {
+                longest = ((long) node << 32) | i;
+            }
+            if (i == strLen) {
+                break;
+            }
+
+            node = child(node, str.charAt(i++));
+
+            if (node < 0) {
+                break;
+            }
+
+            final int matched = matchLabel(node, 0, str, i);
+
+            if (matched < labelLength(node)) {
+                break;
+            }
+
+            i += matched;
+        }
+
+        return longest;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return entryCount(root());
+    }
+
+    static CharSequence keyCheck(final Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException(
+                    "This map does not support null keys");
+        } else if (!(key instanceof CharSequence)) {
+            throw new IllegalArgumentException(
+                    "Argument must be instance of CharSequence");
+        }
+
+        return (CharSequence) key;
+    }
+
+	/*
+	 * Iterators
+	 */
+
+    /**
+     * Iterator implementation which visits the nodes depth first in ascending
+     * key order.
+     */
+    private final class EntryIterator implements Iterator<Entry<CharSequence, V>> {
+
+        private final StringBuilder key = new StringBuilder();
+        /* Edges to visit and the key length of the source node of the edge */
+        private int[] edgeStack = new int[16];
+        private int[] keyLengthStack = new int[16];
+        private int stackSize;
+        private Entry<CharSequence, V> next;
+
+        public EntryIterator() {
+            final int root = root();
+            appendLabel(root, rootLabelOffset());
+            next = visit(root);
+            fetchEntry();
+        }
+
+        private void appendLabel(final int node, final int labelOffset) {
+            final int end = labelStart(node + 1);
+
+            for (int i = labelStart(node) + labelOffset; i < end; i++) {
+                key.append(labelChar(i));
+            }
+        }
+
+        /**
+         * Pushes the edges of the given node and returns the entry of the node
+         * or null if it is not in use.
+         */
+        private Entry<CharSequence, V> visit(final int node) {
+            final int keyLength = key.length();
+            final int firstEdge = childStart(node);
+
+            for (int edge = childStart(node + 1) - 1; edge >= firstEdge; edge--) {
+                if (stackSize == edgeStack.length) {
+                    edgeStack = Arrays.copyOf(edgeStack, stackSize << 1);
+                    keyLengthStack = Arrays.copyOf(keyLengthStack,
+                            stackSize << 1);
+                }
+
+                edgeStack[stackSize] = edge;
+                keyLengthStack[stackSize++] = keyLength;
+            }
+
+            final int index = valueIndex(node);
+
+            if (index < 0) {
+                return null;
+            }
+
+            return new SimpleImmutableEntry<CharSequence, V>(key.toString(),
+                    value(index));
+        }
+
+        private void fetchEntry() {
+            Entry<CharSequence, V> localNext = next;
+
+            while (localNext == null && stackSize > 0) {
+                final int edge = edgeStack[--stackSize];
+                final int node = edgeTarget(edge);
+                key.setLength(keyLengthStack[stackSize]);
+                key.append(edgeChar(edge));
+                appendLabel(node, 0);
+                localNext = visit(node);
+            }
+
+            next = localNext;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<CharSequence, V> next() {
+            final Entry<CharSequence, V> entry = next;
+
+            if (entry == null) {
+                throw new NoSuchElementException();
+            }
+
+            next = null;
+            fetchEntry();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "This map is immutable");
+        }
+    }
+
+    /*
+     * Views
+     */
+    private transient Set<Entry<CharSequence, V>> entrySet;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Entry<CharSequence, V>> entrySet() {
+        final Set<Entry<CharSequence, V>> es = entrySet;
+        return es != null ? es : (entrySet = new EntrySet());
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<CharSequence, V>> {
+
+        @Override
+        public boolean contains(final Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+
+            if (!(e.getKey() instanceof CharSequence)
+                    || !containsKey(e.getKey())) {
+                return false;
+            }
+
+            final V value = get(e.getKey());
+            return value == null ? e.getValue() == null : value.equals(e
+                    .getValue());
+        }
+
+        @Override
+        public Iterator<Entry<CharSequence, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return FlatTrieMap.this.size();
+        }
+    }
+}
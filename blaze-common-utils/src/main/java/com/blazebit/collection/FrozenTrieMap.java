@@ -0,0 +1,175 @@
+/**
+ * Copyright 2012 Blazebit
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.blazebit.collection;
+
+import java.io.Serializable;
+
+/**
+ * An immutable trie that can be used as read only map with char sequence keys.
+ * Instances are created by {@link TrieMap#freeze()} which compiles the nodes
+ * of a trie into flat primitive arrays, so there are no objects per node and a
+ * lookup is a walk over contiguous arrays.
+ *
+ * Nodes are numbered in depth first pre-order. The outgoing edges of a node
+ * <code>n</code> are stored in the sorted range
+ * <code>[childStart[n], childStart[n + 1])</code> of the edge arrays and the
+ * label of a node, which is non-empty for path compressed tries, in the range
+ * <code>[labelStart[n], labelStart[n + 1])</code> of the label array.
+ *
+ * All modification operations throw {@link UnsupportedOperationException}.
+ *
+ * @param <V>
+ *            The value type that the trie holds.
+ *
+ * @since 0.1.22
+ */
+public class FrozenTrieMap<V> extends FlatTrieMap<V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final int[] childStart;
+    final char[] edgeChars;
+    final int[] edgeTargets;
+    final int[] labelStart;
+    final char[] labelChars;
+    /* Index into values or -1 if the node is not in use */
+    final int[] valueIndex;
+    /* The number of nodes in use in the subtree of a node */
+    final int[] entryCount;
+    final Object[] values;
+    /* The root node of this view and the label characters already consumed */
+    private final int root;
+    private final int rootLabelOffset;
+
+    FrozenTrieMap(final int[] childStart, final char[] edgeChars,
+                  final int[] edgeTargets, final int[] labelStart,
+                  final char[] labelChars, final int[] valueIndex,
+                  final int[] entryCount, final Object[] values) {
+        this(childStart, edgeChars, edgeTargets, labelStart, labelChars,
+                valueIndex, entryCount, values, 0, 0);
+    }
+
+    private FrozenTrieMap(final int[] childStart, final char[] edgeChars,
+                          final int[] edgeTargets, final int[] labelStart,
+                          final char[] labelChars, final int[] valueIndex,
+                          final int[] entryCount, final Object[] values,
+                          final int root, final int rootLabelOffset) {
+        this.childStart = childStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.labelStart = labelStart;
+        this.labelChars = labelChars;
+        this.valueIndex = valueIndex;
+        this.entryCount = entryCount;
+        this.values = values;
+        this.root = root;
+        this.rootLabelOffset = rootLabelOffset;
+    }
+
+    /**
+     * Returns the number of nodes of the trie.
+     *
+     * @return The node count
+     */
+    public int getNodeCount() {
+        return valueIndex.length;
+    }
+
+    /**
+     * Returns true if this map is a prefixed view on a larger trie.
+     */
+    final boolean isView() {
+        return root != 0 || rootLabelOffset != 0;
+    }
+
+    @Override
+    int root() {
+        return root;
+    }
+
+    @Override
+    int rootLabelOffset() {
+        return rootLabelOffset;
+    }
+
+    @Override
+    int childStart(final int node) {
+        return childStart[node];
+    }
+
+    @Override
+    char edgeChar(final int edge) {
+        return edgeChars[edge];
+    }
+
+    @Override
+    int edgeTarget(final int edge) {
+        return edgeTargets[edge];
+    }
+
+    @Override
+    int labelStart(final int node) {
+        return labelStart[node];
+    }
+
+    @Override
+    char labelChar(final int index) {
+        return labelChars[index];
+    }
+
+    @Override
+    int valueIndex(final int node) {
+        return valueIndex[node];
+    }
+
+    @Override
+    int entryCount(final int node) {
+        return entryCount[node];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V value(final int index) {
+        return (V) values[index];
+    }
+
+    /**
+     * Returns a view on the current map that acts like if every method call to
+     * the current map where a key is involved would be prefixed with the given
+     * prefix.
+     *
+     * @param prefix
+     *            The prefix which to use for the sub map.
+     * @return A prefixed view on the current map.
+     */
+    public FrozenTrieMap<V> subMap(final CharSequence prefix) {
+        final long location = locate(keyCheck(prefix));
+
+        if (location < 0) {
+            return empty();
+        }
+
+        return new FrozenTrieMap<V>(childStart, edgeChars, edgeTargets,
+                labelStart, labelChars, valueIndex, entryCount, values,
+                (int) (location >>> 32), (int) location);
+    }
+
+    static <V> FrozenTrieMap<V> empty() {
+        return new FrozenTrieMap<V>(new int[]{0, 0}, new char[0], new int[0],
+                new int[]{0, 0}, new char[0], new int[]{-1}, new int[]{0},
+                new Object[0]);
+    }
+}
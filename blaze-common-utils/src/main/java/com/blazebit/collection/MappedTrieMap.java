@@ -0,0 +1,464 @@
+/**
+ * Copyright 2012 Blazebit
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.blazebit.collection;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An immutable trie map that performs lookups directly on a buffer in the
+ * binary format written by {@link #write(FrozenTrieMap, ValueCodec, Path)}.
+ * Opening a file via {@link #open(Path, ValueCodec)} maps it into memory, so
+ * nothing is deserialized up front and several JVMs can share the pages of
+ * the same file. Values are decoded on access with the given
+ * {@link ValueCodec}.
+ *
+ * The format consists of a header with the magic number, the version and the
+ * sizes of the sections, followed by the arrays of a {@link FrozenTrieMap} and
+ * the encoded values. Since a single mapping is used, files are limited to
+ * 2GB.
+ *
+ * All modification operations throw {@link UnsupportedOperationException}.
+ *
+ * @param <V>
+ *            The value type that the trie holds.
+ *
+ * @since 0.1.22
+ */
+public class MappedTrieMap<V> extends FlatTrieMap<V> {
+
+    private static final int MAGIC = 0x54524945;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 6;
+    /* A trie file with only an unused root node */
+    private static final ByteBuffer EMPTY = emptyBuffer();
+
+    /**
+     * Encodes values to bytes when writing a trie file and decodes them when
+     * reading from the buffer.
+     *
+     * @param <V>
+     *            The value type
+     */
+    public static interface ValueCodec<V> {
+
+        public byte[] encode(V value);
+
+        public V decode(ByteBuffer buffer, int offset, int length);
+    }
+
+    /**
+     * A codec for string values that uses UTF-8.
+     */
+    public static final ValueCodec<String> STRING_CODEC = new ValueCodec<String>() {
+
+        private final Charset charset = Charset.forName("UTF-8");
+
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(charset);
+        }
+
+        @Override
+        public String decode(ByteBuffer buffer, int offset, int length) {
+            final byte[] bytes = new byte[length];
+
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(offset + i);
+            }
+
+            return new String(bytes, charset);
+        }
+    };
+
+    private final ValueCodec<V> codec;
+    private final ByteBuffer buffer;
+    private final IntBuffer childStart;
+    private final IntBuffer edgeTargets;
+    private final IntBuffer labelStart;
+    private final IntBuffer valueIndex;
+    private final IntBuffer entryCount;
+    /* Offset into the buffer and the length or -1 for null values */
+    private final IntBuffer valueOffsets;
+    private final IntBuffer valueLengths;
+    private final CharBuffer edgeChars;
+    private final CharBuffer labelChars;
+    /* The root node of this view and the label characters already consumed */
+    private final int root;
+    private final int rootLabelOffset;
+
+    private MappedTrieMap(final ByteBuffer buffer, final ValueCodec<V> codec) {
+        if (buffer.limit() < HEADER_INTS * 4 || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a trie file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported version "
+                    + buffer.getInt(4));
+        }
+
+        final int nodeCount = buffer.getInt(8);
+        final int edgeCount = buffer.getInt(12);
+        final int labelLength = buffer.getInt(16);
+        final int valueCount = buffer.getInt(20);
+
+        if (nodeCount < 1 || edgeCount < 0 || labelLength < 0
+                || valueCount < 0) {
+            throw new IllegalArgumentException(
+                    "Corrupt trie file: invalid section sizes");
+        }
+
+        /* Computed as long since corrupt sizes may overflow an int */
+        final long size = HEADER_INTS * 4L + (nodeCount + 1L) * 8
+                + nodeCount * 8L + valueCount * 8L + edgeCount * 6L
+                + labelLength * 2L;
+
+        if (size > buffer.limit()) {
+            throw new IllegalArgumentException("Corrupt trie file: needs "
+                    + size + " bytes but only " + buffer.limit()
+                    + " are available");
+        }
+
+        int offset = HEADER_INTS * 4;
+
+        this.codec = codec;
+        this.buffer = buffer;
+        this.childStart = intSection(buffer, offset, nodeCount + 1);
+        offset += (nodeCount + 1) * 4;
+        this.edgeTargets = intSection(buffer, offset, edgeCount);
+        offset += edgeCount * 4;
+        this.labelStart = intSection(buffer, offset, nodeCount + 1);
+        offset += (nodeCount + 1) * 4;
+        this.valueIndex = intSection(buffer, offset, nodeCount);
+        offset += nodeCount * 4;
+        this.entryCount = intSection(buffer, offset, nodeCount);
+        offset += nodeCount * 4;
+        this.valueOffsets = intSection(buffer, offset, valueCount);
+        offset += valueCount * 4;
+        this.valueLengths = intSection(buffer, offset, valueCount);
+        offset += valueCount * 4;
+        this.edgeChars = section(buffer, offset, edgeCount * 2).asCharBuffer();
+        offset += edgeCount * 2;
+        this.labelChars = section(buffer, offset, labelLength * 2)
+                .asCharBuffer();
+        this.root = 0;
+        this.rootLabelOffset = 0;
+    }
+
+    private MappedTrieMap(final MappedTrieMap<V> map, final int root,
+                          final int rootLabelOffset) {
+        this.codec = map.codec;
+        this.buffer = map.buffer;
+        this.childStart = map.childStart;
+        this.edgeTargets = map.edgeTargets;
+        this.labelStart = map.labelStart;
+        this.valueIndex = map.valueIndex;
+        this.entryCount = map.entryCount;
+        this.valueOffsets = map.valueOffsets;
+        this.valueLengths = map.valueLengths;
+        this.edgeChars = map.edgeChars;
+        this.labelChars = map.labelChars;
+        this.root = root;
+        this.rootLabelOffset = rootLabelOffset;
+    }
+
+    private static ByteBuffer section(final ByteBuffer buffer,
+                                      final int offset, final int length) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        /* Cast for Java 8 where ByteBuffer does not override these methods */
+        ((Buffer) duplicate).position(offset);
+        ((Buffer) duplicate).limit(offset + length);
+        return duplicate.slice().order(buffer.order());
+    }
+
+    private static IntBuffer intSection(final ByteBuffer buffer,
+                                        final int offset, final int length) {
+        return section(buffer, offset, length * 4).asIntBuffer();
+    }
+
+    /**
+     * Maps the given trie file into memory and returns a map that performs
+     * lookups directly on the mapped file.
+     *
+     * @param <V>
+     *            The value type that the trie holds.
+     * @param path
+     *            The trie file
+     * @param codec
+     *            The codec with which the values were written
+     * @return The map backed by the mapped file
+     * @throws IOException
+     *             If the file can not be mapped
+     */
+    public static <V> MappedTrieMap<V> open(final Path path,
+                                            final ValueCodec<V> codec) throws IOException {
+        final FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ);
+
+        try {
+            /* The mapping stays valid after the channel is closed */
+            return open(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()), codec);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns a map that performs lookups directly on the given buffer which
+     * contains the binary trie format.
+     *
+     * @param <V>
+     *            The value type that the trie holds.
+     * @param buffer
+     *            The buffer containing the trie
+     * @param codec
+     *            The codec with which the values were written
+     * @return The map backed by the buffer
+     */
+    public static <V> MappedTrieMap<V> open(final ByteBuffer buffer,
+                                            final ValueCodec<V> codec) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer");
+        }
+        if (codec == null) {
+            throw new NullPointerException("codec");
+        }
+
+        return new MappedTrieMap<V>(buffer, codec);
+    }
+
+    /**
+     * Writes the given map in the binary trie format to the given file.
+     *
+     * @param <V>
+     *            The value type that the trie holds.
+     * @param map
+     *            The map to write
+     * @param codec
+     *            The codec to encode non-null values
+     * @param path
+     *            The file to write to
+     * @throws IOException
+     *             If the file can not be written
+     */
+    public static <V> void write(final FrozenTrieMap<V> map,
+                                 final ValueCodec<? super V> codec, final Path path) throws IOException {
+        final OutputStream os = Files.newOutputStream(path);
+
+        try {
+            write(map, codec, os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Writes the given map in the binary trie format to the given stream.
+     *
+     * @param <V>
+     *            The value type that the trie holds.
+     * @param map
+     *            The map to write
+     * @param codec
+     *            The codec to encode non-null values
+     * @param os
+     *            The stream to write to
+     * @throws IOException
+     *             If the stream can not be written
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> void write(FrozenTrieMap<V> map,
+                                 final ValueCodec<? super V> codec, final OutputStream os)
+            throws IOException {
+        if (map.isView()) {
+            /* Views share the arrays of the whole trie, so compile anew */
+            final TrieMap<V> copy = TrieMap.compressed();
+            copy.putAll(map);
+            map = copy.freeze();
+        }
+
+        final int nodeCount = map.valueIndex.length;
+        final int edgeCount = map.edgeChars.length;
+        final int valueCount = map.values.length;
+        final byte[][] encodedValues = new byte[valueCount][];
+        final long valuesStart = HEADER_INTS * 4L + (nodeCount + 1) * 4L
+                + edgeCount * 4L + (nodeCount + 1) * 4L + nodeCount * 4L
+                + nodeCount * 4L + valueCount * 8L + edgeCount * 2L
+                + map.labelChars.length * 2L;
+        long size = valuesStart;
+
+        for (int i = 0; i < valueCount; i++) {
+            if (map.values[i] != null) {
+                encodedValues[i] = codec.encode((V) map.values[i]);
+                size += encodedValues[i].length;
+            }
+        }
+
+        /* Offsets are stored as ints, so check before anything is written */
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The trie needs " + size
+                    + " bytes but at most " + Integer.MAX_VALUE
+                    + " bytes are supported");
+        }
+
+        int valueOffset = (int) valuesStart;
+
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(nodeCount);
+        out.writeInt(edgeCount);
+        out.writeInt(map.labelChars.length);
+        out.writeInt(valueCount);
+        writeInts(out, map.childStart);
+        writeInts(out, map.edgeTargets);
+        writeInts(out, map.labelStart);
+        writeInts(out, map.valueIndex);
+        writeInts(out, map.entryCount);
+
+        for (int i = 0; i < valueCount; i++) {
+            out.writeInt(valueOffset);
+
+            if (encodedValues[i] != null) {
+                valueOffset += encodedValues[i].length;
+            }
+        }
+
+        for (int i = 0; i < valueCount; i++) {
+            out.writeInt(encodedValues[i] == null ? -1
+                    : encodedValues[i].length);
+        }
+
+        writeChars(out, map.edgeChars);
+        writeChars(out, map.labelChars);
+
+        for (int i = 0; i < valueCount; i++) {
+            if (encodedValues[i] != null) {
+                out.write(encodedValues[i]);
+            }
+        }
+
+        out.flush();
+    }
+
+    private static void writeInts(final DataOutputStream out,
+                                  final int[] array) throws IOException {
+        for (int i = 0; i < array.length; i++) {
+            out.writeInt(array[i]);
+        }
+    }
+
+    private static void writeChars(final DataOutputStream out,
+                                   final char[] array) throws IOException {
+        for (int i = 0; i < array.length; i++) {
+            out.writeChar(array[i]);
+        }
+    }
+
+    @Override
+    int root() {
+        return root;
+    }
+
+    @Override
+    int rootLabelOffset() {
+        return rootLabelOffset;
+    }
+
+    @Override
+    int childStart(final int node) {
+        return childStart.get(node);
+    }
+
+    @Override
+    char edgeChar(final int edge) {
+        return edgeChars.get(edge);
+    }
+
+    @Override
+    int edgeTarget(final int edge) {
+        return edgeTargets.get(edge);
+    }
+
+    @Override
+    int labelStart(final int node) {
+        return labelStart.get(node);
+    }
+
+    @Override
+    char labelChar(final int index) {
+        return labelChars.get(index);
+    }
+
+    @Override
+    int valueIndex(final int node) {
+        return valueIndex.get(node);
+    }
+
+    @Override
+    int entryCount(final int node) {
+        return entryCount.get(node);
+    }
+
+    @Override
+    V value(final int index) {
+        final int length = valueLengths.get(index);
+        return length < 0 ? null : codec.decode(buffer,
+                valueOffsets.get(index), length);
+    }
+
+    /**
+     * Returns a view on the current map that acts like if every method call to
+     * the current map where a key is involved would be prefixed with the given
+     * prefix.
+     *
+     * @param prefix
+     *            The prefix which to use for the sub map.
+     * @return A prefixed view on the current map.
+     */
+    public MappedTrieMap<V> subMap(final CharSequence prefix) {
+        final long location = locate(keyCheck(prefix));
+
+        if (location < 0) {
+            return new MappedTrieMap<V>(EMPTY, codec);
+        }
+
+        return new MappedTrieMap<V>(this, (int) (location >>> 32),
+                (int) location);
+    }
+
+    private static ByteBuffer emptyBuffer() {
+        final ByteBuffer buffer = ByteBuffer.allocate((HEADER_INTS + 6) * 4);
+        /* Header with one node and no edges, label characters or values */
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(1).putInt(0).putInt(0)
+                .putInt(0);
+        /* The child and label ranges, the value index and the entry count */
+        buffer.putInt(0).putInt(0).putInt(0).putInt(0).putInt(-1).putInt(0);
+        return buffer.asReadOnlyBuffer();
+    }
+}
@@ -15,11 +15,15 @@
  */
 package com.blazebit.collection;
 
+import com.blazebit.regex.CharacterClass;
 import com.blazebit.regex.Pattern;
 import com.blazebit.regex.node.*;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -33,16 +37,61 @@ import java.util.*;
 public class PatternTrie<V> implements Serializable {
 
     private static final long serialVersionUID = 1L;
+    /* The minimum number of keys resolved by one task of resolveAll */
+    private static final int MIN_BATCH_SIZE = 256;
     private final TrieNode<V> root;
     private final Map<Integer, List<PatternParameter>> patternParameters;
     private int patternIds = 0;
+    /* Compiled on demand and discarded on every modification */
+    private transient volatile Automaton<V> automaton;
+    private final int cacheSize;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
 
     /**
      * Constructs an empty PatternTrie
      */
     public PatternTrie() {
+        this(0);
+    }
+
+    /**
+     * Constructs an empty PatternTrie that caches the results of up to
+     * cacheSize resolved keys. The least recently used results are evicted
+     * first and the cache is invalidated whenever the trie is modified.
+     * Cached results are shared and therefore unmodifiable.
+     *
+     * @param cacheSize
+     *            The maximum number of cached results, 0 disables the cache
+     */
+    public PatternTrie(final int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Invalid cache size: "
+                    + cacheSize);
+        }
+
         this.root = new TrieNode<V>();
         this.patternParameters = new HashMap<Integer, List<PatternParameter>>();
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Returns the number of resolve calls that were answered by the cache.
+     *
+     * @return The cache hit count
+     */
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Returns the number of resolve calls that could not be answered by the
+     * cache. Always 0 if the cache is disabled.
+     *
+     * @return The cache miss count
+     */
+    public long getCacheMissCount() {
+        return cacheMisses.get();
     }
 
     public static interface ParameterizedKeyBuilder<V> {
@@ -71,13 +120,33 @@ public class PatternTrie<V> implements Serializable {
 
 		/* Avoid casting */
         final Map<Parameter, ExtendedPattern> emptyMap = Collections.emptyMap();
-        add(key.toString().toCharArray(), value, -1, emptyMap);
+        add(key.toString().toCharArray(), value, 0, -1, emptyMap);
 
         return this;
     }
 
     public ParameterizedKeyBuilder<V> parameterized(final CharSequence pattern,
                                                     final V value) {
+        return parameterized(pattern, value, 0);
+    }
+
+    /**
+     * Like {@link #parameterized(CharSequence, Object)} but with a priority
+     * that decides between equally specific matches in
+     * {@link #resolveBest(CharSequence)}, higher wins. The default priority
+     * is 0.
+     *
+     * @param pattern
+     *            The pattern with parameters in curly braces
+     * @param value
+     *            The value for the pattern
+     * @param priority
+     *            The priority of the pattern
+     * @return A builder for the parameter patterns
+     */
+    public ParameterizedKeyBuilder<V> parameterized(final CharSequence pattern,
+                                                    final V value,
+                                                    final int priority) {
         if (pattern == null) {
             throw new NullPointerException("pattern");
         }
@@ -181,8 +250,8 @@ public class PatternTrie<V> implements Serializable {
 
                 @Override
                 public void add() {
-                    PatternTrie.this
-                            .add(chars, value, patternIds++, parameters);
+                    PatternTrie.this.add(chars, value, priority, patternIds++,
+                            parameters);
                 }
             };
         }
@@ -217,7 +286,7 @@ public class PatternTrie<V> implements Serializable {
 				/* Avoid casting */
                 final Map<Parameter, ExtendedPattern> emptyMap = Collections
                         .emptyMap();
-                PatternTrie.this.add(chars, value, -1, emptyMap);
+                PatternTrie.this.add(chars, value, priority, -1, emptyMap);
             }
         };
     }
@@ -227,187 +296,1253 @@ public class PatternTrie<V> implements Serializable {
             throw new NullPointerException("key");
         }
 
-        Set<ParameterizedValue<V>> result = new HashSet<ParameterizedValue<V>>();
-        final char[] chars = key.toString().toCharArray();
-        Map<TrieNode<V>, Map<PatternParameter, ParameterResult>> currentNodes = new HashMap<TrieNode<V>, Map<PatternParameter, ParameterResult>>(
-                1);
+        final Automaton<V> localAutomaton = getAutomaton();
+        final ResolutionCache<V> cache = localAutomaton.cache;
+
+        if (cache == null) {
+            return localAutomaton.resolve(key, new MatchContext<V>(), false);
+        }
+
+        Set<ParameterizedValue<V>> result;
 
-        if (root != null) {
-            currentNodes.put(root,
-                    new HashMap<PatternParameter, ParameterResult>(0));
+        synchronized (cache) {
+            result = cache.get(key);
         }
 
-        for (int i = 0; i < chars.length && !currentNodes.isEmpty(); i++) {
-            currentNodes = findMatchingNodes(currentNodes, chars[i]);
+        if (result != null) {
+            cacheHits.incrementAndGet();
+            return result;
         }
 
-        for (Map.Entry<TrieNode<V>, Map<PatternParameter, ParameterResult>> nodeEntry : currentNodes
-                .entrySet()) {
-            System.out.println(nodeEntry.getKey().value + " ----");
-            for (ParameterResult parameterResult : nodeEntry.getValue()
-                    .values()) {
-                System.out.println(parameterResult.parameter.name + " - "
-                        + parameterResult.parameter.patternId + " - "
-                        + parameterResult.value.toString());
+        cacheMisses.incrementAndGet();
+        result = Collections.unmodifiableSet(localAutomaton.resolve(key,
+                new MatchContext<V>(), false));
+
+        synchronized (cache) {
+            cache.put(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Resolves all given keys in parallel with a shared fork join pool and
+     * returns the results in the iteration order of the keys. All keys are
+     * resolved against the state of the trie at the time of the call, so the
+     * trie must not be modified concurrently. The resolution cache is not
+     * used by this method.
+     *
+     * The keys are split into batches and every batch is resolved by one
+     * task. Within a batch the automaton states recorded for the previous
+     * key are reused for the prefix it shares with the next key, so passing
+     * sorted keys avoids walking shared prefixes repeatedly.
+     *
+     * @param keys
+     *            The keys to resolve
+     * @return The matches for every key
+     */
+    public List<Set<ParameterizedValue<V>>> resolveAll(
+            final Collection<? extends CharSequence> keys) {
+        return resolveAll(keys, PoolHolder.POOL);
+    }
+
+    /**
+     * Like {@link #resolveAll(Collection)} but uses the given fork join pool.
+     *
+     * @param keys
+     *            The keys to resolve
+     * @param pool
+     *            The pool that executes the resolution tasks
+     * @return The matches for every key
+     */
+    @SuppressWarnings("unchecked")
+    public List<Set<ParameterizedValue<V>>> resolveAll(
+            final Collection<? extends CharSequence> keys,
+            final ForkJoinPool pool) {
+        if (keys == null) {
+            throw new NullPointerException("keys");
+        }
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+
+        final CharSequence[] keyArray = keys.toArray(new CharSequence[keys
+                .size()]);
+
+        for (int i = 0; i < keyArray.length; i++) {
+            if (keyArray[i] == null) {
+                throw new NullPointerException("key");
+            }
+        }
+
+        final Set<ParameterizedValue<V>>[] results =
+                (Set<ParameterizedValue<V>>[]) new Set<?>[keyArray.length];
+        final int batchSize = Math.max(MIN_BATCH_SIZE, keyArray.length
+                / (pool.getParallelism() << 3));
+        final ResolveTask<V> task = new ResolveTask<V>(getAutomaton(),
+                keyArray, results, 0, keyArray.length, batchSize);
+
+        if (keyArray.length <= batchSize) {
+            task.resolve();
+        } else {
+            pool.invoke(task);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Lazily creates the pool that is used by {@link #resolveAll(Collection)}.
+     * Its worker threads are daemon threads.
+     */
+    private static final class PoolHolder {
+
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    /**
+     * Resolves a range of keys by splitting it in halves until the range
+     * fits into one batch.
+     *
+     * @param <V>
+     *            The value type that the pattern trie holds.
+     */
+    private static final class ResolveTask<V> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Automaton<V> automaton;
+        private final CharSequence[] keys;
+        private final Set<ParameterizedValue<V>>[] results;
+        private final int from;
+        private final int to;
+        private final int batchSize;
+
+        public ResolveTask(final Automaton<V> automaton,
+                           final CharSequence[] keys,
+                           final Set<ParameterizedValue<V>>[] results, final int from,
+                           final int to, final int batchSize) {
+            this.automaton = automaton;
+            this.keys = keys;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                resolve();
+            } else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new ResolveTask<V>(automaton, keys, results, from,
+                        mid, batchSize), new ResolveTask<V>(automaton, keys,
+                        results, mid, to, batchSize));
+            }
+        }
+
+        void resolve() {
+            final MatchContext<V> context = new MatchContext<V>();
+
+            for (int i = from; i < to; i++) {
+                results[i] = automaton.resolve(keys[i], context, true);
+            }
+        }
+    }
+
+    /**
+     * Resolves the given key and stores the matches in the given context
+     * which can be reused for subsequent calls to avoid allocations. The
+     * resolution cache is not used by this method.
+     *
+     * @param key
+     *            The key to resolve
+     * @param context
+     *            The context that receives the matches
+     * @return True if the key matched at least one entry, otherwise false
+     */
+    public boolean resolve(final CharSequence key,
+                           final MatchContext<V> context) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        if (context == null) {
+            throw new NullPointerException("context");
+        }
+
+        return getAutomaton().match(key, context);
+    }
+
+    /**
+     * Resolves the given key and returns only the most specific match or null
+     * if the key does not match. The most specific match is the one with the
+     * most characters matched literally, then the one with the fewest
+     * parameters and then the one with the highest priority as given by
+     * {@link #parameterized(CharSequence, Object, int)}. Candidates are
+     * abandoned as soon as they can no longer match more characters literally
+     * than the current best.
+     *
+     * @param key
+     *            The key to resolve
+     * @return The most specific match or null
+     */
+    public ParameterizedValue<V> resolveBest(final CharSequence key) {
+        final MatchContext<V> context = new MatchContext<V>();
+
+        if (!resolveBest(key, context)) {
+            return null;
+        }
+
+        final ParameterizedValueImpl<V> value = new ParameterizedValueImpl<V>(
+                context.getValue(0));
+
+        for (int i = 0; i < context.getParameterCount(0); i++) {
+            value.setParameter(context.getParameterName(0, i), key
+                    .subSequence(context.getParameterStart(0, i),
+                            context.getParameterEnd(0, i)).toString());
+        }
+
+        return value;
+    }
+
+    /**
+     * Like {@link #resolveBest(CharSequence)} but stores the most specific
+     * match in the given context which can be reused for subsequent calls.
+     *
+     * @param key
+     *            The key to resolve
+     * @param context
+     *            The context that receives the match
+     * @return True if the key matched, otherwise false
+     */
+    public boolean resolveBest(final CharSequence key,
+                               final MatchContext<V> context) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        if (context == null) {
+            throw new NullPointerException("context");
+        }
+
+        return getAutomaton().matchBest(key, context);
+    }
+
+    /**
+     * A least recently used cache for resolution results which belongs to an
+     * automaton, so it is discarded together with the automaton when the trie
+     * is modified.
+     *
+     * @param <V>
+     *            The value type that the pattern trie holds.
+     */
+    private static final class ResolutionCache<V> extends
+            LinkedHashMap<String, Set<ParameterizedValue<V>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maximumSize;
+
+        public ResolutionCache(final int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                final Map.Entry<String, Set<ParameterizedValue<V>>> eldest) {
+            return size() > maximumSize;
+        }
+    }
+
+    /**
+     * Returns the automaton for the current state of the trie and compiles
+     * it if the trie has been modified since the last compilation.
+     */
+    private Automaton<V> getAutomaton() {
+        Automaton<V> localAutomaton = automaton;
+
+        if (localAutomaton == null) {
+            synchronized (this) {
+                localAutomaton = automaton;
+
+                if (localAutomaton == null) {
+                    localAutomaton = new Automaton<V>(root, cacheSize);
+                    automaton = localAutomaton;
+                }
             }
         }
 
-        if (!currentNodes.isEmpty()) {
-            for (Map.Entry<TrieNode<V>, Map<PatternParameter, ParameterResult>> nodeEntry : currentNodes
+        return localAutomaton;
+    }
+
+    /**
+     * A deterministic automaton compiled from the nodes of the trie via
+     * subset construction. Every state is a set of trie nodes and has a
+     * sorted table of character intervals, bounded by the child and
+     * complement keys and the character class ranges of its nodes, with one
+     * transition per interval. The automaton is immutable once constructed
+     * and can be used by multiple threads concurrently.
+     *
+     * Resolving a key runs the automaton once and records the visited
+     * states. Parameter values are recovered for every matching node by a
+     * backward pass over the recorded states which follows one trie path and
+     * collects the offsets of the characters consumed by parameter nodes.
+     *
+     * @param <V>
+     *            The value type that the pattern trie holds.
+     */
+    private static final class Automaton<V> {
+
+        private static final int[] EMPTY = new int[0];
+
+        /* Compiled trie nodes */
+        private final TrieNode<V>[] nodes;
+        private final char[][] childChars;
+        private final int[][] childTargets;
+        private final char[][] complementChars;
+        private final int[][] complementTargets;
+        /* Complement edges that are also taken for their own character */
+        private final boolean[][] complementAlways;
+        private final int[] anyCharTargets;
+        private final CharacterClass[][] classes;
+        private final int[][] classTargets;
+        /* Leaves that end parameters consume the rest of the characters */
+        private final boolean[] selfLoops;
+        private final int[][] nodeParameters;
+        private final int[][] nodeParametersEnd;
+        private final String[] parameterNames;
+        private final int[] parameterPatterns;
+        /* Pattern ids and priorities of the values of the nodes */
+        private final int[][] valuePatterns;
+        private final int[][] valuePriorities;
+
+        /*
+         * Deterministic states with a target for every interval of characters
+         * that starts at one of the sorted points and ends before the next
+         */
+        private final int[][] stateNodes;
+        private final char[][] statePoints;
+        private final int[][] stateTargets;
+        private final boolean[] stateAccepting;
+        /* Results of resolved keys or null if caching is disabled */
+        private final ResolutionCache<V> cache;
+
+        @SuppressWarnings("unchecked")
+        Automaton(final TrieNode<V> root, final int cacheSize) {
+            this.cache = cacheSize == 0 ? null : new ResolutionCache<V>(
+                    cacheSize);
+
+            final List<TrieNode<V>> nodeList = new ArrayList<TrieNode<V>>();
+            final Map<TrieNode<V>, Integer> nodeIds = new IdentityHashMap<TrieNode<V>, Integer>();
+            final Map<PatternParameter, Integer> parameterIds = new HashMap<PatternParameter, Integer>();
+            final List<String> names = new ArrayList<String>();
+
+            nodeIds.put(root, 0);
+            nodeList.add(root);
+
+            for (int i = 0; i < nodeList.size(); i++) {
+                final TrieNode<V> node = nodeList.get(i);
+
+                for (TrieNode<V> child : node.children.values()) {
+                    register(child, nodeList, nodeIds);
+                }
+                for (TrieNode<V> child : node.complementChildren.values()) {
+                    register(child, nodeList, nodeIds);
+                }
+                for (TrieNode<V> child : node.classChildren.values()) {
+                    register(child, nodeList, nodeIds);
+                }
+                for (TrieNode<V> child : node.complementClassChildren.values()) {
+                    register(child, nodeList, nodeIds);
+                }
+                if (node.anyCharChild != null) {
+                    register(node.anyCharChild, nodeList, nodeIds);
+                }
+            }
+
+            final int nodeCount = nodeList.size();
+            this.nodes = (TrieNode<V>[]) nodeList
+                    .toArray(new TrieNode<?>[nodeCount]);
+            this.childChars = new char[nodeCount][];
+            this.childTargets = new int[nodeCount][];
+            this.complementChars = new char[nodeCount][];
+            this.complementTargets = new int[nodeCount][];
+            this.complementAlways = new boolean[nodeCount][];
+            this.anyCharTargets = new int[nodeCount];
+            this.classes = new CharacterClass[nodeCount][];
+            this.classTargets = new int[nodeCount][];
+            this.selfLoops = new boolean[nodeCount];
+            this.nodeParameters = new int[nodeCount][];
+            this.nodeParametersEnd = new int[nodeCount][];
+            this.valuePatterns = new int[nodeCount][];
+            this.valuePriorities = new int[nodeCount][];
+
+            for (int i = 0; i < nodeCount; i++) {
+                final TrieNode<V> node = nodes[i];
+                final TreeMap<Character, TrieNode<V>> children = new TreeMap<Character, TrieNode<V>>(
+                        node.children);
+                final TreeMap<Character, TrieNode<V>> complementChildren = new TreeMap<Character, TrieNode<V>>(
+                        node.complementChildren);
+                int j = 0;
+
+                childChars[i] = new char[children.size()];
+                childTargets[i] = new int[children.size()];
+
+                for (Map.Entry<Character, TrieNode<V>> entry : children
+                        .entrySet()) {
+                    childChars[i][j] = entry.getKey();
+                    childTargets[i][j++] = nodeIds.get(entry.getValue());
+                }
+
+                j = 0;
+                complementChars[i] = new char[complementChildren.size()];
+                complementTargets[i] = new int[complementChildren.size()];
+                complementAlways[i] = new boolean[complementChildren.size()];
+
+                for (Map.Entry<Character, TrieNode<V>> entry : complementChildren
+                        .entrySet()) {
+                    complementChars[i][j] = entry.getKey();
+                    complementTargets[i][j] = nodeIds.get(entry.getValue());
+                    complementAlways[i][j++] = !entry.getValue().associatedParametersEnd
+                            .isEmpty();
+                }
+
+                j = 0;
+                classes[i] = new CharacterClass[node.classChildren.size()
+                        + node.complementClassChildren.size()];
+                classTargets[i] = new int[classes[i].length];
+
+                for (Map.Entry<CharacterClass, TrieNode<V>> entry : node.classChildren
+                        .entrySet()) {
+                    classes[i][j] = entry.getKey();
+                    classTargets[i][j++] = nodeIds.get(entry.getValue());
+                }
+
+                /*
+                 * Like complement edges, complement class edges to nodes that
+                 * end parameters are also taken for the characters of the class
+                 */
+                for (Map.Entry<CharacterClass, TrieNode<V>> entry : node.complementClassChildren
+                        .entrySet()) {
+                    classes[i][j] = entry.getValue().associatedParametersEnd
+                            .isEmpty() ? entry.getKey().complement()
+                            : CharacterClass.ANY;
+                    classTargets[i][j++] = nodeIds.get(entry.getValue());
+                }
+
+                anyCharTargets[i] = node.anyCharChild == null ? -1 : nodeIds
+                        .get(node.anyCharChild);
+                selfLoops[i] = node.children.isEmpty()
+                        && node.complementChildren.isEmpty()
+                        && node.classChildren.isEmpty()
+                        && node.complementClassChildren.isEmpty()
+                        && node.anyCharChild == null
+                        && !node.associatedParametersEnd.isEmpty();
+                nodeParameters[i] = parameterIds(node.associatedParameters,
+                        parameterIds, names);
+                nodeParametersEnd[i] = parameterIds(
+                        node.associatedParametersEnd, parameterIds, names);
+                valuePatterns[i] = toArray(node.inUse ? node.patternIds : null);
+                valuePriorities[i] = toArray(node.inUse ? node.priorities
+                        : null);
+            }
+
+            final int[][] intervals = new int[nodeCount][];
+
+            for (int i = 0; i < nodeCount; i++) {
+                intervals[i] = intervals(i);
+            }
+
+            this.parameterNames = names.toArray(new String[names.size()]);
+            this.parameterPatterns = new int[parameterNames.length];
+
+            for (Map.Entry<PatternParameter, Integer> entry : parameterIds
                     .entrySet()) {
-                TrieNode<V> node = nodeEntry.getKey();
-
-                if (node.inUse) {
-                    for (V nodeValue : node.value) {
-                        ParameterizedValueImpl<V> value = new ParameterizedValueImpl<V>(
-                                nodeValue);
-
-                        for (ParameterResult parameterResult : nodeEntry
-                                .getValue().values()) {
-                            if (parameterResult.ended) {
-                                value.setParameter(
-                                        parameterResult.parameter.name,
-                                        parameterResult.value.toString());
+                parameterPatterns[entry.getValue()] = entry.getKey().patternId;
+            }
+
+            /* Subset construction */
+            final List<int[]> sets = new ArrayList<int[]>();
+            final Map<NodeSet, Integer> setIds = new HashMap<NodeSet, Integer>();
+            final List<char[]> pointsList = new ArrayList<char[]>();
+            final List<int[]> targetsList = new ArrayList<int[]>();
+            final Sweep sweep = new Sweep(intervals);
+
+            sets.add(new int[]{0});
+            setIds.put(new NodeSet(sets.get(0)), 0);
+
+            for (int state = 0; state < sets.size(); state++) {
+                sweep.run(sets.get(state), sets, setIds);
+                pointsList.add(sweep.getPoints());
+                targetsList.add(sweep.getTargets());
+            }
+
+            final int stateCount = sets.size();
+            this.stateNodes = sets.toArray(new int[stateCount][]);
+            this.statePoints = pointsList.toArray(new char[stateCount][]);
+            this.stateTargets = targetsList.toArray(new int[stateCount][]);
+            this.stateAccepting = new boolean[stateCount];
+
+            for (int state = 0; state < stateCount; state++) {
+                for (int node : stateNodes[state]) {
+                    if (nodes[node].inUse) {
+                        stateAccepting[state] = true;
+                    }
+                }
+            }
+        }
+
+        private static <V> void register(final TrieNode<V> node,
+                                         final List<TrieNode<V>> nodeList,
+                                         final Map<TrieNode<V>, Integer> nodeIds) {
+            if (!nodeIds.containsKey(node)) {
+                nodeIds.put(node, nodeList.size());
+                nodeList.add(node);
+            }
+        }
+
+        private static int[] toArray(final List<Integer> list) {
+            if (list == null) {
+                return EMPTY;
+            }
+
+            final int[] array = new int[list.size()];
+
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+
+            return array;
+        }
+
+        private static int[] parameterIds(
+                final Set<PatternParameter> parameters,
+                final Map<PatternParameter, Integer> parameterIds,
+                final List<String> names) {
+            if (parameters.isEmpty()) {
+                return EMPTY;
+            }
+
+            final int[] ids = new int[parameters.size()];
+            int i = 0;
+
+            for (PatternParameter parameter : parameters) {
+                Integer id = parameterIds.get(parameter);
+
+                if (id == null) {
+                    id = names.size();
+                    parameterIds.put(parameter, id);
+                    names.add(parameter.name);
+                }
+
+                ids[i++] = id;
+            }
+
+            Arrays.sort(ids);
+            return ids;
+        }
+
+        /**
+         * Returns the edges of the given node as a sequence of triples of the
+         * first character, the last character and the target of an interval.
+         */
+        private int[] intervals(final int node) {
+            int count = 2 + childChars[node].length + 2
+                    * complementChars[node].length;
+
+            for (CharacterClass characterClass : classes[node]) {
+                count += characterClass.getRangeCount();
+            }
+
+            final int[] result = new int[3 * count];
+            int size = 0;
+
+            if (anyCharTargets[node] >= 0) {
+                size = interval(result, size, Character.MIN_VALUE,
+                        Character.MAX_VALUE, anyCharTargets[node]);
+            }
+            if (selfLoops[node]) {
+                size = interval(result, size, Character.MIN_VALUE,
+                        Character.MAX_VALUE, node);
+            }
+            for (int i = 0; i < childChars[node].length; i++) {
+                size = interval(result, size, childChars[node][i],
+                        childChars[node][i], childTargets[node][i]);
+            }
+            for (int i = 0; i < complementChars[node].length; i++) {
+                final char c = complementChars[node][i];
+                final int target = complementTargets[node][i];
+
+                if (complementAlways[node][i]) {
+                    size = interval(result, size, Character.MIN_VALUE,
+                            Character.MAX_VALUE, target);
+                } else {
+                    if (c != Character.MIN_VALUE) {
+                        size = interval(result, size, Character.MIN_VALUE,
+                                c - 1, target);
+                    }
+                    if (c != Character.MAX_VALUE) {
+                        size = interval(result, size, c + 1,
+                                Character.MAX_VALUE, target);
+                    }
+                }
+            }
+            for (int i = 0; i < classes[node].length; i++) {
+                final CharacterClass characterClass = classes[node][i];
+
+                for (int j = 0; j < characterClass.getRangeCount(); j++) {
+                    size = interval(result, size, characterClass.getStart(j),
+                            characterClass.getEnd(j), classTargets[node][i]);
+                }
+            }
+
+            return Arrays.copyOf(result, size);
+        }
+
+        private static int interval(final int[] intervals, int size,
+                                    final int first, final int last, final int target) {
+            intervals[size++] = first;
+            intervals[size++] = last;
+            intervals[size++] = target;
+            return size;
+        }
+
+        private static int stateId(final int[] set, final List<int[]> sets,
+                                   final Map<NodeSet, Integer> setIds) {
+            if (set.length == 0) {
+                return -1;
+            }
+
+            final NodeSet key = new NodeSet(set);
+            Integer id = setIds.get(key);
+
+            if (id == null) {
+                id = sets.size();
+                sets.add(set);
+                setIds.put(key, id);
+            }
+
+            return id;
+        }
+
+        /**
+         * Computes the transitions of a deterministic state by sweeping over
+         * the sorted bounds of the edge intervals of its nodes, so the cost
+         * depends on the number of edges of the nodes and not on the number
+         * of edges times the number of characters at which they change.
+         */
+        private static final class Sweep {
+
+            private final int[][] intervals;
+            /* Number of active intervals per target node */
+            private final int[] counts;
+            /* Unordered active target nodes and their index in that list */
+            private final int[] active;
+            private final int[] activeIndex;
+            private long[] events = new long[16];
+            private char[] points = new char[8];
+            private int[] targets = new int[8];
+            private int pointCount;
+
+            Sweep(final int[][] intervals) {
+                this.intervals = intervals;
+                this.counts = new int[intervals.length];
+                this.active = new int[intervals.length];
+                this.activeIndex = new int[intervals.length];
+            }
+
+            void run(final int[] set, final List<int[]> sets,
+                     final Map<NodeSet, Integer> setIds) {
+                int size = 0;
+
+                for (int node : set) {
+                    final int[] nodeIntervals = intervals[node];
+
+                    if (size + (nodeIntervals.length / 3) * 2 > events.length) {
+                        events = Arrays.copyOf(events, Math.max(
+                                events.length << 1, size
+                                        + (nodeIntervals.length / 3) * 2));
+                    }
+
+                    for (int i = 0; i < nodeIntervals.length; i += 3) {
+                        /* The position is in the upper bits, then the kind */
+                        events[size++] = ((long) nodeIntervals[i] << 32)
+                                | (1L << 31) | nodeIntervals[i + 2];
+                        events[size++] = ((long) (nodeIntervals[i + 1] + 1) << 32)
+                                | nodeIntervals[i + 2];
+                    }
+                }
+
+                Arrays.sort(events, 0, size);
+                pointCount = 0;
+
+                if (size == 0 || events[0] >>> 32 != Character.MIN_VALUE) {
+                    addPoint(Character.MIN_VALUE, -1);
+                }
+
+                int activeSize = 0;
+                int i = 0;
+
+                while (i < size) {
+                    final int position = (int) (events[i] >>> 32);
+
+                    do {
+                        final long event = events[i++];
+                        final int target = (int) (event & Integer.MAX_VALUE);
+
+                        if ((event & (1L << 31)) != 0) {
+                            if (counts[target]++ == 0) {
+                                activeIndex[target] = activeSize;
+                                active[activeSize++] = target;
                             }
+                        } else if (--counts[target] == 0) {
+                            final int last = active[--activeSize];
+                            active[activeIndex[target]] = last;
+                            activeIndex[last] = activeIndex[target];
                         }
+                    } while (i < size && (int) (events[i] >>> 32) == position);
 
-                        result.add(value);
+                    if (position <= Character.MAX_VALUE) {
+                        final int[] targetSet = Arrays.copyOf(active,
+                                activeSize);
+                        Arrays.sort(targetSet);
+                        final int target = stateId(targetSet, sets, setIds);
+
+                        if (pointCount == 0
+                                || targets[pointCount - 1] != target) {
+                            addPoint((char) position, target);
+                        }
                     }
                 }
             }
-        }
 
-        return result;
-    }
+            private void addPoint(final char point, final int target) {
+                if (pointCount == points.length) {
+                    points = Arrays.copyOf(points, pointCount << 1);
+                    targets = Arrays.copyOf(targets, pointCount << 1);
+                }
 
-    private static class ParameterResult {
-        private PatternParameter parameter;
-        private StringBuilder value;
-        private boolean ended = false;
+                points[pointCount] = point;
+                targets[pointCount++] = target;
+            }
 
-        public ParameterResult(PatternParameter parameter) {
-            this.parameter = parameter;
-            this.value = new StringBuilder();
+            char[] getPoints() {
+                return Arrays.copyOf(points, pointCount);
+            }
+
+            int[] getTargets() {
+                return Arrays.copyOf(targets, pointCount);
+            }
         }
 
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result
-                    + ((parameter == null) ? 0 : parameter.hashCode());
-            return result;
+        private int child(final int node, final char c) {
+            final int index = Arrays.binarySearch(childChars[node], c);
+            return index < 0 ? -1 : childTargets[node][index];
         }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
+        /**
+         * Returns whether the given target node is reached from the given
+         * node with the given character.
+         */
+        private boolean reaches(final int node, final char c, final int target) {
+            if (anyCharTargets[node] == target || child(node, c) == target
+                    || (selfLoops[node] && node == target)) {
                 return true;
             }
-            if (obj == null) {
-                return false;
+
+            final int[] targets = complementTargets[node];
+
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] == target
+                        && (complementChars[node][i] != c || complementAlways[node][i])) {
+                    return true;
+                }
+            }
+
+            for (int i = 0; i < classTargets[node].length; i++) {
+                if (classTargets[node][i] == target
+                        && classes[node][i].contains(c)) {
+                    return true;
+                }
             }
-            if (!(obj instanceof ParameterResult)) {
+
+            return false;
+        }
+
+        private int transition(final int state, final char c) {
+            final int index = Arrays.binarySearch(statePoints[state], c);
+            return stateTargets[state][index < 0 ? -index - 2 : index];
+        }
+
+        /**
+         * Resolves the given key with the given context and returns the
+         * matches. If sharePrefix is true, the states recorded by the
+         * previous call with the same context are reused for the prefix that
+         * the previous key shares with the given key.
+         */
+        Set<ParameterizedValue<V>> resolve(final CharSequence key,
+                                           final MatchContext<V> context, final boolean sharePrefix) {
+            final Set<ParameterizedValue<V>> result = new HashSet<ParameterizedValue<V>>();
+
+            if (match(key, context, sharePrefix)) {
+                for (int i = 0; i < context.matchCount; i++) {
+                    final ParameterizedValueImpl<V> value = new ParameterizedValueImpl<V>(
+                            context.getValue(i));
+
+                    for (int j = 0; j < context.getParameterCount(i); j++) {
+                        value.setParameter(context.getParameterName(i, j),
+                                key.subSequence(context.getParameterStart(i, j),
+                                        context.getParameterEnd(i, j)).toString());
+                    }
+
+                    result.add(value);
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Runs the automaton over the given key and stores the matches in the
+         * given context.
+         */
+        boolean match(final CharSequence key, final MatchContext<V> context) {
+            return match(key, context, false);
+        }
+
+        private boolean match(final CharSequence key,
+                              final MatchContext<V> context, final boolean sharePrefix) {
+            final int state = run(key, context, sharePrefix);
+
+            if (state < 0) {
                 return false;
             }
-            ParameterResult other = (ParameterResult) obj;
-            if (parameter == null) {
-                if (other.parameter != null) {
-                    return false;
+
+            for (int node : stateNodes[state]) {
+                final TrieNode<V> trieNode = nodes[node];
+
+                if (trieNode.inUse) {
+                    capture(key, context, node, EMPTY, -1);
+
+                    for (int i = 0; i < trieNode.value.size(); i++) {
+                        context.addMatch(trieNode.value.get(i));
+                    }
+
+                    context.clearCapture();
                 }
-            } else if (!parameter.equals(other.parameter)) {
+            }
+
+            return true;
+        }
+
+        /**
+         * Like {@link #match(CharSequence, MatchContext)} but only stores the
+         * most specific match. A match is more specific if more characters
+         * are not consumed by parameters of its pattern, then if its pattern
+         * has fewer parameters on the path and then if its priority is
+         * higher. Nodes are shared between patterns, so the characters are
+         * counted per pattern of a value.
+         */
+        boolean matchBest(final CharSequence key, final MatchContext<V> context) {
+            final int state = run(key, context, false);
+
+            if (state < 0) {
                 return false;
             }
+
+            final int length = key.length();
+            int bestLiterals = -1;
+            int bestWildcards = 0;
+            int bestPriority = 0;
+
+            for (int node : stateNodes[state]) {
+                final TrieNode<V> trieNode = nodes[node];
+                final int[] patterns = valuePatterns[node];
+
+                if (!trieNode.inUse
+                        || !capture(key, context, node, patterns, bestLiterals)) {
+                    context.clearCapture();
+                    continue;
+                }
+
+                for (int i = 0; i < patterns.length; i++) {
+                    final int literals = length - context.covered[i];
+                    final int wildcards = context.countTouched(
+                            parameterPatterns, patterns[i]);
+                    final int priority = valuePriorities[node][i];
+
+                    if (literals > bestLiterals
+                            || (literals == bestLiterals && (wildcards < bestWildcards
+                            || (wildcards == bestWildcards && priority > bestPriority)))) {
+                        bestLiterals = literals;
+                        bestWildcards = wildcards;
+                        bestPriority = priority;
+                        context.clearMatches();
+                        context.addMatch(trieNode.value.get(i),
+                                parameterPatterns, patterns[i]);
+                    }
+                }
+
+                context.clearCapture();
+            }
+
+            return true;
+        }
+
+        /**
+         * Runs the automaton over the given key while recording the states in
+         * the given context and returns the final state if it is accepting,
+         * otherwise -1. If sharePrefix is true and the context was last used
+         * with this automaton, the run starts after the prefix that the
+         * previous key shares with the given key.
+         */
+        private int run(final CharSequence key, final MatchContext<V> context,
+                        final boolean sharePrefix) {
+            final int length = key.length();
+            int offset = 0;
+
+            if (sharePrefix && context.parameterNames == parameterNames) {
+                final CharSequence previousKey = context.key;
+                final int limit = Math.min(length, context.validTraceLength - 1);
+
+                while (offset < limit
+                        && previousKey.charAt(offset) == key.charAt(offset)) {
+                    offset++;
+                }
+            }
+
+            final int[] trace = context.reset(key, parameterNames, length + 1);
+            int state = trace[offset];
+
+            for (int i = offset; i < length; i++) {
+                state = transition(state, key.charAt(i));
+
+                if (state < 0) {
+                    context.validTraceLength = i + 1;
+                    return -1;
+                }
+
+                trace[i + 1] = state;
+            }
+
+            context.validTraceLength = length + 1;
+            return stateAccepting[state] ? state : -1;
+        }
+
+        /**
+         * Follows a trie path that ends at the given node backwards through
+         * the recorded states and collects the offsets of the characters
+         * consumed by parameter nodes. For every given pattern the number of
+         * characters consumed by its parameters is counted in the covered
+         * array of the context. Returns false as soon as no pattern can have
+         * minLiterals characters that are not consumed by its parameters.
+         */
+        private boolean capture(final CharSequence key,
+                                final MatchContext<V> context, int node,
+                                final int[] patterns, final int minLiterals) {
+            final int[] trace = context.trace;
+            final int[] covered = context.covered(patterns.length);
+            final int length = key.length();
+
+            for (int i = context.traceLength - 1; i > 0; i--) {
+                final char c = key.charAt(i - 1);
+                final int[] parameters = nodeParameters[node];
+
+                for (int j = 0; j < parameters.length; j++) {
+                    final int parameter = parameters[j];
+                    context.capture(parameter, i, Arrays.binarySearch(
+                            nodeParametersEnd[node], parameter) >= 0);
+                }
+
+                if (parameters.length != 0 && patterns.length != 0) {
+                    int minCovered = Integer.MAX_VALUE;
+
+                    for (int k = 0; k < patterns.length; k++) {
+                        for (int j = 0; j < parameters.length; j++) {
+                            if (parameterPatterns[parameters[j]] == patterns[k]) {
+                                covered[k]++;
+                                break;
+                            }
+                        }
+
+                        minCovered = Math.min(minCovered, covered[k]);
+                    }
+
+                    if (length - minCovered < minLiterals) {
+                        return false;
+                    }
+                }
+
+                for (int predecessor : stateNodes[trace[i - 1]]) {
+                    if (reaches(predecessor, c, node)) {
+                        node = predecessor;
+                        break;
+                    }
+                }
+            }
+
             return true;
         }
     }
 
-    private Map<TrieNode<V>, Map<PatternParameter, ParameterResult>> findMatchingNodes(
-            Map<TrieNode<V>, Map<PatternParameter, ParameterResult>> nodes,
-            char c) {
-        Map<TrieNode<V>, Map<PatternParameter, ParameterResult>> matchingNodes = new HashMap<TrieNode<V>, Map<PatternParameter, ParameterResult>>(
-                1);
+    /**
+     * A reusable context for {@link PatternTrie#resolve(CharSequence, MatchContext)}
+     * which holds the matches of the last resolved key. Parameters are
+     * reported as offsets into the key instead of copied strings, so once the
+     * internal buffers have grown to the needed size resolving a key does not
+     * allocate. A context must only be used by one thread at a time.
+     *
+     * @param <V>
+     *            The value type that the pattern trie holds.
+     */
+    public static final class MatchContext<V> {
+
+        private static final int[] EMPTY = new int[0];
+
+        private CharSequence key;
+        private String[] parameterNames;
+        /* The states visited by the automaton for every offset of the key */
+        private int[] trace = EMPTY;
+        private int traceLength;
+        /* The number of states recorded for the current key */
+        private int validTraceLength;
+        /* Capture state of the current backward pass, indexed by parameter */
+        private int[] starts = EMPTY;
+        private int[] ends = EMPTY;
+        private boolean[] ended = new boolean[0];
+        private int[] touched = EMPTY;
+        private int touchedCount;
+        /* Characters consumed by the parameters of candidate patterns */
+        private int[] covered = EMPTY;
+        /* Matches and their parameters as name, start and end triples */
+        private Object[] values = new Object[4];
+        private int[] parameterOffsets = new int[5];
+        private int[] parameterData = new int[12];
+        private int matchCount;
+
+        int[] reset(final CharSequence key, final String[] parameterNames,
+                    final int traceLength) {
+            final int parameterCount = parameterNames.length;
+            this.key = key;
+            this.parameterNames = parameterNames;
+            this.traceLength = traceLength;
+
+            clearMatches();
+
+            if (trace.length < traceLength) {
+                trace = Arrays.copyOf(trace, Math.max(traceLength,
+                        trace.length << 1));
+            }
+
+            if (ends.length < parameterCount) {
+                starts = new int[parameterCount];
+                ends = new int[parameterCount];
+                ended = new boolean[parameterCount];
+                touched = new int[parameterCount];
+                Arrays.fill(ends, -1);
+            }
 
-        for (Map.Entry<TrieNode<V>, Map<PatternParameter, ParameterResult>> nodeEntry : nodes
-                .entrySet()) {
-            TrieNode<V> node = nodeEntry.getKey();
-            TrieNode<V> childNode = node.anyCharChild;
+            return trace;
+        }
 
-            if (childNode != null) {
-                matchingNodes.put(
-                        childNode,
-                        getParameterResult(nodeEntry.getValue(), c,
-                                childNode.associatedParameters,
-                                childNode.associatedParametersEnd));
+        void capture(final int parameter, final int position,
+                     final boolean end) {
+            if (ends[parameter] < 0) {
+                ends[parameter] = position;
+                touched[touchedCount++] = parameter;
             }
 
-            childNode = node.children.get(c);
+            starts[parameter] = position - 1;
+            ended[parameter] |= end;
+        }
+
+        void addMatch(final V value) {
+            addMatch(value, null, 0);
+        }
 
-            if (childNode != null) {
-                matchingNodes.put(
-                        childNode,
-                        getParameterResult(nodeEntry.getValue(), c,
-                                childNode.associatedParameters,
-                                childNode.associatedParametersEnd));
+        /**
+         * Stores a match with the captured parameters. If parameter patterns
+         * are given only the parameters of the given pattern are stored.
+         */
+        void addMatch(final V value, final int[] parameterPatterns,
+                      final int patternId) {
+            final int index = matchCount;
+
+            if (index == values.length) {
+                values = Arrays.copyOf(values, index << 1);
+                parameterOffsets = Arrays.copyOf(parameterOffsets,
+                        (index << 1) + 1);
             }
 
-            for (Map.Entry<Character, TrieNode<V>> complementNodeEntry : node.complementChildren
-                    .entrySet()) {
-                childNode = complementNodeEntry.getValue();
-
-                if (complementNodeEntry.getKey() != c
-                        || !childNode.associatedParametersEnd.isEmpty()) {
-                    matchingNodes.put(
-                            childNode,
-                            getParameterResult(nodeEntry.getValue(), c,
-                                    childNode.associatedParameters,
-                                    childNode.associatedParametersEnd));
-                }
-            }
-
-            // Consume the rest of the characters
-            if (node.anyCharChild == null && node.children.isEmpty()
-                    && node.complementChildren.isEmpty()) {
-                for (Map.Entry<PatternParameter, ParameterResult> resultEntry : nodeEntry
-                        .getValue().entrySet()) {
-                    if (node.associatedParametersEnd.contains(resultEntry
-                            .getKey())) {
-                        matchingNodes.put(
-                                node,
-                                getParameterResult(nodeEntry.getValue(), c,
-                                        node.associatedParameters,
-                                        node.associatedParametersEnd));
+            int offset = parameterOffsets[index];
+
+            /* Parameters were touched backwards, so report them reversed */
+            for (int i = touchedCount - 1; i >= 0; i--) {
+                final int parameter = touched[i];
+
+                if (ended[parameter]
+                        && (parameterPatterns == null || parameterPatterns[parameter] == patternId)) {
+                    if (offset + 3 > parameterData.length) {
+                        parameterData = Arrays.copyOf(parameterData,
+                                parameterData.length << 1);
                     }
+
+                    parameterData[offset++] = parameter;
+                    parameterData[offset++] = starts[parameter];
+                    parameterData[offset++] = ends[parameter];
                 }
             }
+
+            values[index] = value;
+            parameterOffsets[index + 1] = offset;
+            matchCount = index + 1;
         }
 
-        return matchingNodes;
-    }
+        int[] covered(final int patternCount) {
+            if (covered.length < patternCount) {
+                covered = new int[Math.max(patternCount, covered.length << 1)];
+            } else {
+                Arrays.fill(covered, 0, patternCount, 0);
+            }
+
+            return covered;
+        }
+
+        /**
+         * Returns the number of captured parameters of the given pattern.
+         */
+        int countTouched(final int[] parameterPatterns, final int patternId) {
+            int count = 0;
+
+            for (int i = 0; i < touchedCount; i++) {
+                if (parameterPatterns[touched[i]] == patternId) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+
+        void clearMatches() {
+            for (int i = 0; i < matchCount; i++) {
+                values[i] = null;
+            }
+
+            matchCount = 0;
+        }
+
+        void clearCapture() {
+            for (int i = 0; i < touchedCount; i++) {
+                ends[touched[i]] = -1;
+                ended[touched[i]] = false;
+            }
+
+            touchedCount = 0;
+        }
+
+        /**
+         * Returns the key that was resolved last.
+         *
+         * @return The last resolved key
+         */
+        public CharSequence getKey() {
+            return key;
+        }
+
+        /**
+         * Returns the number of matches of the last resolved key. Unlike
+         * {@link PatternTrie#resolve(String)} equal matches are not merged.
+         *
+         * @return The match count
+         */
+        public int getMatchCount() {
+            return matchCount;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V getValue(final int match) {
+            checkMatch(match);
+            return (V) values[match];
+        }
+
+        public int getParameterCount(final int match) {
+            checkMatch(match);
+            return (parameterOffsets[match + 1] - parameterOffsets[match]) / 3;
+        }
 
-    private Map<PatternParameter, ParameterResult> getParameterResult(
-            Map<PatternParameter, ParameterResult> parameterResults, char c,
-            Set<PatternParameter> associatedParameters,
-            Set<PatternParameter> associatedParametersEnd) {
-        parameterResults = new HashMap<PatternParameter, ParameterResult>(
-                parameterResults);
+        public String getParameterName(final int match, final int parameter) {
+            return parameterNames[parameterData[dataIndex(match, parameter)]];
+        }
 
-        for (PatternParameter parameter : associatedParameters) {
-            ParameterResult parameterResult = parameterResults.get(parameter);
+        public int getParameterStart(final int match, final int parameter) {
+            return parameterData[dataIndex(match, parameter) + 1];
+        }
 
-            if (parameterResult == null) {
-                parameterResult = new ParameterResult(parameter);
-                parameterResults.put(parameter, parameterResult);
+        public int getParameterEnd(final int match, final int parameter) {
+            return parameterData[dataIndex(match, parameter) + 2];
+        }
+
+        /**
+         * Returns the index of the parameter with the given name of the given
+         * match or -1 if the match has no such parameter.
+         *
+         * @param match
+         *            The index of the match
+         * @param name
+         *            The parameter name
+         * @return The parameter index or -1
+         */
+        public int getParameterIndex(final int match, final String name) {
+            final int count = getParameterCount(match);
+
+            for (int i = 0; i < count; i++) {
+                if (getParameterName(match, i).equals(name)) {
+                    return i;
+                }
             }
 
-            parameterResult.value.append(c);
+            return -1;
+        }
 
-            if (associatedParametersEnd.contains(parameter)) {
-                parameterResult.ended = true;
+        private int dataIndex(final int match, final int parameter) {
+            if (parameter < 0 || parameter >= getParameterCount(match)) {
+                throw new IndexOutOfBoundsException("Parameter: " + parameter);
             }
+
+            return parameterOffsets[match] + parameter * 3;
         }
 
-        return parameterResults;
+        private void checkMatch(final int match) {
+            if (match < 0 || match >= matchCount) {
+                throw new IndexOutOfBoundsException("Match: " + match);
+            }
+        }
+    }
+
+    /**
+     * A sorted set of node ids that is used as key for deterministic states.
+     */
+    private static final class NodeSet {
+
+        private final int[] nodes;
+        private final int hash;
+
+        public NodeSet(int[] nodes) {
+            this.nodes = nodes;
+            this.hash = Arrays.hashCode(nodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof NodeSet
+                    && Arrays.equals(nodes, ((NodeSet) obj).nodes);
+        }
     }
 
     private static final class PatternParameter {
@@ -570,15 +1705,26 @@ public class PatternTrie<V> implements Serializable {
         private static final long serialVersionUID = 1L;
         private final Map<Character, TrieNode<V>> children = new HashMap<Character, TrieNode<V>>();
         private final Map<Character, TrieNode<V>> complementChildren = new HashMap<Character, TrieNode<V>>();
+        private final Map<CharacterClass, TrieNode<V>> classChildren = new HashMap<CharacterClass, TrieNode<V>>();
+        /* Taken for every character that is not in the class */
+        private final Map<CharacterClass, TrieNode<V>> complementClassChildren = new HashMap<CharacterClass, TrieNode<V>>();
         private List<V> value;
+        /* The priorities and pattern ids of the values */
+        private List<Integer> priorities;
+        private List<Integer> patternIds;
         private boolean inUse;
         private TrieNode<V> anyCharChild;
         private final Set<PatternParameter> associatedParameters = new HashSet<PatternParameter>();
         private final Set<PatternParameter> associatedParametersEnd = new HashSet<PatternParameter>();
 
-        public TrieNode(final V value) {
+        public TrieNode(final V value, final int priority,
+                        final int patternId) {
             this.value = new ArrayList<V>();
             this.value.add(value);
+            this.priorities = new ArrayList<Integer>();
+            this.priorities.add(priority);
+            this.patternIds = new ArrayList<Integer>();
+            this.patternIds.add(patternId);
             this.inUse = true;
         }
 
@@ -612,10 +1758,14 @@ public class PatternTrie<V> implements Serializable {
         }
     }
 
-    private void add(final char[] pattern, final V value, final int patternId,
+    private void add(final char[] pattern, final V value, final int priority,
+                     final int patternId,
                      final Map<Parameter, ExtendedPattern> parameters) {
+        automaton = null;
+
         if (pattern.length == 0) {
-            update(root, value);
+            update(root, value, priority, patternId);
+            return;
         }
 
         int cursor = 0;
@@ -640,9 +1790,10 @@ public class PatternTrie<V> implements Serializable {
                     lastNode = nextNode;
                 }
 
-                lastNode.children.put(pattern[cursor], new TrieNode<V>(value));
+                lastNode.children.put(pattern[cursor], new TrieNode<V>(value,
+                        priority, patternId));
             } else {
-                update(currentNode, value);
+                update(currentNode, value, priority, patternId);
             }
         } else {
             final List<Map.Entry<Parameter, ExtendedPattern>> parameterEntries = new ArrayList<Map.Entry<Parameter, ExtendedPattern>>(
@@ -685,27 +1836,36 @@ public class PatternTrie<V> implements Serializable {
 
             if (cursor == pattern.length - 1) {
 				/* Last char in pattern is part of parameter */
-                update(currentNodes, value);
+                update(currentNodes, value, priority, patternId);
             } else {
 				/* Last char in pattern is not part of parameter */
-                update(getOrCreate(currentNodes, pattern[cursor], null), value);
+                update(getOrCreate(currentNodes, pattern[cursor], null), value,
+                        priority, patternId);
             }
         }
     }
 
-    private void update(final TrieNode<V> node, final V value) {
+    private void update(final TrieNode<V> node, final V value,
+                        final int priority, final int patternId) {
         if (node.inUse) {
             node.value.add(value);
+            node.priorities.add(priority);
+            node.patternIds.add(patternId);
         } else {
             node.value = new ArrayList<V>();
             node.value.add(value);
+            node.priorities = new ArrayList<Integer>();
+            node.priorities.add(priority);
+            node.patternIds = new ArrayList<Integer>();
+            node.patternIds.add(patternId);
             node.inUse = true;
         }
     }
 
-    private void update(final List<TrieNode<V>> nodes, final V value) {
+    private void update(final List<TrieNode<V>> nodes, final V value,
+                        final int priority, final int patternId) {
         for (int i = 0; i < nodes.size(); i++) {
-            update(nodes.get(i), value);
+            update(nodes.get(i), value, priority, patternId);
         }
     }
 
@@ -753,6 +1913,28 @@ public class PatternTrie<V> implements Serializable {
         return resultNodes;
     }
 
+    private List<TrieNode<V>> getOrCreateClass(List<TrieNode<V>> nodes,
+                                               CharacterClass characterClass, PatternParameter parameter) {
+        List<TrieNode<V>> resultNodes = new ArrayList<TrieNode<V>>(nodes.size());
+
+        for (int i = 0; i < nodes.size(); i++) {
+            TrieNode<V> node = nodes.get(i).classChildren.get(characterClass);
+
+            if (node == null) {
+                node = new TrieNode<V>();
+                nodes.get(i).classChildren.put(characterClass, node);
+            }
+
+            resultNodes.add(node);
+
+            if (parameter != null) {
+                node.associatedParameters.add(parameter);
+            }
+        }
+
+        return resultNodes;
+    }
+
     private List<TrieNode<V>> getOrCreateComplement(List<TrieNode<V>> nodes,
                                                     Character c, PatternParameter parameter) {
         List<TrieNode<V>> resultNodes = new ArrayList<TrieNode<V>>(nodes.size());
@@ -775,6 +1957,30 @@ public class PatternTrie<V> implements Serializable {
         return resultNodes;
     }
 
+    private List<TrieNode<V>> getOrCreateComplementClass(
+            List<TrieNode<V>> nodes, CharacterClass characterClass,
+            PatternParameter parameter) {
+        List<TrieNode<V>> resultNodes = new ArrayList<TrieNode<V>>(nodes.size());
+
+        for (int i = 0; i < nodes.size(); i++) {
+            TrieNode<V> node = nodes.get(i).complementClassChildren
+                    .get(characterClass);
+
+            if (node == null) {
+                node = new TrieNode<V>();
+                nodes.get(i).complementClassChildren.put(characterClass, node);
+            }
+
+            resultNodes.add(node);
+
+            if (parameter != null) {
+                node.associatedParameters.add(parameter);
+            }
+        }
+
+        return resultNodes;
+    }
+
     private void mergeIntoNodes(List<TrieNode<V>> nodes, TrieNode<V> node) {
         if (nodes.isEmpty()) {
             return;
@@ -820,6 +2026,46 @@ public class PatternTrie<V> implements Serializable {
             mergeIntoNodes(newTargetNodes, tempNodeEntry.getValue());
         }
 
+        for (Map.Entry<CharacterClass, TrieNode<V>> tempNodeEntry : node.classChildren
+                .entrySet()) {
+            List<TrieNode<V>> newTargetNodes = new ArrayList<TrieNode<V>>();
+
+            for (int i = 0; i < nodes.size(); i++) {
+                TrieNode<V> targetNode = nodes.get(i);
+                TrieNode<V> tempTargetNode = targetNode.classChildren
+                        .get(tempNodeEntry.getKey());
+
+                if (tempTargetNode == null) {
+                    targetNode.classChildren.put(tempNodeEntry.getKey(),
+                            tempNodeEntry.getValue());
+                } else {
+                    newTargetNodes.add(tempTargetNode);
+                }
+            }
+
+            mergeIntoNodes(newTargetNodes, tempNodeEntry.getValue());
+        }
+
+        for (Map.Entry<CharacterClass, TrieNode<V>> tempNodeEntry : node.complementClassChildren
+                .entrySet()) {
+            List<TrieNode<V>> newTargetNodes = new ArrayList<TrieNode<V>>();
+
+            for (int i = 0; i < nodes.size(); i++) {
+                TrieNode<V> targetNode = nodes.get(i);
+                TrieNode<V> tempTargetNode = targetNode.complementClassChildren
+                        .get(tempNodeEntry.getKey());
+
+                if (tempTargetNode == null) {
+                    targetNode.complementClassChildren.put(
+                            tempNodeEntry.getKey(), tempNodeEntry.getValue());
+                } else {
+                    newTargetNodes.add(tempTargetNode);
+                }
+            }
+
+            mergeIntoNodes(newTargetNodes, tempNodeEntry.getValue());
+        }
+
         List<TrieNode<V>> newTargetNodes = new ArrayList<TrieNode<V>>();
 
         for (int i = 0; i < nodes.size(); i++) {
@@ -844,7 +2090,8 @@ public class PatternTrie<V> implements Serializable {
         if (node.inUse) {
             for (int i = 0; i < nodes.size(); i++) {
                 for (int j = 0; j < node.value.size(); j++) {
-                    update(nodes.get(i), node.value.get(j));
+                    update(nodes.get(i), node.value.get(j),
+                            node.priorities.get(j), node.patternIds.get(j));
                 }
             }
         }
@@ -1018,9 +2265,12 @@ public class PatternTrie<V> implements Serializable {
             char end = rangeNode.getEnd();
 
             if (context.isComplement()) {
-                for (int i = start; i <= end; i++) {
-                    newNodes.addAll(getOrCreateComplement(trieNodes, (char) i,
-                            context.parameter));
+                if (start == end) {
+                    newNodes = getOrCreateComplement(trieNodes, start,
+                            context.parameter);
+                } else {
+                    newNodes = getOrCreateComplementClass(trieNodes,
+                            CharacterClass.range(start, end), context.parameter);
                 }
             } else {
                 for (int i = start; i <= end; i++) {
@@ -1028,6 +2278,25 @@ public class PatternTrie<V> implements Serializable {
                             context.parameter));
                 }
             }
+        } else if (node instanceof CharClassNode) {
+            CharacterClass characterClass = ((CharClassNode) node)
+                    .getCharacterClass();
+
+            if (context.isComplement()) {
+                if (characterClass.isSingleCharacter()) {
+                    newNodes = getOrCreateComplement(trieNodes,
+                            characterClass.getStart(0), context.parameter);
+                } else {
+                    newNodes = getOrCreateComplementClass(trieNodes,
+                            characterClass, context.parameter);
+                }
+            } else if (characterClass.isSingleCharacter()) {
+                newNodes = getOrCreate(trieNodes, characterClass.getStart(0),
+                        context.parameter);
+            } else {
+                newNodes = getOrCreateClass(trieNodes, characterClass,
+                        context.parameter);
+            }
         } else if (node instanceof CharNode) {
             if (context.isComplement()) {
                 newNodes = getOrCreateComplement(trieNodes,
@@ -1109,6 +2378,8 @@ public class PatternTrie<V> implements Serializable {
         }
 
         if (node.children.size() == 1 && node.complementChildren.size() == 0
+                && node.classChildren.size() == 0
+                && node.complementClassChildren.size() == 0
                 && node.anyCharChild == null) {
             Map.Entry<Character, TrieNode<V>> entry = node.children.entrySet()
                     .iterator().next();
@@ -1125,6 +2396,8 @@ public class PatternTrie<V> implements Serializable {
             }
         } else if (node.children.size() == 0
                 && node.complementChildren.size() == 1
+                && node.classChildren.size() == 0
+                && node.complementClassChildren.size() == 0
                 && node.anyCharChild == null) {
             Map.Entry<Character, TrieNode<V>> entry = node.complementChildren
                     .entrySet().iterator().next();
@@ -1141,6 +2414,8 @@ public class PatternTrie<V> implements Serializable {
             }
         } else if (node.children.size() == 0
                 && node.complementChildren.size() == 0
+                && node.classChildren.size() == 0
+                && node.complementClassChildren.size() == 0
                 && node.anyCharChild != null) {
             sb.append('.');
 
@@ -1198,6 +2473,48 @@ public class PatternTrie<V> implements Serializable {
                 }
             }
 
+            for (Map.Entry<CharacterClass, TrieNode<V>> entry : node.classChildren
+                    .entrySet()) {
+                sb.append('\n');
+
+                for (int i = 0; i < depth; i++) {
+                    sb.append(' ');
+                }
+
+                sb.append(entry.getKey());
+
+                if (anyReachedThreshold(parameterCount,
+                        entry.getValue().associatedParameters,
+                        charCountThreshold)) {
+                    sb.append("(...)");
+                } else {
+                    toString(entry.getValue(), sb, depth, parameterCount,
+                            charCountThreshold);
+                }
+            }
+
+            for (Map.Entry<CharacterClass, TrieNode<V>> entry : node.complementClassChildren
+                    .entrySet()) {
+                sb.append('\n');
+
+                for (int i = 0; i < depth; i++) {
+                    sb.append(' ');
+                }
+
+                sb.append('[').append('^')
+                        .append(entry.getKey().toString(), 1,
+                                entry.getKey().toString().length());
+
+                if (anyReachedThreshold(parameterCount,
+                        entry.getValue().associatedParameters,
+                        charCountThreshold)) {
+                    sb.append("(...)");
+                } else {
+                    toString(entry.getValue(), sb, depth, parameterCount,
+                            charCountThreshold);
+                }
+            }
+
             if (node.anyCharChild != null) {
                 sb.append('\n');
 
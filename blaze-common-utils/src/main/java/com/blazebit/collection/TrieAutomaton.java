@@ -0,0 +1,261 @@
+/**
+ * Copyright 2012 Blazebit
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.blazebit.collection;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * An Aho-Corasick automaton that finds all occurrences of the keys of a
+ * {@link TrieMap} in a text in a single linear pass. Instances are created by
+ * {@link TrieMap#automaton()} and are immutable, so they can be used by
+ * multiple threads concurrently.
+ *
+ * The states are the character positions of the trie numbered breadth first
+ * and stored in flat arrays like in {@link FrozenTrieMap}. Every state has a
+ * failure link to the state of the longest proper suffix of its path that is
+ * also a path of the trie and an output link to the nearest state on the
+ * failure chain that represents a key. The empty key is never reported.
+ *
+ * @param <V>
+ *            The value type that the trie holds.
+ *
+ * @since 0.1.22
+ */
+public class TrieAutomaton<V> {
+
+    /**
+     * Receives the occurrences found by a scan.
+     *
+     * @param <V>
+     *            The value type
+     */
+    public static interface MatchListener<V> {
+
+        /**
+         * Is invoked for every occurrence of a key in the scanned text.
+         * Occurrences are reported ordered by end offset and for the same end
+         * offset from the longest to the shortest key.
+         *
+         * @param start
+         *            The offset of the first character of the occurrence
+         * @param end
+         *            The offset after the last character of the occurrence
+         * @param value
+         *            The value of the key
+         * @return True to continue scanning, false to stop
+         */
+        public boolean match(long start, long end, V value);
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int[] childStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    /* Index into values or -1 if the state does not represent a key */
+    private final int[] valueIndex;
+    /* The length of the path of a state */
+    private final int[] depth;
+    private final Object[] values;
+    private final int[] fail;
+    /* The next state on the failure chain that represents a key or -1 */
+    private final int[] output;
+
+    TrieAutomaton(final int[] childStart, final char[] edgeChars,
+                  final int[] edgeTargets, final int[] valueIndex,
+                  final int[] depth, final Object[] values) {
+        final int stateCount = valueIndex.length;
+        this.childStart = childStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.valueIndex = valueIndex;
+        this.depth = depth;
+        this.values = values;
+        this.fail = new int[stateCount];
+        this.output = new int[stateCount];
+
+        output[0] = -1;
+
+        /* Breadth first numbering guarantees that failure states are done */
+        for (int state = 0; state < stateCount; state++) {
+            for (int edge = childStart[state]; edge < childStart[state + 1]; edge++) {
+                final int target = edgeTargets[edge];
+                int failure = 0;
+
+                if (state != 0) {
+                    final char c = edgeChars[edge];
+                    int f = fail[state];
+                    int next = child(f, c);
+
+                    while (next < 0 && f != 0) {
+                        f = fail[f];
+                        next = child(f, c);
+                    }
+
+                    if (next >= 0) {
+                        failure = next;
+                    }
+                }
+
+                fail[target] = failure;
+                output[target] = valueIndex[failure] >= 0 ? failure
+                        : output[failure];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of states of the automaton.
+     *
+     * @return The state count
+     */
+    public int getStateCount() {
+        return valueIndex.length;
+    }
+
+    /**
+     * Returns the state reached from the given state via the edge with the
+     * given character or -1 if there is no such edge.
+     */
+    private int child(final int state, final char c) {
+        int low = childStart[state];
+        int high = childStart[state + 1] - 1;
+        final char[] chars = edgeChars;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midChar = chars[mid];
+
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+
+        return -1;
+    }
+
+    private int step(int state, final char c) {
+        int next = child(state, c);
+
+        while (next < 0 && state != 0) {
+            state = fail[state];
+            next = child(state, c);
+        }
+
+        return next < 0 ? 0 : next;
+    }
+
+    /**
+     * Reports the occurrences that end at the given offset in the given state
+     * and returns false if the listener stopped the scan.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean report(final int state, final long end,
+                           final MatchListener<? super V> listener) {
+        int s = valueIndex[state] >= 0 ? state : output[state];
+
+        while (s >= 0) {
+            if (!listener.match(end - depth[s], end,
+                    (V) values[valueIndex[s]])) {
+                return false;
+            }
+
+            s = output[s];
+        }
+
+        return true;
+    }
+
+    /**
+     * Scans the given text and reports every occurrence of a key to the given
+     * listener.
+     *
+     * @param text
+     *            The text to scan
+     * @param listener
+     *            The listener that receives the occurrences
+     * @return False if the listener stopped the scan, otherwise true
+     */
+    public boolean scan(final CharSequence text,
+                        final MatchListener<? super V> listener) {
+        if (text == null) {
+            throw new NullPointerException("text");
+        }
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+
+        final int length = text.length();
+        int state = 0;
+
+        for (int i = 0; i < length; i++) {
+            state = step(state, text.charAt(i));
+
+            if (!report(state, i + 1, listener)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Scans the text read from the given reader with a fixed size buffer and
+     * reports every occurrence of a key to the given listener. The reader is
+     * not closed.
+     *
+     * @param reader
+     *            The reader from which to read the text
+     * @param listener
+     *            The listener that receives the occurrences
+     * @return False if the listener stopped the scan, otherwise true
+     * @throws IOException
+     *             If the reader throws an exception
+     */
+    public boolean scan(final Reader reader,
+                        final MatchListener<? super V> listener) throws IOException {
+        if (reader == null) {
+            throw new NullPointerException("reader");
+        }
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+
+        final char[] buffer = new char[BUFFER_SIZE];
+        long offset = 0;
+        int state = 0;
+        int read;
+
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                state = step(state, buffer[i]);
+
+                if (!report(state, offset + i + 1, listener)) {
+                    return false;
+                }
+            }
+
+            offset += read;
+        }
+
+        return true;
+    }
+}
@@ -27,10 +27,15 @@ import java.util.*;
  *
  * This map does not support null keys, instead an empty string should be used.
  *
- * The implementation uses nested {@link HashMap}s with {@link Character} keys
- * internally to ensure <code>O(k)</code> performance where <code>k</code> is
- * the length of an existing key, <code>keyLen</code> is the key which is used
- * for retrieval or modification operations and <code>k &le; keyLen</code>.
+ * The implementation stores the children of a node in sorted primitive
+ * <code>char</code> arrays with a parallel node array, which are switched to a
+ * dense node array indexed by character when a node has many children with
+ * close characters. This avoids boxing of characters and ensures
+ * <code>O(k)</code> performance where <code>k</code> is the length of an
+ * existing key, <code>keyLen</code> is the key which is used for retrieval or
+ * modification operations and <code>k &le; keyLen</code>. A path compressed
+ * variant which stores unbranched runs of characters in a single node can be
+ * created via {@link #compressed()}.
  *
  * @param <V>
  *            The value type that the trie holds.
@@ -45,19 +50,44 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
 
     private static final class TrieNode<V> implements Serializable {
 
-        private static final long serialVersionUID = 1L;
-        private final Map<Character, TrieNode<V>> children;
+        private static final long serialVersionUID = 3L;
+        /*
+         * A node holds at most this many children in the sorted sparse layout
+         * before a switch to the dense layout is considered
+         */
+        private static final int SPARSE_MAX_SIZE = 8;
+        /*
+         * The dense layout is only used when at least every DENSE_FACTOR-th
+         * slot of the dense array is occupied
+         */
+        private static final int DENSE_FACTOR = 2;
+        private static final char[] EMPTY_KEYS = new char[0];
+        private static final TrieNode<?>[] EMPTY_NODES = new TrieNode<?>[0];
+
+        /*
+         * Children are either stored sparse, as sorted keys with a parallel
+         * nodes array, or dense, as nodes array indexed by the character
+         * minus offset in which case keys is null.
+         */
+        private char[] keys;
+        private TrieNode<V>[] nodes;
+        private char offset;
+        private int childCount;
+        /*
+         * The characters of the edge to this node that follow the character
+         * under which the node is stored in its parent, only non-empty for
+         * path compressed tries
+         */
+        private char[] label;
         private V value;
         private boolean inUse;
+        /* The number of nodes in use in the subtree of this node */
+        private int count;
 
         public TrieNode(final V value, final boolean inUse) {
-            this.children = new HashMap<Character, TrieNode<V>>();
-            this.value = value;
-            this.inUse = inUse;
-        }
-
-        private TrieNode(final V value, final boolean inUse, int childrenSize) {
-            this.children = new HashMap<Character, TrieNode<V>>(childrenSize);
+            this.label = EMPTY_KEYS;
+            this.keys = EMPTY_KEYS;
+            this.nodes = emptyNodes();
             this.value = value;
             this.inUse = inUse;
         }
@@ -72,14 +102,282 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
             return this;
         }
 
+        /**
+         * Returns the child node for the given character or null if none
+         * exists.
+         */
+        TrieNode<V> getChild(final char c) {
+            final char[] localKeys = keys;
+
+            if (localKeys == null) {
+                final TrieNode<V>[] localNodes = nodes;
+                final int index = c - offset;
+                return index >= 0 && index < localNodes.length ? localNodes[index]
+                        : null;
+            }
+
+            final int index = Arrays.binarySearch(localKeys, 0, childCount, c);
+            return index < 0 ? null : nodes[index];
+        }
+
+        /**
+         * Sets the child node for the given character and possibly switches
+         * the layout of the children.
+         */
+        void putChild(final char c, final TrieNode<V> node) {
+            if (keys == null) {
+                final int index = c - offset;
+
+                if (index >= 0 && index < nodes.length) {
+                    if (nodes[index] == null) {
+                        ++childCount;
+                    }
+
+                    nodes[index] = node;
+                    return;
+                }
+
+                final int start = Math.min(offset, c);
+                final int end = Math.max(offset + nodes.length, c + 1);
+
+                if (end - start > DENSE_FACTOR * (childCount + 1)) {
+                    /* Too sparse for the dense layout, so switch back */
+                    toSparse(childCount + 1);
+                } else {
+                    final TrieNode<V>[] newNodes = newNodes(end - start);
+                    System.arraycopy(nodes, 0, newNodes, offset - start,
+                            nodes.length);
+                    newNodes[c - start] = node;
+                    nodes = newNodes;
+                    offset = (char) start;
+                    ++childCount;
+                    return;
+                }
+            }
+
+            final int size = childCount;
+            int index = Arrays.binarySearch(keys, 0, size, c);
+
+            if (index >= 0) {
+                nodes[index] = node;
+                return;
+            }
+
+            index = -(index + 1);
+
+            if (size >= SPARSE_MAX_SIZE) {
+                final int start = Math.min(keys[0], c);
+                final int end = Math.max(keys[size - 1], c) + 1;
+
+                if (end - start <= DENSE_FACTOR * (size + 1)) {
+                    toDense(start, end);
+                    nodes[c - start] = node;
+                    ++childCount;
+                    return;
+                }
+            }
+
+            if (size == keys.length) {
+                final int newCapacity = size == 0 ? 1 : size < SPARSE_MAX_SIZE ? size << 1
+                        : size + (size >> 1);
+                keys = Arrays.copyOf(keys, newCapacity);
+                nodes = Arrays.copyOf(nodes, newCapacity);
+            }
+
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(nodes, index, nodes, index + 1, size - index);
+            keys[index] = c;
+            nodes[index] = node;
+            childCount = size + 1;
+        }
+
+        /**
+         * Removes the child node for the given character and returns it or
+         * null if none exists.
+         */
+        TrieNode<V> removeChild(final char c) {
+            final TrieNode<V> removed;
+
+            if (keys == null) {
+                final int index = c - offset;
+
+                if (index < 0 || index >= nodes.length
+                        || (removed = nodes[index]) == null) {
+                    return null;
+                }
+
+                nodes[index] = null;
+
+                if (--childCount < SPARSE_MAX_SIZE / 2) {
+                    toSparse(childCount);
+                }
+            } else {
+                final int size = childCount;
+                final int index = Arrays.binarySearch(keys, 0, size, c);
+
+                if (index < 0) {
+                    return null;
+                }
+
+                removed = nodes[index];
+                System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+                System.arraycopy(nodes, index + 1, nodes, index, size - index
+                        - 1);
+                nodes[size - 1] = null;
+                childCount = size - 1;
+            }
+
+            if (childCount == 0) {
+                clearChildren();
+            }
+
+            return removed;
+        }
+
+        void clearChildren() {
+            keys = EMPTY_KEYS;
+            nodes = emptyNodes();
+            offset = 0;
+            childCount = 0;
+        }
+
+        boolean hasChildren() {
+            return childCount != 0;
+        }
+
+        /**
+         * Returns the number of child slots which can be iterated via
+         * {@link #slotKey(int)} and {@link #slotNode(int)} in ascending
+         * character order.
+         */
+        int slotCount() {
+            return keys == null ? nodes.length : childCount;
+        }
+
+        char slotKey(final int slot) {
+            return keys == null ? (char) (offset + slot) : keys[slot];
+        }
+
+        /**
+         * Returns the child node of the given slot, may be null for the dense
+         * layout.
+         */
+        TrieNode<V> slotNode(final int slot) {
+            return nodes[slot];
+        }
+
+        private void toDense(final int start, final int end) {
+            final TrieNode<V>[] newNodes = newNodes(end - start);
+
+            for (int i = 0; i < childCount; i++) {
+                newNodes[keys[i] - start] = nodes[i];
+            }
+
+            keys = null;
+            nodes = newNodes;
+            offset = (char) start;
+        }
+
+        private void toSparse(final int capacity) {
+            final char[] newKeys = new char[capacity];
+            final TrieNode<V>[] newNodes = newNodes(capacity);
+            final TrieNode<V>[] localNodes = nodes;
+            int size = 0;
+
+            for (int i = 0; i < localNodes.length; i++) {
+                if (localNodes[i] != null) {
+                    newKeys[size] = (char) (offset + i);
+                    newNodes[size++] = localNodes[i];
+                }
+            }
+
+            keys = newKeys;
+            nodes = newNodes;
+            offset = 0;
+        }
+
+        /**
+         * Splits the edge to the given child, that is stored under the given
+         * character, after labelIndex label characters by inserting a new
+         * intermediate node which is returned.
+         */
+        TrieNode<V> split(final char c, final TrieNode<V> child,
+                          final int labelIndex) {
+            final char[] childLabel = child.label;
+            final TrieNode<V> intermediateNode = new TrieNode<V>(false);
+
+            intermediateNode.label = Arrays.copyOf(childLabel, labelIndex);
+            intermediateNode.count = child.count;
+            child.label = Arrays.copyOfRange(childLabel, labelIndex + 1,
+                    childLabel.length);
+            intermediateNode.putChild(childLabel[labelIndex], child);
+            putChild(c, intermediateNode);
+            return intermediateNode;
+        }
+
+        /**
+         * Merges the only child of this unused node into this node by
+         * extending the label.
+         */
+        void mergeChild() {
+            int slot = 0;
+
+            while (nodes[slot] == null) {
+                slot++;
+            }
+
+            final char c = slotKey(slot);
+            final TrieNode<V> child = nodes[slot];
+            final char[] newLabel = new char[label.length + 1
+                    + child.label.length];
+
+            System.arraycopy(label, 0, newLabel, 0, label.length);
+            newLabel[label.length] = c;
+            System.arraycopy(child.label, 0, newLabel, label.length + 1,
+                    child.label.length);
+
+            label = newLabel;
+            keys = child.keys;
+            nodes = child.nodes;
+            offset = child.offset;
+            childCount = child.childCount;
+            value = child.value;
+            inUse = child.inUse;
+            count = child.count;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> TrieNode<V>[] emptyNodes() {
+            return (TrieNode<V>[]) EMPTY_NODES;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> TrieNode<V>[] newNodes(final int size) {
+            return (TrieNode<V>[]) new TrieNode<?>[size];
+        }
+
         public TrieNode<V> cloneDeep() {
-            final TrieNode<V> node = new TrieNode<V>(value, inUse,
-                    children.size());
-            final Map<Character, TrieNode<V>> nodeChildren = node.children;
+            final TrieNode<V> node = new TrieNode<V>(value, inUse);
+            final int slots = slotCount();
+            node.count = count;
+            /* Labels are never modified in place, so they can be shared */
+            node.label = label;
+
+            if (slots != 0) {
+                final TrieNode<V>[] nodeChildren = newNodes(nodes.length);
+
+                for (int i = 0; i < slots; i++) {
+                    final TrieNode<V> child = nodes[i];
+
+                    if (child != null) {
+                        nodeChildren[i] = child.cloneDeep();
+                    }
+                }
 
-            for (final Map.Entry<Character, TrieNode<V>> entry : children
-                    .entrySet()) {
-                nodeChildren.put(entry.getKey(), entry.getValue().cloneDeep());
+                node.keys = keys == null ? null : keys.clone();
+                node.nodes = nodeChildren;
+                node.offset = offset;
+                node.childCount = childCount;
             }
 
             return node;
@@ -87,6 +385,7 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
     }
 
     private final TrieNode<V> root;
+    private final boolean compressed;
     int size;
     transient int modCount;
 
@@ -94,7 +393,7 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
      * Constructs an empty TrieMap
      */
     public TrieMap() {
-        this(null, true);
+        this(null, true, false);
     }
 
     /**
@@ -104,7 +403,8 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
      *            The map from which to construct this TrieMap
      */
     public TrieMap(final Map<CharSequence, ? extends V> map) {
-        this(map, false);
+        this(map, false, map instanceof TrieMap<?>
+                && ((TrieMap<?>) map).compressed);
         putAll(map);
     }
 
@@ -115,7 +415,18 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
      *            The map from which to construct this TrieMap
      */
     public TrieMap(final TrieMap<? extends V> map) {
-        this(map, false);
+        this(map, false, map.compressed);
+    }
+
+    /**
+     * Internally used to construct an empty TrieMap.
+     *
+     * @param compressed
+     *            Whether unbranched runs of characters are stored in a
+     *            single node
+     */
+    TrieMap(final boolean compressed) {
+        this(null, true, compressed);
     }
 
     /**
@@ -125,20 +436,278 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
      *            The map from which to construct this TrieMap or null
      * @param nullAllowed
      *            Whether null is allowed or not
+     * @param compressed
+     *            Whether unbranched runs of characters are stored in a
+     *            single node
      */
     @SuppressWarnings("unchecked")
     private TrieMap(final Map<CharSequence, ? extends V> map,
-                    final boolean nullAllowed) {
-        if ((nullAllowed && map == null) || !(map instanceof TrieMap<?>)) {
+                    final boolean nullAllowed, final boolean compressed) {
+        final TrieNode<V> sourceRoot = map instanceof TrieMap<?> ? ((TrieMap<V>) map)
+                .getDetachedRoot() : null;
+
+        if ((nullAllowed && map == null) || sourceRoot == null) {
             this.root = new TrieNode<V>(false);
         } else {
-            this.root = ((TrieMap<V>) map).root.cloneDeep();
+            this.root = sourceRoot.cloneDeep();
+            /* The label of a sub map root is part of the prefix */
+            this.root.label = TrieNode.EMPTY_KEYS;
         }
 
-        this.size = 0;
+        this.compressed = compressed;
+        this.size = this.root.count;
         this.modCount = 0;
     }
 
+    /**
+     * Constructs an empty path compressed TrieMap. Instead of creating a node
+     * for every character of a key, unbranched runs of characters are stored
+     * as label of a single node which reduces the node count and the pointer
+     * chasing for long keys that only share short prefixes like URLs or fully
+     * qualified class names.
+     *
+     * @param <V>
+     *            The value type that the trie holds.
+     * @return A new path compressed TrieMap
+     */
+    public static <V> TrieMap<V> compressed() {
+        return new TrieMap<V>(true);
+    }
+
+    /**
+     * Returns whether unbranched runs of characters are stored in a single
+     * node.
+     *
+     * @return True if this map is path compressed, otherwise false
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Compiles the current entries of this map into an immutable
+     * {@link FrozenTrieMap} that stores the trie in flat arrays without
+     * objects per node. Subsequent modifications of this map are not reflected
+     * by the returned map.
+     *
+     * @return An immutable copy of this map optimized for lookups
+     */
+    public FrozenTrieMap<V> freeze() {
+        final TrieNode<V> rootNode = getDetachedRoot();
+
+        if (rootNode == null) {
+            return FrozenTrieMap.empty();
+        }
+
+        final Freezer<V> freezer = new Freezer<V>();
+        freezer.count(rootNode, true);
+        return freezer.flatten(rootNode);
+    }
+
+    /**
+     * Compiles the current entries of this map into a {@link TrieAutomaton}
+     * that finds all occurrences of the keys in a text in a single pass.
+     * Subsequent modifications of this map are not reflected by the returned
+     * automaton.
+     *
+     * @return An automaton matching the keys of this map
+     */
+    public TrieAutomaton<V> automaton() {
+        final TrieNode<V> rootNode = getDetachedRoot();
+
+        if (rootNode == null) {
+            return new TrieAutomaton<V>(new int[]{0, 0}, new char[0],
+                    new int[0], new int[]{-1}, new int[]{0}, new Object[0]);
+        }
+
+        int stateCount = 1;
+        int valueCount = 0;
+        final Deque<TrieNode<V>> deque = new ArrayDeque<TrieNode<V>>();
+        deque.add(rootNode);
+
+        while (!deque.isEmpty()) {
+            final TrieNode<V> node = deque.removeFirst();
+
+            for (int i = 0; i < node.slotCount(); i++) {
+                final TrieNode<V> child = node.slotNode(i);
+
+                if (child != null) {
+                    /* Every label character is a state of its own */
+                    stateCount += child.label.length + 1;
+
+                    if (child.inUse) {
+                        valueCount++;
+                    }
+
+                    deque.add(child);
+                }
+            }
+        }
+
+        /*
+         * States are numbered breadth first which the automaton relies on to
+         * compute the failure links. A state is a node and the number of
+         * consumed characters of its label.
+         */
+        final int[] childStart = new int[stateCount + 1];
+        final char[] edgeChars = new char[stateCount - 1];
+        final int[] edgeTargets = new int[stateCount - 1];
+        final int[] valueIndex = new int[stateCount];
+        final int[] depth = new int[stateCount];
+        final Object[] values = new Object[valueCount];
+        final TrieNode<V>[] stateNodes = TrieNode.newNodes(stateCount);
+        final int[] stateOffsets = new int[stateCount];
+        int tail = 1;
+        int edge = 0;
+        int valueCursor = 0;
+
+        stateNodes[0] = rootNode;
+        /* The label of a sub map root is part of the prefix */
+        stateOffsets[0] = rootNode.label.length;
+
+        for (int state = 0; state < stateCount; state++) {
+            final TrieNode<V> node = stateNodes[state];
+            final char[] label = node.label;
+            final int offset = stateOffsets[state];
+
+            childStart[state] = edge;
+            valueIndex[state] = -1;
+
+            if (offset < label.length) {
+                edgeChars[edge] = label[offset];
+                edgeTargets[edge++] = tail;
+                depth[tail] = depth[state] + 1;
+                stateNodes[tail] = node;
+                stateOffsets[tail++] = offset + 1;
+                continue;
+            }
+
+            if (node.inUse && state != 0) {
+                valueIndex[state] = valueCursor;
+                values[valueCursor++] = node.value;
+            }
+
+            for (int i = 0; i < node.slotCount(); i++) {
+                final TrieNode<V> child = node.slotNode(i);
+
+                if (child != null) {
+                    edgeChars[edge] = node.slotKey(i);
+                    edgeTargets[edge++] = tail;
+                    depth[tail] = depth[state] + 1;
+                    stateNodes[tail] = child;
+                    stateOffsets[tail++] = 0;
+                }
+            }
+        }
+
+        childStart[stateCount] = edge;
+        return new TrieAutomaton<V>(childStart, edgeChars, edgeTargets,
+                valueIndex, depth, values);
+    }
+
+    /**
+     * Flattens the nodes of a trie in pre-order into the arrays of a
+     * {@link FrozenTrieMap}.
+     */
+    private static final class Freezer<V> {
+
+        private int nodeCount;
+        private int edgeCount;
+        private int labelLength;
+        private int valueCount;
+        private int[] childStart;
+        private char[] edgeChars;
+        private int[] edgeTargets;
+        private int[] labelStart;
+        private char[] labelChars;
+        private int[] valueIndex;
+        private int[] entryCount;
+        private Object[] values;
+        private int nodeCursor;
+        private int edgeCursor;
+        private int labelCursor;
+        private int valueCursor;
+
+        void count(final TrieNode<V> node, final boolean root) {
+            nodeCount++;
+            edgeCount += node.childCount;
+
+            if (!root) {
+                labelLength += node.label.length;
+            }
+
+            if (node.inUse) {
+                valueCount++;
+            }
+
+            for (int i = 0; i < node.slotCount(); i++) {
+                final TrieNode<V> child = node.slotNode(i);
+
+                if (child != null) {
+                    count(child, false);
+                }
+            }
+        }
+
+        FrozenTrieMap<V> flatten(final TrieNode<V> rootNode) {
+            childStart = new int[nodeCount + 1];
+            edgeChars = new char[edgeCount];
+            edgeTargets = new int[edgeCount];
+            labelStart = new int[nodeCount + 1];
+            labelChars = new char[labelLength];
+            valueIndex = new int[nodeCount];
+            entryCount = new int[nodeCount];
+            values = new Object[valueCount];
+
+            flatten(rootNode, true);
+            childStart[nodeCount] = edgeCursor;
+            labelStart[nodeCount] = labelCursor;
+
+            return new FrozenTrieMap<V>(childStart, edgeChars, edgeTargets,
+                    labelStart, labelChars, valueIndex, entryCount, values);
+        }
+
+        private int flatten(final TrieNode<V> node, final boolean root) {
+            final int id = nodeCursor++;
+            int edge = edgeCursor;
+            int entries = 0;
+
+            childStart[id] = edge;
+            labelStart[id] = labelCursor;
+            edgeCursor += node.childCount;
+
+            if (!root) {
+                /* The label of a sub map root is part of the prefix */
+                final char[] label = node.label;
+                System.arraycopy(label, 0, labelChars, labelCursor,
+                        label.length);
+                labelCursor += label.length;
+            }
+
+            if (node.inUse) {
+                valueIndex[id] = valueCursor;
+                values[valueCursor++] = node.value;
+                entries++;
+            } else {
+                valueIndex[id] = -1;
+            }
+
+            for (int i = 0; i < node.slotCount(); i++) {
+                final TrieNode<V> child = node.slotNode(i);
+
+                if (child != null) {
+                    edgeChars[edge] = node.slotKey(i);
+                    final int childId = flatten(child, false);
+                    edgeTargets[edge++] = childId;
+                    entries += entryCount[childId];
+                }
+            }
+
+            entryCount[id] = entries;
+            return id;
+        }
+    }
+
     /**
      * This method returns the root element and mainly is for sub map to
      * override.
@@ -149,6 +718,46 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
         return root;
     }
 
+    /**
+     * Returns the label characters that lead from the root of this map to
+     * the node returned by {@link #getRoot()}. Only sub maps whose prefix
+     * ends within a label have a non-empty root label.
+     *
+     * @return The label characters in front of the root node
+     */
+    char[] getRootLabel() {
+        return TrieNode.EMPTY_KEYS;
+    }
+
+    /**
+     * Returns a root node whose label is part of the prefix, so that the
+     * root label needs no special handling. If the root label is not empty,
+     * a transient node with a shallow copy of the root node as only child is
+     * returned, which must only be used for reading.
+     */
+    private TrieNode<V> getDetachedRoot() {
+        final TrieNode<V> rootNode = getRoot();
+        final char[] rootLabel = getRootLabel();
+
+        if (rootNode == null || rootLabel.length == 0) {
+            return rootNode;
+        }
+
+        final TrieNode<V> node = new TrieNode<V>(rootNode.value,
+                rootNode.inUse);
+        node.label = Arrays.copyOfRange(rootLabel, 1, rootLabel.length);
+        node.keys = rootNode.keys;
+        node.nodes = rootNode.nodes;
+        node.offset = rootNode.offset;
+        node.childCount = rootNode.childCount;
+        node.count = rootNode.count;
+
+        final TrieNode<V> detachedRoot = new TrieNode<V>(false);
+        detachedRoot.putChild(rootLabel[0], node);
+        detachedRoot.count = node.count;
+        return detachedRoot;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -158,24 +767,36 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
         final int keyLength = checkedKey.length();
         final V replacedValue;
         TrieNode<V> currentNode = getRoot();
-        TrieNode<V> lastNode = null;
         int i = 0;
 
-        while (i < keyLength && currentNode != null) {
-            lastNode = currentNode;
-            currentNode = currentNode.children.get(checkedKey.charAt(i));
-            ++i;
-        }
+        while (i < keyLength) {
+            final char c = checkedKey.charAt(i);
+            final TrieNode<V> nextNode = currentNode.getChild(c);
 
-        if (currentNode == null) {
-            /* We could not find the node for the given key, so create it */
-            currentNode = lastNode;
-            final TrieNode<V> newNode = new TrieNode<V>(true);
+            if (nextNode == null) {
+                /* We could not find the node for the given key, so create it */
+                final TrieNode<V> newNode = new TrieNode<V>(true);
 
-            addNode(currentNode, checkedKey, --i, newNode);
-            modifyData(newNode, value);
-            replacedValue = null;
-        } else if (currentNode.inUse) {
+                addNode(currentNode, checkedKey, i, newNode);
+                modifyData(newNode, value);
+                adjustCounts(checkedKey, 1);
+                return null;
+            }
+
+            final int labelLength = nextNode.label.length;
+            final int matched = matchLabel(nextNode.label, checkedKey, i + 1);
+
+            if (matched < labelLength) {
+                /* The key diverges within the label, so split the edge */
+                currentNode = currentNode.split(c, nextNode, matched);
+            } else {
+                currentNode = nextNode;
+            }
+
+            i += matched + 1;
+        }
+
+        if (currentNode.inUse) {
 			/* We found the node and it is in use, so replace the value */
             replacedValue = currentNode.value;
 
@@ -187,12 +808,29 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
 			/* We found a node that is not in use, so just set the value */
             modifyData(currentNode, value);
             currentNode.inUse = true;
+            adjustCounts(checkedKey, 1);
             replacedValue = null;
         }
 
         return replacedValue;
     }
 
+    /**
+     * Returns the number of characters of the given label that match the
+     * given key beginning at beginIndex.
+     */
+    private static int matchLabel(final char[] label, final CharSequence key,
+                                  final int beginIndex) {
+        final int max = Math.min(label.length, key.length() - beginIndex);
+        int i = 0;
+
+        while (i < max && label[i] == key.charAt(beginIndex + i)) {
+            i++;
+        }
+
+        return i;
+    }
+
     /**
      * Sets the given value as the new value on the given node, increases size
      * and modCount.
@@ -203,6 +841,33 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
         ++size;
     }
 
+    /**
+     * Adds delta to the entry counts of all nodes on the existing path that
+     * is specified by the given key.
+     */
+    void adjustCounts(final CharSequence key, final int delta) {
+        final TrieNode<V> rootNode = getRoot();
+        rootNode.count += delta;
+        adjustChildCounts(rootNode, key, delta);
+    }
+
+    /**
+     * Like {@link #adjustCounts(CharSequence, int)} but excludes the given
+     * node at which the key begins.
+     */
+    static <V> void adjustChildCounts(final TrieNode<V> node,
+                                      final CharSequence key, final int delta) {
+        final int keyLength = key.length();
+        TrieNode<V> currentNode = node;
+        int i = 0;
+
+        while (i < keyLength) {
+            currentNode = currentNode.getChild(key.charAt(i));
+            currentNode.count += delta;
+            i += currentNode.label.length + 1;
+        }
+    }
+
     /**
      * Adds the given new node to the node with the given key beginning at
      * beginIndex.
@@ -213,13 +878,24 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
         TrieNode<V> currentNode = node;
         int i = beginIndex;
 
-        for (; i < lastKeyIndex; i++) {
-            final TrieNode<V> nextNode = new TrieNode<V>(false);
-            currentNode.children.put(key.charAt(i), nextNode);
-            currentNode = nextNode;
+        if (compressed) {
+            /* The rest of the key after the first character is the label */
+            final char[] label = new char[lastKeyIndex - beginIndex];
+
+            for (int j = 0; j < label.length; j++) {
+                label[j] = key.charAt(beginIndex + 1 + j);
+            }
+
+            newNode.label = label;
+        } else {
+            for (; i < lastKeyIndex; i++) {
+                final TrieNode<V> nextNode = new TrieNode<V>(false);
+                currentNode.putChild(key.charAt(i), nextNode);
+                currentNode = nextNode;
+            }
         }
 
-        currentNode.children.put(key.charAt(i), newNode);
+        currentNode.putChild(key.charAt(i), newNode);
     }
 
     /**
@@ -232,26 +908,368 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
     }
 
     private TrieNode<V> findNode(final CharSequence key) {
+        return findNode(key, false);
+    }
+
+    /**
+     * Returns the node at which the given key ends. If partial is true, the
+     * node is also returned if the key ends within the label of the node.
+     */
+    private TrieNode<V> findNode(final CharSequence key, final boolean partial) {
         final int strLen = key.length();
-        TrieNode<V> currentNode = getRoot();
+        final TrieNode<V> rootNode = getRoot();
+        final char[] rootLabel = getRootLabel();
+        int i = matchLabel(rootLabel, key, 0);
 
-        for (int i = 0; i < strLen && currentNode != null; i++) {
-            currentNode = currentNode.children.get(key.charAt(i));
+        if (i < rootLabel.length) {
+            return partial && i == strLen ? rootNode : null;
+        }
+
+        TrieNode<V> currentNode = rootNode;
+
+        while (i < strLen && currentNode != null) {
+            currentNode = currentNode.getChild(key.charAt(i++));
+
+            if (currentNode != null) {
+                final char[] label = currentNode.label;
+                final int matched = matchLabel(label, key, i);
+
+                if (matched < label.length && (!partial || i + matched < strLen)) {
+                    return null;
+                }
+
+                i += matched;
+            }
         }
 
         return currentNode;
     }
 
+    /**
+     * Returns the longest prefix of the given string that is a path in this
+     * trie, regardless of whether an entry exists for that prefix.
+     *
+     * @param str
+     *            The string to match
+     * @return The longest prefix of the string that is a path in the trie
+     */
     public String getBestMatch(final CharSequence str) {
-        final int strLen = str.length();
+        final int strLen = keyCheck(str).length();
         TrieNode<V> curNode = getRoot();
-        int i = 0;
+        final char[] rootLabel = getRootLabel();
+        int i = matchLabel(rootLabel, str, 0);
+
+        if (i < rootLabel.length) {
+            return str.subSequence(0, i).toString();
+        }
 
-        for (; i < strLen && curNode != null; i++) {
-            curNode = curNode.children.get(str.charAt(i));
+        while (i < strLen && curNode != null) {
+            curNode = curNode.getChild(str.charAt(i));
+
+            if (curNode != null) {
+                final char[] label = curNode.label;
+                final int matched = matchLabel(label, str, i + 1);
+                i += matched + 1;
+
+                if (matched < label.length) {
+                    break;
+                }
+            }
         }
 
-        return new StringBuilder(i - 1).append(str, 0, i - 1).toString();
+        return str.subSequence(0, i).toString();
+    }
+
+    /**
+     * Returns the length of the longest key of this map that is a prefix of
+     * the given string or -1 if no key is a prefix of the string.
+     *
+     * @param str
+     *            The string to match
+     * @return The length of the longest key that is a prefix or -1
+     */
+    public int longestPrefixOf(final CharSequence str) {
+        final int strLen = keyCheck(str).length();
+        TrieNode<V> curNode = getRoot();
+        final char[] rootLabel = getRootLabel();
+        int longest = -1;
+        int i = matchLabel(rootLabel, str, 0);
+
+        if (i < rootLabel.length) {
+            return -1;
+        }
+
+        while (curNode != null) {
+            if (curNode.inUse) {
+                longest = i;
+            }
+            if (i == strLen) {
+                break;
+            }
+
+            curNode = curNode.getChild(str.charAt(i++));
+
+            if (curNode != null) {
+                final char[] label = curNode.label;
+                final int matched = matchLabel(label, str, i);
+
+                if (matched < label.length) {
+                    break;
+                }
+
+                i += matched;
+            }
+        }
+
+        return longest;
+    }
+
+    /**
+     * Returns the value of the longest key of this map that is a prefix of
+     * the given string or null if no key is a prefix of the string.
+     *
+     * @param str
+     *            The string to match
+     * @return The value of the longest key that is a prefix or null
+     */
+    public V valueOfLongestPrefix(final CharSequence str) {
+        final int strLen = keyCheck(str).length();
+        TrieNode<V> curNode = getRoot();
+        final char[] rootLabel = getRootLabel();
+        TrieNode<V> longest = null;
+        int i = matchLabel(rootLabel, str, 0);
+
+        if (i < rootLabel.length) {
+            return null;
+        }
+
+        while (curNode != null) {
+            if (curNode.inUse) {
+                longest = curNode;
+            }
+            if (i == strLen) {
+                break;
+            }
+
+            curNode = curNode.getChild(str.charAt(i++));
+
+            if (curNode != null) {
+                final char[] label = curNode.label;
+                final int matched = matchLabel(label, str, i);
+
+                if (matched < label.length) {
+                    break;
+                }
+
+                i += matched;
+            }
+        }
+
+        return longest == null ? null : longest.value;
+    }
+
+    /**
+     * Returns an iterator over the entries whose keys are prefixes of the
+     * given string, ordered by ascending key length. The iterator walks the
+     * path of the string through the trie lazily.
+     *
+     * @param str
+     *            The string to match
+     * @return An iterator over the entries whose keys are prefixes
+     */
+    public Iterator<Entry<CharSequence, V>> prefixesOf(final CharSequence str) {
+        return new PrefixIterator(keyCheck(str));
+    }
+
+    /**
+     * Returns the entries whose keys are within the given Levenshtein
+     * distance of the given string, ordered by ascending distance and then by
+     * ascending key. The trie is walked depth first while computing one row
+     * of the edit distance matrix per character, so subtrees are skipped as
+     * soon as every prefix of the string is further away than maxEdits.
+     *
+     * @param str
+     *            The string to match
+     * @param maxEdits
+     *            The maximum number of insertions, deletions and
+     *            substitutions
+     * @return The entries within the given distance
+     */
+    public List<FuzzyEntry<V>> fuzzy(final CharSequence str, final int maxEdits) {
+        if (maxEdits < 0) {
+            throw new IllegalArgumentException("maxEdits must not be negative");
+        }
+
+        final TrieNode<V> rootNode = getRoot();
+        final List<FuzzyEntry<V>> result = new ArrayList<FuzzyEntry<V>>();
+
+        if (rootNode != null) {
+            new FuzzySearch(keyCheck(str), maxEdits, result).search(rootNode,
+                    getRootLabel());
+            /* The sort is stable and the search yields ascending keys */
+            Collections.sort(result, FUZZY_ENTRY_COMPARATOR);
+        }
+
+        return result;
+    }
+
+    private static final Comparator<FuzzyEntry<?>> FUZZY_ENTRY_COMPARATOR = new Comparator<FuzzyEntry<?>>() {
+
+        @Override
+        public int compare(final FuzzyEntry<?> o1, final FuzzyEntry<?> o2) {
+            final int d1 = o1.getDistance();
+            final int d2 = o2.getDistance();
+            return d1 < d2 ? -1 : (d1 == d2 ? 0 : 1);
+        }
+    };
+
+    /**
+     * An entry returned by {@link TrieMap#fuzzy(CharSequence, int)} which
+     * also holds the edit distance of the key to the string.
+     *
+     * @param <V>
+     *            The value type
+     */
+    public static final class FuzzyEntry<V> extends
+            SimpleImmutableEntry<CharSequence, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int distance;
+
+        FuzzyEntry(final CharSequence key, final V value, final int distance) {
+            super(key, value);
+            this.distance = distance;
+        }
+
+        /**
+         * Returns the Levenshtein distance of the key to the string.
+         *
+         * @return The edit distance
+         */
+        public int getDistance() {
+            return distance;
+        }
+    }
+
+    /**
+     * Depth first search that keeps one row of the edit distance matrix for
+     * every character on the current path.
+     */
+    private final class FuzzySearch {
+
+        private final CharSequence str;
+        private final int maxEdits;
+        private final List<FuzzyEntry<V>> result;
+        private final StringBuilder key = new StringBuilder();
+        private int[][] rows;
+
+        FuzzySearch(final CharSequence str, final int maxEdits,
+                    final List<FuzzyEntry<V>> result) {
+            this.str = str;
+            this.maxEdits = maxEdits;
+            this.result = result;
+            this.rows = new int[16][];
+
+            final int[] firstRow = new int[str.length() + 1];
+
+            for (int j = 0; j < firstRow.length; j++) {
+                firstRow[j] = j;
+            }
+
+            rows[0] = firstRow;
+        }
+
+        void search(final TrieNode<V> rootNode, final char[] rootLabel) {
+            int i = 0;
+
+            while (i < rootLabel.length && step(rootLabel[i])) {
+                i++;
+            }
+
+            if (i == rootLabel.length) {
+                final int distance = rows[key.length()][str.length()];
+
+                if (rootNode.inUse && distance <= maxEdits) {
+                    result.add(new FuzzyEntry<V>(key.toString(),
+                            rootNode.value, distance));
+                }
+
+                searchChildren(rootNode);
+            }
+        }
+
+        private void searchChildren(final TrieNode<V> node) {
+            for (int i = 0; i < node.slotCount(); i++) {
+                final TrieNode<V> child = node.slotNode(i);
+
+                if (child != null) {
+                    search(child, node.slotKey(i));
+                }
+            }
+        }
+
+        private void search(final TrieNode<V> node, final char c) {
+            final int keyLength = key.length();
+            final char[] label = node.label;
+
+            if (step(c)) {
+                int i = 0;
+
+                while (i < label.length && step(label[i])) {
+                    i++;
+                }
+
+                if (i == label.length) {
+                    final int distance = rows[key.length()][str.length()];
+
+                    if (node.inUse && distance <= maxEdits) {
+                        result.add(new FuzzyEntry<V>(key.toString(),
+                                node.value, distance));
+                    }
+
+                    searchChildren(node);
+                }
+            }
+
+            key.setLength(keyLength);
+        }
+
+        /**
+         * Appends the given character to the key, computes the next row and
+         * returns false if no extension of the key can be within maxEdits.
+         */
+        private boolean step(final char c) {
+            final int depth = key.length();
+            final int columns = str.length() + 1;
+            final int[] previousRow = rows[depth];
+
+            if (depth + 1 == rows.length) {
+                rows = Arrays.copyOf(rows, rows.length << 1);
+            }
+
+            int[] row = rows[depth + 1];
+
+            if (row == null) {
+                row = rows[depth + 1] = new int[columns];
+            }
+
+            int min = row[0] = previousRow[0] + 1;
+
+            for (int j = 1; j < columns; j++) {
+                final int cost = str.charAt(j - 1) == c ? 0 : 1;
+                final int value = Math.min(Math.min(row[j - 1] + 1,
+                        previousRow[j] + 1), previousRow[j - 1] + cost);
+                row[j] = value;
+
+                if (value < min) {
+                    min = value;
+                }
+            }
+
+            key.append(c);
+            return min <= maxEdits;
+        }
     }
 
     /**
@@ -271,7 +1289,7 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
      * @return True when an entry with the given prefix exists, otherwise false.
      */
     public boolean containsKeyPrefix(final CharSequence prefix) {
-        return findNode(keyCheck(prefix)) != null;
+        return findNode(keyCheck(prefix), true) != null;
     }
 
     /**
@@ -280,15 +1298,7 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
     @Override
     public V remove(final Object o) {
         final CharSequence key = keyCheck(o);
-        final TrieNode<V> currentNode = findPreviousNode(key);
-
-        if (currentNode == null) {
-			/* Node not found for the given key */
-            return null;
-        }
-
-        final TrieNode<V> node = currentNode.children.get(key.charAt(key
-                .length() - 1));
+        final TrieNode<V> node = findNode(key);
 
         if (node == null || !node.inUse) {
 			/* Node not found for the given key or is not in use */
@@ -299,26 +1309,12 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
         node.unset();
         --size;
         ++modCount;
-
-        if (node.children.isEmpty()) {
-			/* Since there are no children left, we can compact the trie */
-            compact(key);
-        }
+        adjustCounts(key, -1);
+        compact(key, node);
 
         return removed;
     }
 
-    private TrieNode<V> findPreviousNode(final CharSequence key) {
-        final int lastKeyIndex = key.length() - 1;
-        TrieNode<V> currentNode = getRoot();
-
-        for (int i = 0; i < lastKeyIndex && currentNode != null; i++) {
-            currentNode = currentNode.children.get(key.charAt(i));
-        }
-
-        return currentNode;
-    }
-
     /**
      * Special version of remove for EntrySet.
      */
@@ -330,15 +1326,7 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
         @SuppressWarnings("unchecked") final Entry<? extends CharSequence, V> e = (Map.Entry<? extends CharSequence, V>) o;
         final CharSequence key = keyCheck(e.getKey());
         final V value = e.getValue();
-        final TrieNode<V> currentNode = findPreviousNode(key);
-
-        if (currentNode == null) {
-			/* Node not found for the given key */
-            return null;
-        }
-
-        final TrieNode<V> node = currentNode.children.get(key.charAt(key
-                .length() - 1));
+        final TrieNode<V> node = findNode(key);
 
         if (node == null || !node.inUse) {
 			/* Node not found for the given key or is not in use */
@@ -358,11 +1346,8 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
         node.unset();
         --size;
         ++modCount;
-
-        if (node.children.isEmpty()) {
-			/* Since there are no children left, we can compact the trie */
-            compact(key);
-        }
+        adjustCounts(key, -1);
+        compact(key, node);
 
         return removed;
     }
@@ -373,35 +1358,57 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
     @Override
     public void clear() {
         final TrieNode<V> rootNode = root;
-        rootNode.children.clear();
+        rootNode.clearChildren();
         rootNode.unset();
+        rootNode.count = 0;
         ++modCount;
         size = 0;
     }
 
     /**
      * Compact the trie by removing unused nodes on the path that is specified
-     * by the given key.
+     * by the given key which ends at the given, already unset node. For path
+     * compressed tries, unused nodes with a single child are merged with the
+     * child. The root node is never merged.
      */
-    private void compact(final CharSequence key) {
+    private void compact(final CharSequence key, final TrieNode<V> node) {
+        final TrieNode<V> rootNode = getRoot();
+
+        if (node.hasChildren()) {
+            if (compressed && node != rootNode && node.childCount == 1) {
+                node.mergeChild();
+            }
+
+            return;
+        }
+
         final int keyLength = key.length();
-        TrieNode<V> currentNode = getRoot();
-        TrieNode<V> lastInUseNode = currentNode;
-        int lastInUseIndex = 0;
+        TrieNode<V> currentNode = rootNode;
+        TrieNode<V> lastRetainedNode = currentNode;
+        int lastRetainedIndex = 0;
+        int i = 0;
 
-        for (int i = 0; i < keyLength && currentNode != null; i++) {
-            if (currentNode.inUse) {
-                lastInUseNode = currentNode;
-                lastInUseIndex = i;
+        while (currentNode != node) {
+            /* Nodes that are in use or branch must stay in the trie */
+            if (currentNode.inUse || currentNode.childCount > 1) {
+                lastRetainedNode = currentNode;
+                lastRetainedIndex = i;
             }
 
-            currentNode = currentNode.children.get(key.charAt(i));
+            currentNode = currentNode.getChild(key.charAt(i));
+            i += currentNode.label.length + 1;
         }
 
-        currentNode = lastInUseNode;
+        if (i == 0 || i != keyLength) {
+            /* The root has no parent from which it could be removed */
+            return;
+        }
+
+        lastRetainedNode.removeChild(key.charAt(lastRetainedIndex));
 
-        for (int i = lastInUseIndex; i < keyLength; i++) {
-            currentNode = currentNode.children.remove(key.charAt(i)).unset();
+        if (compressed && lastRetainedNode != rootNode
+                && !lastRetainedNode.inUse && lastRetainedNode.childCount == 1) {
+            lastRetainedNode.mergeChild();
         }
     }
 
@@ -520,7 +1527,7 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
         private Entry<CharSequence, V> current;
 
         public TrieIterator() {
-            this(getRoot(), "");
+            this(getRoot(), new String(getRootLabel()));
         }
 
         public TrieIterator(final TrieNode<V> startNode, final CharSequence key) {
@@ -538,18 +1545,23 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
                 final TrieEntry tempEntry = localDeque.removeFirst();
                 final CharSequence key = tempEntry.key;
                 final TrieNode<V> node = tempEntry.node;
-                final StringBuilder sb = new StringBuilder(key.length() + 1);
-                sb.append(key).append(' ');
+                final int keyLength = key.length();
+                final StringBuilder sb = new StringBuilder(keyLength + 1);
+                sb.append(key);
 
                 if (node.inUse) {
                     localNext = tempEntry;
                 }
 
-                for (final Entry<Character, TrieNode<V>> entry : node.children
-                        .entrySet()) {
-                    sb.setCharAt(key.length(), entry.getKey());
-                    localDeque.addFirst(new TrieEntry(sb.toString(), entry
-                            .getValue()));
+                /* Push in reverse order so that keys are visited ascending */
+                for (int i = node.slotCount() - 1; i >= 0; i--) {
+                    final TrieNode<V> child = node.slotNode(i);
+
+                    if (child != null) {
+                        sb.setLength(keyLength);
+                        sb.append(node.slotKey(i)).append(child.label);
+                        localDeque.addFirst(new TrieEntry(sb.toString(), child));
+                    }
                 }
             }
 
@@ -597,6 +1609,95 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
         }
     }
 
+    /**
+     * Iterator implementation for the entries along the path of a string.
+     */
+    private final class PrefixIterator implements Iterator<Entry<CharSequence, V>> {
+
+        private final CharSequence str;
+        private final int expectedModCount;
+        private TrieNode<V> node;
+        private int index;
+        private Entry<CharSequence, V> next;
+
+        public PrefixIterator(final CharSequence str) {
+            this.str = str;
+            this.expectedModCount = modCount;
+            final char[] rootLabel = getRootLabel();
+            this.node = getRoot();
+            this.index = matchLabel(rootLabel, str, 0);
+
+            if (index < rootLabel.length) {
+                /* The string diverges from the label in front of the root */
+                this.node = null;
+            }
+
+            fetchEntry();
+        }
+
+        private void fetchEntry() {
+            final CharSequence localStr = str;
+            final int strLen = localStr.length();
+            TrieNode<V> localNode = node;
+            int i = index;
+            Entry<CharSequence, V> localNext = null;
+
+            while (localNext == null && localNode != null) {
+                if (localNode.inUse) {
+                    localNext = new TrieEntry(localStr.subSequence(0, i)
+                            .toString(), localNode);
+                }
+
+                if (i == strLen) {
+                    localNode = null;
+                } else {
+                    localNode = localNode.getChild(localStr.charAt(i++));
+
+                    if (localNode != null) {
+                        final char[] label = localNode.label;
+                        final int matched = matchLabel(label, localStr, i);
+
+                        if (matched < label.length) {
+                            localNode = null;
+                        }
+
+                        i += matched;
+                    }
+                }
+            }
+
+            node = localNode;
+            index = i;
+            next = localNext;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<CharSequence, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            final Entry<CharSequence, V> entry = next;
+
+            if (entry == null) {
+                throw new NoSuchElementException();
+            }
+
+            fetchEntry();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     private final class KeyIterator extends TrieIterator<CharSequence> {
 
         @Override
@@ -753,11 +1854,18 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
 
         private static final long serialVersionUID = 1;
 
+        /*
+         * The node at which the prefix ends or, if the prefix ends within a
+         * label, the node with that label in which case subRootLabel holds
+         * the label characters after the prefix
+         */
         private TrieNode<V> subRootNode;
+        private char[] subRootLabel = TrieNode.EMPTY_KEYS;
         private TrieMap<V> parent;
         private final CharSequence prefix;
 
         public SubTrieMap(final TrieMap<V> parent, final CharSequence prefix) {
+            super(parent.compressed);
             this.parent = parent;
             this.prefix = prefix;
             this.modCount = -1;
@@ -771,28 +1879,44 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
 			 * just update if modCount is lower than parent modCount
 			 */
             if (modCount < parentModCount) {
+                final CharSequence localPrefix = prefix;
+                final int prefixLength = localPrefix.length();
+                TrieNode<V> node = parent.getRoot();
+                char[] label = TrieNode.EMPTY_KEYS;
+                int matched = 0;
+                int i = 0;
+
+                /* Reads must not split the edge in which the prefix ends */
+                while (i < prefixLength && node != null) {
+                    node = node.getChild(localPrefix.charAt(i++));
+
+                    if (node != null) {
+                        label = node.label;
+                        matched = matchLabel(label, localPrefix, i);
+
+                        if (matched < label.length
+                                && i + matched < prefixLength) {
+                            node = null;
+                        }
+
+                        i += matched;
+                    }
+                }
+
                 modCount = parentModCount;
-                this.size = size(subRootNode = parent.findNode(prefix));
+                subRootNode = node;
+                subRootLabel = node == null || matched == label.length
+                        ? TrieNode.EMPTY_KEYS
+                        : Arrays.copyOfRange(label, matched, label.length);
+                this.size = node == null ? 0 : node.count;
             }
         }
 
-        private int size(final TrieNode<V> node) {
-            if (node == null) {
-                return 0;
-            }
-
-            int newSize = 0;
-
-            if (node.inUse) {
-                ++newSize;
-            }
-
-            for (final Map.Entry<Character, TrieNode<V>> entry : node.children
-                    .entrySet()) {
-                newSize += size(entry.getValue());
-            }
-
-            return newSize;
+        @Override
+        void adjustCounts(final CharSequence key, final int delta) {
+            /* The path from the parent root down to the sub root */
+            parent.adjustCounts(prefix, delta);
+            adjustChildCounts(subRootNode, key, delta);
         }
 
         @Override
@@ -801,16 +1925,31 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
             return subRootNode;
         }
 
+        @Override
+        char[] getRootLabel() {
+            ensureLatest();
+            return subRootLabel;
+        }
+
+        /**
+         * Returns the given key prefixed with the prefix of this sub map.
+         */
+        private String parentKey(final CharSequence key) {
+            final CharSequence localPrefix = prefix;
+            return new StringBuilder(localPrefix.length() + key.length())
+                    .append(localPrefix).append(key).toString();
+        }
+
         @Override
         public V put(CharSequence key, V value) {
             ensureLatest();
 
-            if (subRootNode == null) {
-                final CharSequence localPrefix = prefix;
-                return parent.put(
-                        new StringBuilder(localPrefix.length() + key.length())
-                                .append(localPrefix).append(key).toString(),
-                        value);
+            if (subRootNode == null || subRootLabel.length != 0) {
+				/*
+				 * The prefix does not end at a node, so let the parent split
+				 * the edge only if the key really has to be inserted
+				 */
+                return parent.put(parentKey(keyCheck(key)), value);
             } else {
                 return super.put(key, value);
             }
@@ -829,72 +1968,44 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements
 
         @Override
         public V remove(final Object o) {
-            ensureLatest();
-            final CharSequence key = keyCheck(o);
-
-            if (key.length() == 0) {
-                final CharSequence localPrefix = prefix;
-				/*
-				 * We delegate the remove to the parent when we would try to
-				 * remove the root of this sub map
-				 */
-                return parent.remove(new StringBuilder(localPrefix.length()
-                        + key.length()).append(localPrefix).append(key)
-                        .toString());
-            } else {
-                final int capturedModCount = modCount;
-                final V removed = super.remove(key);
-
-                if (capturedModCount != modCount) {
-					/* If we really removed something, adjust parent */
-                    final TrieMap<V> parentMap = parent;
-                    ++parentMap.modCount;
-                    --parentMap.size;
-                }
-
-                return removed;
-            }
+			/*
+			 * We delegate the remove to the parent which can also remove or
+			 * merge the root of this sub map
+			 */
+            return parent.remove(parentKey(keyCheck(o)));
         }
 
         @Override
         V removeMapping(final Object o) {
-            final CharSequence key = keyCheck(o);
-
-            if (key.length() == 0) {
-                final CharSequence localPrefix = prefix;
-				/*
-				 * We delegate the remove to the parent when we would try to
-				 * remove the root of this sub map
-				 */
-                return parent.removeMapping(new StringBuilder(localPrefix
-                        .length() + key.length()).append(localPrefix)
-                        .append(key).toString());
-            } else {
-                final int capturedModCount = modCount;
-                final V removed = super.removeMapping(key);
-
-                if (capturedModCount != modCount) {
-					/* If we really removed something, adjust parent */
-                    final TrieMap<V> parentMap = parent;
-                    ++parentMap.modCount;
-                    --parentMap.size;
-                }
-
-                return removed;
+            if (!(o instanceof Map.Entry)) {
+                throw new IllegalArgumentException();
             }
+
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return parent.removeMapping(
+                    new SimpleImmutableEntry<CharSequence, Object>(
+                            parentKey(keyCheck(e.getKey())), e.getValue()));
         }
 
         @Override
         public void clear() {
             ensureLatest();
-            final int oldSize = this.size;
+            final TrieNode<V> node = subRootNode;
 
-            super.clear();
-            subRootNode.unset();
+            if (node == null || node.count == 0) {
+                return;
+            }
 
             final TrieMap<V> parentMap = parent;
+            final int oldSize = node.count;
+
+            parentMap.adjustCounts(prefix, -oldSize);
+            node.clearChildren();
+            node.unset();
             parentMap.size -= oldSize;
             ++parentMap.modCount;
+			/* The key of the node also covers the rest of its label */
+            parentMap.compact(parentKey(new String(subRootLabel)), node);
         }
 
         @Override
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2011 Blazebit
+ */
+package com.blazebit.reflection;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An expression cache that holds at most a given number of expressions. The
+ * expressions of a source class are attached to the class via a
+ * {@link ClassValue}, so the cache does not keep class loaders alive. When
+ * the cache is full, expressions are evicted in the order of their insertion
+ * but expressions that were accessed since they were last inspected get a
+ * second chance, which approximates least recently used eviction without
+ * synchronizing lookups.
+ *
+ * @since 0.1.22
+ */
+public final class BoundedExpressionCache implements ExpressionCache {
+
+    private final int maximumSize;
+    /* Expressions are kept apart by their field access mode */
+    private final ClassValue<ConcurrentMap<String, Entry>> entries = new EntryMaps();
+    private final ClassValue<ConcurrentMap<String, Entry>> fieldAccessEntries = new EntryMaps();
+    /* Guarded by itself, the nodes don't refer to the expressions */
+    private final Queue<Node> clock = new ArrayDeque<Node>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache that holds at most the given number of expressions.
+     *
+     * @param maximumSize The maximum number of expressions
+     * @throws IllegalArgumentException If the maximum size is less than 1
+     */
+    public BoundedExpressionCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum size: "
+                    + maximumSize);
+        }
+
+        this.maximumSize = maximumSize;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <X, Y> PropertyPathExpression<X, Y> getExpression(Class<X> source,
+                                                             String propertyPath, boolean allowFieldAccess) {
+        if (source == null) {
+            throw new NullPointerException("source");
+        }
+        if (propertyPath == null) {
+            throw new NullPointerException("propertyPath");
+        }
+
+        final ConcurrentMap<String, Entry> map = entries(allowFieldAccess)
+                .get(source);
+        Entry entry = map.get(propertyPath);
+
+        if (entry != null) {
+            entry.node.referenced = true;
+            hits.incrementAndGet();
+            return (PropertyPathExpression<X, Y>) entry.expression;
+        }
+
+        misses.incrementAndGet();
+        entry = new Entry(new PropertyPathExpression<X, Y>(source,
+                propertyPath, allowFieldAccess), new Node(source, propertyPath,
+                allowFieldAccess));
+        final Entry oldEntry = map.putIfAbsent(propertyPath, entry);
+
+        if (oldEntry != null) {
+            oldEntry.node.referenced = true;
+            return (PropertyPathExpression<X, Y>) oldEntry.expression;
+        }
+
+        synchronized (clock) {
+            clock.add(entry.node);
+
+            while (clock.size() > maximumSize) {
+                evict();
+            }
+        }
+
+        return (PropertyPathExpression<X, Y>) entry.expression;
+    }
+
+    private ClassValue<ConcurrentMap<String, Entry>> entries(
+            boolean allowFieldAccess) {
+        return allowFieldAccess ? fieldAccessEntries : entries;
+    }
+
+    private void evict() {
+        Node node;
+
+        while ((node = clock.remove()).referenced) {
+            node.referenced = false;
+            clock.add(node);
+        }
+
+        final Class<?> type = node.type.get();
+
+        if (type != null) {
+            final ConcurrentMap<String, Entry> map = entries(
+                    node.allowFieldAccess).get(type);
+            final Entry entry = map.get(node.key);
+
+            if (entry != null && entry.node == node) {
+                map.remove(node.key, entry);
+            }
+        }
+
+        evictions.incrementAndGet();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (clock) {
+            for (Node node : clock) {
+                final Class<?> type = node.type.get();
+
+                if (type != null) {
+                    entries.remove(type);
+                    fieldAccessEntries.remove(type);
+                }
+            }
+
+            clock.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        synchronized (clock) {
+            return clock.size();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedExpressionCache[size=" + size() + ", maximumSize="
+                + maximumSize + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "]";
+    }
+
+    private static final class EntryMaps extends ClassValue<ConcurrentMap<String, Entry>> {
+
+        @Override
+        protected ConcurrentMap<String, Entry> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<String, Entry>();
+        }
+    }
+
+    private static final class Entry {
+
+        private final PropertyPathExpression<?, ?> expression;
+        private final Node node;
+
+        Entry(PropertyPathExpression<?, ?> expression, Node node) {
+            this.expression = expression;
+            this.node = node;
+        }
+    }
+
+    private static final class Node {
+
+        private final WeakReference<Class<?>> type;
+        private final String key;
+        private final boolean allowFieldAccess;
+        private volatile boolean referenced;
+
+        Node(Class<?> type, String key, boolean allowFieldAccess) {
+            this.type = new WeakReference<Class<?>>(type);
+            this.key = key;
+            this.allowFieldAccess = allowFieldAccess;
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2011 Blazebit
+ */
+package com.blazebit.reflection;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reflection metadata of a class that is computed once and attached to the
+ * class via a {@link ClassValue}, so that the metadata does not prevent the
+ * class loader of the class from being unloaded. The metadata consists of the
+ * order in which the type hierarchy is traversed, indexes of the declared
+ * members, the results of lookups by name, the resolved bindings of type
+ * variables and the invokers of the declared methods.
+ *
+ * @since 0.1.22
+ */
+final class ClassMetadata {
+
+    private static final Method[] NO_METHODS = new Method[0];
+    private static final ClassValue<ClassMetadata> METADATA = new ClassValue<ClassMetadata>() {
+
+        @Override
+        protected ClassMetadata computeValue(Class<?> type) {
+            return new ClassMetadata(type);
+        }
+    };
+
+    private final Class<?> type;
+    /* The classes in breadth first order, interfaces may occur repeatedly */
+    private final Class<?>[] hierarchy;
+    /*
+     * Lookup results of the whole hierarchy, misses are not cached so that
+     * arbitrary names can't grow the maps beyond the number of members
+     */
+    private final ConcurrentMap<String, Method> getters = new ConcurrentHashMap<String, Method>();
+    private final ConcurrentMap<String, Method> setters = new ConcurrentHashMap<String, Method>();
+    private final ConcurrentMap<String, Field> fields = new ConcurrentHashMap<String, Field>();
+    /* Bindings of the type variables of this class and its super types */
+    private final ConcurrentMap<TypeVariable<?>, Type> resolvedTypes = new ConcurrentHashMap<TypeVariable<?>, Type>();
+    private final ConcurrentMap<TypeVariable<?>, Class<?>> resolvedClasses = new ConcurrentHashMap<TypeVariable<?>, Class<?>>();
+    /*
+     * Invokers of the declared methods, separated by the accessible flag of
+     * the method they were created for, because a handle that was created
+     * for an accessible method must not be used for an inaccessible one
+     */
+    private final ConcurrentMap<Method, MethodInvoker> invokers = new ConcurrentHashMap<Method, MethodInvoker>();
+    private final ConcurrentMap<Method, MethodInvoker> accessibleInvokers = new ConcurrentHashMap<Method, MethodInvoker>();
+    /* Indexes of the declared members, created on first access */
+    private volatile Map<String, Method[]> declaredMethods;
+    private volatile Map<String, Method> declaredGetters;
+    private volatile Map<String, Method> declaredSetters;
+    private volatile Map<String, Field> declaredFields;
+    private volatile Map<Class<?>, Method[]> annotatedMethods;
+
+    private ClassMetadata(Class<?> type) {
+        final List<Class<?>> classes = new ArrayList<Class<?>>();
+        final Queue<Class<?>> classQueue = new LinkedList<Class<?>>();
+        classQueue.add(type);
+
+        while (!classQueue.isEmpty()) {
+            final Class<?> traverseClass = classQueue.remove();
+            classes.add(traverseClass);
+
+            if (traverseClass.getSuperclass() != null) {
+                classQueue.add(traverseClass.getSuperclass());
+            }
+
+            classQueue.addAll(Arrays.asList(traverseClass.getInterfaces()));
+        }
+
+        this.type = type;
+        this.hierarchy = classes.toArray(new Class<?>[classes.size()]);
+    }
+
+    static ClassMetadata of(Class<?> type) {
+        return METADATA.get(type);
+    }
+
+    Class<?>[] getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Returns the getter for the given field name of the hierarchy or null.
+     */
+    Method getGetter(String fieldName) {
+        Method result = getters.get(fieldName);
+
+        if (result == null) {
+            final String suffix = capitalize(fieldName);
+
+            for (Class<?> c : hierarchy) {
+                result = of(c).getDeclaredGetters().get(suffix);
+
+                if (result != null) {
+                    getters.putIfAbsent(fieldName, result);
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the setter for the given field name of the hierarchy or null.
+     */
+    Method getSetter(String fieldName) {
+        Method result = setters.get(fieldName);
+
+        if (result == null) {
+            final String suffix = capitalize(fieldName);
+
+            for (Class<?> c : hierarchy) {
+                result = of(c).getDeclaredSetters().get(suffix);
+
+                if (result != null) {
+                    setters.putIfAbsent(fieldName, result);
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the field with the given name of the hierarchy or null.
+     */
+    Field getField(String fieldName) {
+        Field result = fields.get(fieldName);
+
+        if (result == null) {
+            for (Class<?> c : hierarchy) {
+                result = of(c).getDeclaredFields().get(fieldName);
+
+                if (result != null) {
+                    fields.putIfAbsent(fieldName, result);
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the type to which the given type variable of this class or one
+     * of its super types is bound or null if it was not resolved yet.
+     */
+    Type getResolvedType(TypeVariable<?> typeVariable) {
+        return resolvedTypes.get(typeVariable);
+    }
+
+    void putResolvedType(TypeVariable<?> typeVariable, Type type) {
+        resolvedTypes.putIfAbsent(typeVariable, type);
+    }
+
+    /**
+     * Returns the class to which the given type variable of this class or one
+     * of its super types is bound or null if it was not resolved yet.
+     */
+    Class<?> getResolvedClass(TypeVariable<?> typeVariable) {
+        return resolvedClasses.get(typeVariable);
+    }
+
+    void putResolvedClass(TypeVariable<?> typeVariable, Class<?> type) {
+        resolvedClasses.putIfAbsent(typeVariable, type);
+    }
+
+    /**
+     * Returns the invoker for the given declared method of this class that
+     * was created for a method with the given accessible flag or null.
+     */
+    MethodInvoker getInvoker(Method method, boolean accessible) {
+        return (accessible ? accessibleInvokers : invokers).get(method);
+    }
+
+    /**
+     * Caches the given invoker unless another one was cached concurrently
+     * and returns the cached invoker.
+     */
+    MethodInvoker putInvoker(Method method, boolean accessible, MethodInvoker invoker) {
+        final MethodInvoker old = (accessible ? accessibleInvokers : invokers)
+                .putIfAbsent(method, invoker);
+        return old == null ? invoker : old;
+    }
+
+    /**
+     * Returns a new method object for the given method so that changes to
+     * the accessible flag of the copy don't affect the given method.
+     */
+    static Method copy(Method method) {
+        final Class<?> declaringClass = method.getDeclaringClass();
+
+        try {
+            final Method copy = declaringClass.getDeclaredMethod(
+                    method.getName(), method.getParameterTypes());
+
+            if (copy.equals(method)) {
+                return copy;
+            }
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        /* Bridge methods only differ from the bridged method by return type */
+        for (Method m : declaringClass.getDeclaredMethods()) {
+            if (m.equals(method)) {
+                return m;
+            }
+        }
+
+        throw new IllegalStateException("Method not found: " + method);
+    }
+
+    /**
+     * Returns a new field object for the given field so that changes to the
+     * accessible flag of the copy don't affect the given field.
+     */
+    static Field copy(Field field) {
+        try {
+            return field.getDeclaringClass().getDeclaredField(field.getName());
+        } catch (NoSuchFieldException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the declared methods of this class with the given name in the
+     * order of {@link Class#getDeclaredMethods()}.
+     */
+    Method[] getDeclaredMethods(String name) {
+        final Method[] methods = getDeclaredMethods().get(name);
+        return methods == null ? NO_METHODS : methods;
+    }
+
+    /**
+     * Returns the declared methods of this class that are annotated with the
+     * given annotation type in the order of {@link Class#getDeclaredMethods()}.
+     */
+    Method[] getAnnotatedMethods(Class<? extends Annotation> annotation) {
+        Map<Class<?>, Method[]> index = annotatedMethods;
+
+        if (index == null) {
+            final Map<Class<?>, List<Method>> lists = new HashMap<Class<?>, List<Method>>();
+
+            for (Method m : type.getDeclaredMethods()) {
+                for (Annotation a : m.getAnnotations()) {
+                    List<Method> list = lists.get(a.annotationType());
+
+                    if (list == null) {
+                        list = new ArrayList<Method>();
+                        lists.put(a.annotationType(), list);
+                    }
+
+                    list.add(m);
+                }
+            }
+
+            index = new HashMap<Class<?>, Method[]>(lists.size());
+
+            for (Map.Entry<Class<?>, List<Method>> entry : lists.entrySet()) {
+                index.put(entry.getKey(), entry.getValue().toArray(
+                        new Method[entry.getValue().size()]));
+            }
+
+            annotatedMethods = index;
+        }
+
+        final Method[] methods = index.get(annotation);
+        return methods == null ? NO_METHODS : methods;
+    }
+
+    private Map<String, Method[]> getDeclaredMethods() {
+        Map<String, Method[]> index = declaredMethods;
+
+        if (index == null) {
+            final Map<String, List<Method>> lists = new HashMap<String, List<Method>>();
+
+            for (Method m : type.getDeclaredMethods()) {
+                List<Method> list = lists.get(m.getName());
+
+                if (list == null) {
+                    list = new ArrayList<Method>(1);
+                    lists.put(m.getName(), list);
+                }
+
+                list.add(m);
+            }
+
+            index = new HashMap<String, Method[]>(lists.size());
+
+            for (Map.Entry<String, List<Method>> entry : lists.entrySet()) {
+                index.put(entry.getKey(), entry.getValue().toArray(
+                        new Method[entry.getValue().size()]));
+            }
+
+            declaredMethods = index;
+        }
+
+        return index;
+    }
+
+    /*
+     * Getters and setters are indexed by the name without the prefix and
+     * the most specific candidate is chosen like in ReflectionUtils
+     */
+
+    private Map<String, Method> getDeclaredGetters() {
+        Map<String, Method> index = declaredGetters;
+
+        if (index == null) {
+            index = new HashMap<String, Method>();
+
+            for (Method m : type.getDeclaredMethods()) {
+                if (ReflectionUtils.isGetterSignature(m)) {
+                    final String name = m.getName();
+                    final String suffix;
+
+                    if (name.startsWith("get")) {
+                        suffix = name.substring(3);
+                    } else if (name.startsWith("is")) {
+                        suffix = name.substring(2);
+                    } else {
+                        continue;
+                    }
+
+                    final Method res = index.get(suffix);
+
+                    if (res == null
+                            || res.getReturnType().isAssignableFrom(m.getReturnType())) {
+                        index.put(suffix, m);
+                    }
+                }
+            }
+
+            declaredGetters = index;
+        }
+
+        return index;
+    }
+
+    private Map<String, Method> getDeclaredSetters() {
+        Map<String, Method> index = declaredSetters;
+
+        if (index == null) {
+            index = new HashMap<String, Method>();
+
+            for (Method m : type.getDeclaredMethods()) {
+                if (ReflectionUtils.isSetterSignature(m)
+                        && m.getName().startsWith("set")) {
+                    final String suffix = m.getName().substring(3);
+                    final Method res = index.get(suffix);
+
+                    if (res == null
+                            || res.getParameterTypes()[0].isAssignableFrom(m.getParameterTypes()[0])) {
+                        index.put(suffix, m);
+                    }
+                }
+            }
+
+            declaredSetters = index;
+        }
+
+        return index;
+    }
+
+    private Map<String, Field> getDeclaredFields() {
+        Map<String, Field> index = declaredFields;
+
+        if (index == null) {
+            final Field[] declared = type.getDeclaredFields();
+            index = new HashMap<String, Field>(declared.length);
+
+            for (Field f : declared) {
+                index.put(f.getName(), f);
+            }
+
+            declaredFields = index;
+        }
+
+        return index;
+    }
+
+    private static String capitalize(String fieldName) {
+        return new StringBuilder(fieldName.length())
+                .append(Character.toUpperCase(fieldName.charAt(0)))
+                .append(fieldName, 1, fieldName.length()).toString();
+    }
+}
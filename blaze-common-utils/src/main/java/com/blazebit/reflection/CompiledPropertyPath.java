@@ -0,0 +1,282 @@
+/*
+ * Copyright 2011 Blazebit
+ */
+package com.blazebit.reflection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * A property path whose getter chain has been resolved completely and is
+ * compiled into a single method handle per operation. The handles invoke the
+ * getters and setters directly and contain the null checks between the hops,
+ * so accessing a value does not go through {@link Method#invoke} or
+ * {@link Field#get}. Exceptions thrown by the accessed members are wrapped
+ * the same way as by the reflective path.
+ *
+ * @since 0.1.22
+ */
+final class CompiledPropertyPath {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(
+            Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(
+            void.class, Object.class, Object.class);
+    private static final MethodHandle CHECK_NOT_NULL;
+    private static final MethodHandle IS_NULL;
+    private static final MethodHandle WRAP;
+
+    static {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        try {
+            CHECK_NOT_NULL = lookup.findStatic(CompiledPropertyPath.class,
+                    "checkNotNull", MethodType.methodType(Object.class,
+                            Object.class, String.class));
+            IS_NULL = lookup.findStatic(CompiledPropertyPath.class, "isNull",
+                    MethodType.methodType(boolean.class, Object.class));
+            WRAP = lookup.findStatic(CompiledPropertyPath.class, "wrap",
+                    MethodType.methodType(Object.class, Throwable.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    /* Throws a NullPointerException if an intermediate result is null */
+    private final MethodHandle getter;
+    /* Returns null if the target or an intermediate result is null */
+    private final MethodHandle nullSafeGetter;
+    /* Null if the leaf can not be set via a statically resolved member */
+    private final MethodHandle setter;
+    /* int, long or double if the leaf is primitive, otherwise Object */
+    private final Class<?> columnType;
+    /* Like getter but returns the column type, null if it is Object */
+    private final MethodHandle primitiveGetter;
+
+    private CompiledPropertyPath(MethodHandle getter,
+                                 MethodHandle nullSafeGetter, MethodHandle setter,
+                                 Class<?> columnType, MethodHandle primitiveGetter) {
+        this.getter = getter;
+        this.nullSafeGetter = nullSafeGetter;
+        this.setter = setter;
+        this.columnType = columnType;
+        this.primitiveGetter = primitiveGetter;
+    }
+
+    /**
+     * Compiles the given resolved chain or returns null if the chain is not
+     * resolved completely or can not be accessed via method handles. Every
+     * hop of the chain is either a getter or a field.
+     */
+    static CompiledPropertyPath compile(Method[] getterChain,
+                                        Field[] fieldChain, Method leafGetter, Field leafField,
+                                        Method leafSetter) {
+        if (leafGetter == null && leafField == null) {
+            return null;
+        }
+
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final int hopCount = getterChain.length;
+            final MethodHandle[] hops = new MethodHandle[hopCount];
+            final String[] names = new String[hopCount];
+
+            for (int i = 0; i < hopCount; i++) {
+                if (getterChain[i] != null) {
+                    hops[i] = getter(lookup.unreflect(getterChain[i]));
+                    names[i] = getterChain[i].getName();
+                } else if (fieldChain[i] != null) {
+                    hops[i] = getter(lookup.unreflectGetter(fieldChain[i]));
+                    names[i] = fieldChain[i].getName();
+                } else {
+                    return null;
+                }
+            }
+
+            final MethodHandle rawLeaf = leafGetter != null ? lookup
+                    .unreflect(leafGetter) : lookup.unreflectGetter(leafField);
+            final MethodHandle leaf = getter(rawLeaf);
+            final Class<?> columnType = getColumnType(rawLeaf.type()
+                    .returnType());
+            MethodHandle leafObject = MethodHandles.identity(Object.class);
+            MethodHandle getter = leaf;
+            MethodHandle nullSafeGetter = nullGuard(leaf);
+            MethodHandle primitiveGetter = columnType == Object.class ? null
+                    : getter(rawLeaf, columnType);
+
+            for (int i = hopCount - 1; i >= 0; i--) {
+                final MethodHandle checkedHop = MethodHandles.filterReturnValue(
+                        hops[i],
+                        MethodHandles.insertArguments(CHECK_NOT_NULL, 1,
+                                names[i] + " returned null"));
+                getter = MethodHandles.filterReturnValue(checkedHop, getter);
+
+                if (primitiveGetter != null) {
+                    primitiveGetter = MethodHandles.filterReturnValue(
+                            checkedHop, primitiveGetter);
+                }
+
+                leafObject = MethodHandles.filterReturnValue(checkedHop,
+                        leafObject);
+                nullSafeGetter = nullGuard(MethodHandles.filterReturnValue(
+                        hops[i], nullSafeGetter));
+            }
+
+            return new CompiledPropertyPath(getter, nullSafeGetter, setter(
+                    lookup, leafGetter, leafField, leafSetter, leafObject),
+                    columnType, primitiveGetter);
+        } catch (IllegalAccessException | RuntimeException ex) {
+            /* Access or type adaption is not possible, use reflection */
+            return null;
+        }
+    }
+
+    private static MethodHandle setter(MethodHandles.Lookup lookup,
+                                       Method leafGetter, Field leafField, Method leafSetter,
+                                       MethodHandle leafObject) {
+        final MethodHandle handle;
+
+        try {
+            if (leafField != null) {
+                handle = lookup.unreflectSetter(leafField);
+            } else if (leafSetter != null) {
+                handle = lookup.unreflect(leafSetter);
+            } else {
+                return null;
+            }
+        } catch (IllegalAccessException ex) {
+            /* Final fields can only be set reflectively */
+            return null;
+        }
+
+        final MethodHandle handler = MethodHandles.dropArguments(
+                WRAP.asType(MethodType.methodType(void.class, Throwable.class)),
+                1, handle.type().parameterList());
+        return MethodHandles.filterArguments(
+                MethodHandles.catchException(handle, Throwable.class, handler)
+                        .asType(SETTER_TYPE), 0, leafObject);
+    }
+
+    /**
+     * Returns the primitive type into which values of the given leaf type
+     * can be widened without loss, or Object if the values are stored boxed.
+     */
+    private static Class<?> getColumnType(Class<?> leafType) {
+        if (leafType == int.class || leafType == short.class
+                || leafType == char.class || leafType == byte.class) {
+            return int.class;
+        } else if (leafType == long.class) {
+            return long.class;
+        } else if (leafType == double.class || leafType == float.class) {
+            return double.class;
+        }
+
+        return Object.class;
+    }
+
+    /**
+     * Adapts the given getter handle to the generic getter type and wraps
+     * the exceptions it throws.
+     */
+    private static MethodHandle getter(MethodHandle handle) {
+        return getter(handle, Object.class).asType(GETTER_TYPE);
+    }
+
+    /**
+     * Adapts the given getter handle to accept an object and return the
+     * given type and wraps the exceptions it throws.
+     */
+    private static MethodHandle getter(MethodHandle handle, Class<?> returnType) {
+        final MethodType type = handle.type();
+        final MethodHandle handler = MethodHandles.dropArguments(
+                WRAP.asType(MethodType.methodType(type.returnType(),
+                        Throwable.class)), 1, type.parameterList());
+        return MethodHandles.catchException(handle, Throwable.class, handler)
+                .asType(MethodType.methodType(returnType, Object.class));
+    }
+
+    private static MethodHandle nullGuard(MethodHandle handle) {
+        return MethodHandles.guardWithTest(IS_NULL, MethodHandles
+                .dropArguments(MethodHandles.constant(Object.class, null), 0,
+                        Object.class), handle);
+    }
+
+    @SuppressWarnings("unused")
+    private static Object checkNotNull(Object value, String message) {
+        if (value == null) {
+            throw new NullPointerException(message);
+        }
+
+        return value;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean isNull(Object value) {
+        return value == null;
+    }
+
+    @SuppressWarnings("unused")
+    private static Object wrap(Throwable t) {
+        throw new RuntimeException(new InvocationTargetException(t));
+    }
+
+    /**
+     * Invokes the getter chain on the given non null target.
+     */
+    Object getValue(Object target) throws Throwable {
+        return (Object) getter.invokeExact(target);
+    }
+
+    /**
+     * Invokes the getter chain on the given target and returns null if the
+     * target or an intermediate result is null.
+     */
+    Object getNullSafeValue(Object target) throws Throwable {
+        return (Object) nullSafeGetter.invokeExact(target);
+    }
+
+    /**
+     * Returns int, long or double if the leaf values can be retrieved
+     * without boxing via the respective getter, otherwise Object.
+     */
+    Class<?> getColumnType() {
+        return columnType;
+    }
+
+    /**
+     * Like {@link #getValue(Object)} but requires the column type int.
+     */
+    int getIntValue(Object target) throws Throwable {
+        return (int) primitiveGetter.invokeExact(target);
+    }
+
+    /**
+     * Like {@link #getValue(Object)} but requires the column type long.
+     */
+    long getLongValue(Object target) throws Throwable {
+        return (long) primitiveGetter.invokeExact(target);
+    }
+
+    /**
+     * Like {@link #getValue(Object)} but requires the column type double.
+     */
+    double getDoubleValue(Object target) throws Throwable {
+        return (double) primitiveGetter.invokeExact(target);
+    }
+
+    boolean isSettable() {
+        return setter != null;
+    }
+
+    /**
+     * Invokes the getter chain on the given non null target and sets the
+     * given value on the leaf object.
+     */
+    void setValue(Object target, Object value) throws Throwable {
+        setter.invokeExact(target, value);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2011 Blazebit
+ */
+package com.blazebit.reflection;
+
+/**
+ * A store for the property path expressions that are created by
+ * {@link ExpressionUtils}. Implementations must be thread safe and should not
+ * prevent the class loaders of the source classes from being unloaded.
+ *
+ * @since 0.1.22
+ * @see ExpressionUtils#setCache(ExpressionCache)
+ */
+public interface ExpressionCache {
+
+    /**
+     * Returns the expression for the given source class, property path and
+     * field access mode, creating it if it is not cached.
+     *
+     * @param source           The source class of the expression
+     * @param propertyPath     The property path of the expression
+     * @param allowFieldAccess Whether the expression may access fields
+     * @return The expression
+     */
+    public <X, Y> PropertyPathExpression<X, Y> getExpression(Class<X> source,
+                                                             String propertyPath, boolean allowFieldAccess);
+
+    /**
+     * Removes all expressions from this cache.
+     */
+    public void clear();
+
+    /**
+     * Returns the number of expressions in this cache.
+     *
+     * @return The number of expressions
+     */
+    public int size();
+
+    /**
+     * Returns the number of lookups that found a cached expression.
+     *
+     * @return The hit count
+     */
+    public long getHitCount();
+
+    /**
+     * Returns the number of lookups that had to create an expression.
+     *
+     * @return The miss count
+     */
+    public long getMissCount();
+
+    /**
+     * Returns the number of expressions that were removed to stay within the
+     * bounds of this cache.
+     *
+     * @return The eviction count
+     */
+    public long getEvictionCount();
+}
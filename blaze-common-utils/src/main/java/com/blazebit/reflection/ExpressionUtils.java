@@ -1,11 +1,42 @@
 package com.blazebit.reflection;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public final class ExpressionUtils {
 
-    private static final ConcurrentMap<ExpressionUtils.PropertyPathExpressionKey, PropertyPathExpression<Object, Object>> cache = new ConcurrentHashMap<ExpressionUtils.PropertyPathExpressionKey, PropertyPathExpression<Object, Object>>();
+    /* The minimum number of targets extracted by one task of extract */
+    private static final int MIN_BATCH_SIZE = 1024;
+
+    /**
+     * The maximum number of expressions held by the default cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    private static volatile ExpressionCache cache = new BoundedExpressionCache(DEFAULT_CACHE_SIZE);
+
+    /**
+     * Returns the cache that holds the expressions created by this class.
+     *
+     * @return The expression cache
+     */
+    public static ExpressionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Replaces the cache that holds the expressions created by this class.
+     *
+     * @param expressionCache The new expression cache
+     */
+    public static void setCache(ExpressionCache expressionCache) {
+        if (expressionCache == null) {
+            throw new NullPointerException("expressionCache");
+        }
+
+        cache = expressionCache;
+    }
 
 	/* Without value class */
 
@@ -35,22 +66,7 @@ public final class ExpressionUtils {
     @SuppressWarnings("unchecked")
     public static <X, Y> PropertyPathExpression<X, Y> getExpression(
         Class<X> source, String propertyPath, Class<Y> valueClass, boolean allowFieldAccess) {
-        final PropertyPathExpressionKey key = new PropertyPathExpressionKey(
-            source, propertyPath, allowFieldAccess);
-        PropertyPathExpression<Object, Object> expression = cache.get(key);
-
-        if (expression == null) {
-            expression = new PropertyPathExpression<Object, Object>(
-                    (Class<Object>) source, propertyPath, allowFieldAccess);
-            final PropertyPathExpression<Object, Object> oldExpression = cache
-                    .putIfAbsent(key, expression);
-
-            if (oldExpression != null) {
-                expression = oldExpression;
-            }
-        }
-
-        return (PropertyPathExpression<X, Y>) expression;
+        return cache.getExpression(source, propertyPath, allowFieldAccess);
     }
 
     public static <X, Y> PropertyPathExpressionValueHolder<X, Y> getValueHolder(
@@ -181,48 +197,149 @@ public final class ExpressionUtils {
             .getNullSafeValue(target);
     }
 
-    private static class PropertyPathExpressionKey {
-        final Class<?> source;
-        final String propertyPath;
-        final boolean allowField;
+    /* Column extraction */
+
+    /**
+     * Retrieves the value of the given expression for every given target and
+     * returns the values as column in the iteration order of the targets. If
+     * the leaf of the expression is statically resolved to a primitive type,
+     * the values are retrieved without boxing and the column is an int[] for
+     * int, short, char and byte, a long[] for long and a double[] for double
+     * and float properties. Otherwise the column is an Object[].
+     *
+     * The values are retrieved like by
+     * {@link PropertyPathExpression#getValue(Object)}, so the targets and the
+     * intermediate results must not be null.
+     *
+     * @param targets    The objects from which to retrieve the values
+     * @param expression The expression that retrieves the values
+     * @return The column of values
+     */
+    public static <X, Y> Object extract(Collection<? extends X> targets,
+                                        PropertyPathExpression<X, Y> expression) {
+        return extract(targets, expression, null);
+    }
 
-        public PropertyPathExpressionKey(Class<?> source, String propertyPath, boolean allowField) {
-            this.source = source;
-            this.propertyPath = propertyPath;
-            this.allowField = allowField;
+    /**
+     * Like {@link #extract(Collection, PropertyPathExpression)} but splits
+     * the targets into batches that are extracted in parallel by the given
+     * fork join pool. Inputs that fit into a single batch are extracted by
+     * the calling thread.
+     *
+     * @param targets    The objects from which to retrieve the values
+     * @param expression The expression that retrieves the values
+     * @param pool       The pool that executes the extraction tasks or null
+     *                   to extract sequentially
+     * @return The column of values
+     */
+    public static <X, Y> Object extract(Collection<? extends X> targets,
+                                        PropertyPathExpression<X, Y> expression, ForkJoinPool pool) {
+        if (targets == null) {
+            throw new NullPointerException("targets");
+        }
+        if (expression == null) {
+            throw new NullPointerException("expression");
         }
 
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result
-                    + ((propertyPath == null) ? 0 : propertyPath.hashCode());
-            result = prime * result
-                    + ((source == null) ? 0 : source.hashCode());
-            return result;
+        final Object[] targetArray = targets.toArray();
+        final Class<?> columnType = expression.getColumnType();
+        final Object column;
+
+        if (columnType == int.class) {
+            column = new int[targetArray.length];
+        } else if (columnType == long.class) {
+            column = new long[targetArray.length];
+        } else if (columnType == double.class) {
+            column = new double[targetArray.length];
+        } else {
+            column = new Object[targetArray.length];
+        }
+
+        if (pool == null) {
+            extract(targetArray, expression, column, 0, targetArray.length);
+        } else {
+            final int batchSize = Math.max(MIN_BATCH_SIZE, targetArray.length
+                    / (pool.getParallelism() << 3));
+
+            if (targetArray.length <= batchSize) {
+                extract(targetArray, expression, column, 0, targetArray.length);
+            } else {
+                pool.invoke(new ExtractTask(targetArray, expression, column,
+                        0, targetArray.length, batchSize));
+            }
+        }
+
+        return column;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void extract(Object[] targets,
+                                PropertyPathExpression<?, ?> expression, Object column,
+                                int from, int to) {
+        final PropertyPathExpression<Object, Object> e = (PropertyPathExpression<Object, Object>) expression;
+
+        if (column instanceof int[]) {
+            final int[] values = (int[]) column;
+
+            for (int i = from; i < to; i++) {
+                values[i] = e.getIntValue(targets[i]);
+            }
+        } else if (column instanceof long[]) {
+            final long[] values = (long[]) column;
+
+            for (int i = from; i < to; i++) {
+                values[i] = e.getLongValue(targets[i]);
+            }
+        } else if (column instanceof double[]) {
+            final double[] values = (double[]) column;
+
+            for (int i = from; i < to; i++) {
+                values[i] = e.getDoubleValue(targets[i]);
+            }
+        } else {
+            final Object[] values = (Object[]) column;
+
+            for (int i = from; i < to; i++) {
+                values[i] = e.getValue(targets[i]);
+            }
+        }
+    }
+
+    /**
+     * Extracts a range of targets by splitting it in halves until the range
+     * fits into one batch.
+     */
+    private static final class ExtractTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] targets;
+        private final PropertyPathExpression<?, ?> expression;
+        private final Object column;
+        private final int from;
+        private final int to;
+        private final int batchSize;
+
+        ExtractTask(Object[] targets, PropertyPathExpression<?, ?> expression,
+                    Object column, int from, int to, int batchSize) {
+            this.targets = targets;
+            this.expression = expression;
+            this.column = column;
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
         }
 
         @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            PropertyPathExpressionKey other = (PropertyPathExpressionKey) obj;
-            if (propertyPath == null) {
-                if (other.propertyPath != null)
-                    return false;
-            } else if (!propertyPath.equals(other.propertyPath))
-                return false;
-            if (source == null) {
-                if (other.source != null)
-                    return false;
-            } else if (!source.equals(other.source))
-                return false;
-            return true;
+        protected void compute() {
+            if (to - from <= batchSize) {
+                extract(targets, expression, column, from, to);
+            } else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new ExtractTask(targets, expression, column, from,
+                        mid, batchSize), new ExtractTask(targets, expression,
+                        column, mid, to, batchSize));
+            }
         }
     }
 
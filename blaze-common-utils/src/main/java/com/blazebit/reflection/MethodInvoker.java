@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011 Blazebit
+ */
+package com.blazebit.reflection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Invokes a method via a method handle that is adapted to a generic type
+ * once, so that invocations do not go through {@link Method#invoke}. The
+ * semantics of {@link Method#invoke} are retained, exceptions thrown by the
+ * invoked method are wrapped in an {@link InvocationTargetException} and
+ * arguments that don't fit the parameter types result in an
+ * {@link IllegalArgumentException}. Methods that can not be accessed via
+ * method handles are invoked reflectively, so accessing a method via an
+ * invoker requires the same accessibility as accessing it via
+ * {@link Method#invoke}.
+ *
+ * Instances are cached per method and accessible flag of the method in the
+ * metadata of the declaring class and can be used by multiple threads
+ * concurrently.
+ *
+ * @since 0.1.22
+ */
+public final class MethodInvoker {
+
+    private static final MethodHandle WRAP;
+
+    static {
+        try {
+            WRAP = MethodHandles.lookup().findStatic(MethodInvoker.class,
+                    "wrap", MethodType.methodType(Object.class,
+                            Throwable.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    /* Only used by the invoker itself, so its accessible flag never changes */
+    private final Method method;
+    private final boolean isStatic;
+    private final int parameterCount;
+    /* (Object, Object[])Object or null if reflection has to be used */
+    private final MethodHandle spreadHandle;
+    /* (Object)Object, only set for methods without parameters */
+    private final MethodHandle handle0;
+    /* (Object, Object)Object, only set for methods with one parameter */
+    private final MethodHandle handle1;
+
+    private MethodInvoker(Method method, MethodHandle handle) {
+        this.method = method;
+        this.isStatic = Modifier.isStatic(method.getModifiers());
+        this.parameterCount = method.getParameterTypes().length;
+
+        if (handle == null) {
+            this.spreadHandle = null;
+            this.handle0 = null;
+            this.handle1 = null;
+        } else {
+            this.spreadHandle = handle.asSpreader(Object[].class,
+                    parameterCount).asType(MethodType.methodType(Object.class,
+                    Object.class, Object[].class));
+            this.handle0 = parameterCount == 0 ? handle.asType(MethodType
+                    .methodType(Object.class, Object.class)) : null;
+            this.handle1 = parameterCount == 1 ? handle.asType(MethodType
+                    .methodType(Object.class, Object.class, Object.class))
+                    : null;
+        }
+    }
+
+    /**
+     * Returns the invoker for the given method.
+     *
+     * @param method The method to invoke
+     * @return The invoker for the method
+     */
+    @SuppressWarnings("deprecation")
+    public static MethodInvoker of(Method method) {
+        if (method == null) {
+            throw new NullPointerException("method");
+        }
+
+        final boolean accessible = method.isAccessible();
+        final ClassMetadata metadata = ClassMetadata.of(method.getDeclaringClass());
+        MethodInvoker invoker = metadata.getInvoker(method, accessible);
+
+        if (invoker == null) {
+            final Method copy = ClassMetadata.copy(method);
+            MethodHandle handle = null;
+
+            try {
+                /*
+                 * The public lookup only grants access to inaccessible
+                 * methods that every caller may invoke
+                 */
+                handle = adapt(copy, MethodHandles.publicLookup().unreflect(
+                        accessible ? method : copy));
+            } catch (IllegalAccessException ex) {
+                /* Invoke reflectively, the copy mirrors the given flag */
+                if (accessible) {
+                    copy.setAccessible(true);
+                }
+            }
+
+            invoker = metadata.putInvoker(method, accessible,
+                    new MethodInvoker(copy, handle));
+        }
+
+        return invoker;
+    }
+
+    /**
+     * Wraps exceptions of the method in an InvocationTargetException and
+     * prepends a parameter for the target of static methods so that every
+     * handle takes the target as first parameter.
+     */
+    private static MethodHandle adapt(Method method, MethodHandle handle) {
+        final MethodType type = handle.type();
+        final MethodHandle handler = MethodHandles.dropArguments(
+                WRAP.asType(MethodType.methodType(type.returnType(),
+                        Throwable.class)), 1, type.parameterList());
+        MethodHandle result = MethodHandles.catchException(handle,
+                Throwable.class, handler);
+
+        if (type.returnType() == void.class) {
+            result = MethodHandles.filterReturnValue(result,
+                    MethodHandles.constant(Object.class, null));
+        }
+        if (Modifier.isStatic(method.getModifiers())) {
+            result = MethodHandles.dropArguments(result, 0, Object.class);
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unused")
+    private static Object wrap(Throwable t) throws InvocationTargetException {
+        throw new InvocationTargetException(t);
+    }
+
+    /**
+     * Returns a new object for the method that is invoked by this invoker.
+     *
+     * @return The method
+     */
+    public Method getMethod() {
+        return ClassMetadata.copy(method);
+    }
+
+    /**
+     * Invokes the method like {@link Method#invoke(Object, Object...)}.
+     *
+     * @param target The object on which to invoke the method, ignored for
+     *               static methods
+     * @param args   The arguments for the method
+     * @return The result of the method or null for void methods
+     * @throws InvocationTargetException If the invoked method throws an
+     *                                   exception
+     * @throws IllegalAccessException    If the method is not accessible
+     */
+    public Object invoke(Object target, Object... args)
+            throws InvocationTargetException, IllegalAccessException {
+        final int argCount = args == null ? 0 : args.length;
+
+        if (spreadHandle == null) {
+            return method.invoke(target, args);
+        }
+        if (argCount != parameterCount) {
+            throw new IllegalArgumentException("wrong number of arguments");
+        }
+        if (target == null && !isStatic) {
+            throw new NullPointerException("target");
+        }
+
+        try {
+            if (argCount == 0) {
+                return (Object) handle0.invokeExact(target);
+            } else if (argCount == 1) {
+                return (Object) handle1.invokeExact(target, args[0]);
+            }
+
+            return (Object) spreadHandle.invokeExact(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex;
+        } catch (ClassCastException | NullPointerException ex) {
+            /* Only the adaption of the arguments can throw these directly */
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new InvocationTargetException(ex);
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -28,6 +29,12 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
     private Method leafGetter;
     private Method leafSetter;
     private Field leafField;
+    /* Null if the chain could not be resolved statically */
+    private CompiledPropertyPath compiledPath;
+    /* Accessors for the runtime classes of hops that are not resolved statically */
+    private InlineCache[] hopCaches;
+    private InlineCache leafGetterCache;
+    private InlineCache leafSetterCache;
     private volatile boolean dirty = true;
 
     public PropertyPathExpression(Class<X> source, String propertyPath) {
@@ -68,18 +75,20 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
                         for (int i = 0; i < getterChainLength; i++) {
                             final Method getter = ReflectionUtils.getGetter(
                                     current, properties[i]);
-                            getters.add(getter);
                             if (getter == null) {
                                 if (allowField) {
                                     Field field = ReflectionUtils.getField(current, properties[i]);
                                     field.setAccessible(true);
+                                    getters.add(null);
                                     fields.add(field);
                                     current = ReflectionUtils.getResolvedFieldType(current, field);
                                 } else {
+                                    /* Resolved at runtime via the inline cache */
                                     current = null;
                                 }
                             } else {
                                 getter.setAccessible(true);
+                                getters.add(getter);
                                 fields.add(null);
                                 current = ReflectionUtils.getResolvedMethodReturnType(current, getter);
                             }
@@ -91,6 +100,14 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
 
                     getterChain = getters.toArray(new Method[0]);
                     fieldChain = fields.toArray(new Field[0]);
+                    hopCaches = new InlineCache[getterChainLength];
+
+                    for (int i = getterChain.length; i < getterChainLength; i++) {
+                        hopCaches[i] = new InlineCache(properties[i], false, allowField);
+                    }
+
+                    leafGetterCache = new InlineCache(properties[getterChainLength], false, allowField);
+                    leafSetterCache = new InlineCache(properties[getterChainLength], true, allowField);
 
                     if (current != null) {
 						/* Retrieve the leaf methods for get and set access */
@@ -107,6 +124,10 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
                         if (leafSetter != null) {
                             leafSetter.setAccessible(true);
                         }
+
+                        compiledPath = CompiledPropertyPath.compile(
+                                getterChain, fieldChain, leafGetter,
+                                leafField, leafSetter);
                     }
 
                     dirty = false;
@@ -148,6 +169,24 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
     private Y getValue(X target, boolean nullSafe) {
         initialize();
 
+        final CompiledPropertyPath compiled = compiledPath;
+
+        if (compiled != null) {
+            checkTarget(target, nullSafe);
+
+            try {
+                if (nullSafe) {
+                    return (Y) compiled.getNullSafeValue(target);
+                }
+
+                return (Y) compiled.getValue(target);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
         try {
             Object leafObj = getLeafObject(target, nullSafe);
             if (nullSafe && leafObj == null) {
@@ -155,22 +194,10 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
             }
             if (leafField != null) {
                 return (Y) leafField.get(leafObj);
+            } else if (leafGetter == null && leafObj != null) {
+                return (Y) leafGetterCache.get(leafObj.getClass()).get(leafObj);
             } else {
-                final Method getter;
-                if (leafGetter == null && leafObj != null) {
-                    getter = ReflectionUtils.getGetter(leafObj.getClass(), explodedPropertyPath[explodedPropertyPath.length - 1]);
-                    if (getter != null) {
-                        getter.setAccessible(true);
-                    }
-                } else {
-                    getter = leafGetter;
-                }
-                if (getter == null && leafObj != null && allowField) {
-                    Field field = ReflectionUtils.getField(leafObj.getClass(), explodedPropertyPath[explodedPropertyPath.length - 1]);
-                    field.setAccessible(true);
-                    return (Y) field.get(leafObj);
-                }
-                return (Y) getter.invoke(leafObj);
+                return (Y) MethodInvoker.of(leafGetter).invoke(leafObj);
             }
         } catch (RuntimeException ex) {
             throw ex;
@@ -182,27 +209,29 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
     public final void setValue(X target, Y value) {
         initialize();
 
+        final CompiledPropertyPath compiled = compiledPath;
+
+        if (compiled != null && compiled.isSettable()) {
+            checkTarget(target, false);
+
+            try {
+                compiled.setValue(target, value);
+                return;
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
         try {
             Object leafObj = getLeafObject(target, false);
             if (leafField != null) {
                 leafField.set(leafObj, value);
+            } else if (leafSetter == null && leafObj != null) {
+                leafSetterCache.get(leafObj.getClass()).set(leafObj, value);
             } else {
-                final Method setter;
-                if (leafSetter == null && leafObj != null) {
-                    setter = ReflectionUtils.getSetter(leafObj.getClass(), explodedPropertyPath[explodedPropertyPath.length - 1]);
-                    if (setter != null) {
-                        setter.setAccessible(true);
-                    }
-                } else {
-                    setter = leafSetter;
-                }
-                if (setter == null && leafObj != null && allowField) {
-                    Field f = ReflectionUtils.getField(leafObj.getClass(), explodedPropertyPath[explodedPropertyPath.length - 1]);
-                    f.setAccessible(true);
-                    f.set(leafObj, value);
-                } else {
-                    setter.invoke(leafObj, value);
-                }
+                MethodInvoker.of(leafSetter).invoke(leafObj, value);
             }
         } catch (RuntimeException ex) {
             throw ex;
@@ -211,6 +240,67 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
         }
     }
 
+    /**
+     * Returns int, long or double if the leaf of this expression is resolved
+     * statically and its values can be retrieved without boxing via
+     * {@link #getIntValue(Object)}, {@link #getLongValue(Object)} or
+     * {@link #getDoubleValue(Object)}, otherwise Object. These getters may
+     * only be invoked after this method returned the respective type.
+     */
+    final Class<?> getColumnType() {
+        initialize();
+
+        final CompiledPropertyPath compiled = compiledPath;
+        return compiled == null ? Object.class : compiled.getColumnType();
+    }
+
+    final int getIntValue(X target) {
+        checkTarget(target, false);
+
+        try {
+            return compiledPath.getIntValue(target);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    final long getLongValue(X target) {
+        checkTarget(target, false);
+
+        try {
+            return compiledPath.getLongValue(target);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    final double getDoubleValue(X target) {
+        checkTarget(target, false);
+
+        try {
+            return compiledPath.getDoubleValue(target);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void checkTarget(X target, boolean nullSafe) {
+        if (target == null) {
+            if (!nullSafe) {
+                throw new NullPointerException("target");
+            }
+        } else if (!source.isInstance(target)) {
+            throw new IllegalArgumentException(
+                    "Given target is not instance of the source class");
+        }
+    }
+
     private Object getLeafObject(X target, boolean nullSafe)
             throws IllegalAccessException, InvocationTargetException {
         if (nullSafe && target == null) {
@@ -244,7 +334,7 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
                                                            .toString());
                     }
                 } else {
-                    current = getter.invoke(current);
+                    current = MethodInvoker.of(getter).invoke(current);
 
                     if (current == null) {
                         if (nullSafe) {
@@ -260,20 +350,15 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
         }
 
         final String[] properties = explodedPropertyPath;
+        final InlineCache[] caches = hopCaches;
 
         for (; i < properties.length - 1; i++) {
-            Method getter = ReflectionUtils.getGetter(current.getClass(), properties[i]);
-            if (getter == null) {
-                if (allowField) {
-                    Field field = ReflectionUtils.getField(current.getClass(), properties[i]);
-                    field.setAccessible(true);
-                    current = field.get(current);
-                } else {
-                    current = null;
-                }
+            final Accessor accessor = caches[i].get(current.getClass());
+
+            if (accessor.isResolved()) {
+                current = accessor.get(current);
             } else {
-                getter.setAccessible(true);
-                current = getter.invoke(current);
+                current = null;
             }
 
             if (current == null) {
@@ -288,4 +373,128 @@ public class PropertyPathExpression<X, Y> implements ValueAccessor<X, Y> {
 
         return current;
     }
+
+    /**
+     * A polymorphic inline cache for a property that can only be resolved at
+     * runtime. The accessors for the first few runtime classes are kept in a
+     * small array that is scanned linearly, the accessors for further classes
+     * are attached to the classes via a {@link ClassValue}, so that they don't
+     * keep the class loaders of the runtime classes alive.
+     */
+    private static final class InlineCache {
+
+        private static final int MAX_ENTRIES = 4;
+        private static final Accessor[] EMPTY = new Accessor[0];
+
+        private final String property;
+        private final boolean setter;
+        private final boolean allowField;
+        private volatile Accessor[] entries = EMPTY;
+        private final ClassValue<Accessor> megamorphic = new ClassValue<Accessor>() {
+
+            @Override
+            protected Accessor computeValue(Class<?> type) {
+                return resolve(type);
+            }
+        };
+
+        InlineCache(String property, boolean setter, boolean allowField) {
+            this.property = property;
+            this.setter = setter;
+            this.allowField = allowField;
+        }
+
+        Accessor get(Class<?> type) {
+            final Accessor[] accessors = entries;
+
+            for (int i = 0; i < accessors.length; i++) {
+                if (accessors[i].type == type) {
+                    return accessors[i];
+                }
+            }
+
+            if (accessors.length == MAX_ENTRIES) {
+                return megamorphic.get(type);
+            }
+
+            return add(type);
+        }
+
+        private synchronized Accessor add(Class<?> type) {
+            final Accessor[] accessors = entries;
+
+            for (int i = 0; i < accessors.length; i++) {
+                if (accessors[i].type == type) {
+                    return accessors[i];
+                }
+            }
+
+            if (accessors.length == MAX_ENTRIES) {
+                return megamorphic.get(type);
+            }
+
+            final Accessor accessor = resolve(type);
+            final Accessor[] newAccessors = Arrays.copyOf(accessors,
+                    accessors.length + 1);
+            newAccessors[accessors.length] = accessor;
+            entries = newAccessors;
+            return accessor;
+        }
+
+        private Accessor resolve(Class<?> type) {
+            final Method method = setter ? ReflectionUtils.getSetter(type,
+                    property) : ReflectionUtils.getGetter(type, property);
+
+            if (method != null) {
+                method.setAccessible(true);
+                return new Accessor(type, MethodInvoker.of(method), null);
+            } else if (allowField) {
+                final Field field = ReflectionUtils.getField(type, property);
+                field.setAccessible(true);
+                return new Accessor(type, null, field);
+            }
+
+            return new Accessor(type, null, null);
+        }
+    }
+
+    private static final class Accessor {
+
+        private final Class<?> type;
+        private final MethodInvoker invoker;
+        private final Field field;
+
+        Accessor(Class<?> type, MethodInvoker invoker, Field field) {
+            this.type = type;
+            this.invoker = invoker;
+            this.field = field;
+        }
+
+        boolean isResolved() {
+            return invoker != null || field != null;
+        }
+
+        Object get(Object target) throws IllegalAccessException,
+                InvocationTargetException {
+            if (invoker != null) {
+                return invoker.invoke(target);
+            } else if (field != null) {
+                return field.get(target);
+            }
+
+            throw new NullPointerException("No accessor for " + type.getName());
+        }
+
+        void set(Object target, Object value) throws IllegalAccessException,
+                InvocationTargetException {
+            if (invoker != null) {
+                invoker.invoke(target, value);
+            } else if (field != null) {
+                field.set(target, value);
+            } else {
+                throw new NullPointerException("No accessor for "
+                        + type.getName());
+            }
+        }
+    }
 }
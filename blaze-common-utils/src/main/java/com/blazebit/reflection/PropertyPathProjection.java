@@ -0,0 +1,231 @@
+/*
+ * Copyright 2011 Blazebit
+ */
+package com.blazebit.reflection;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Retrieves the values of multiple property paths of a source object at once.
+ * The paths are compiled into a prefix tree so that the getter of a property
+ * that is shared by multiple paths, like customer.address in
+ * customer.address.street and customer.address.city, is only invoked once per
+ * source object. The values are retrieved null safe, so if a property on a
+ * path is null, the values of all paths that go through that property are
+ * null.
+ *
+ * @since 0.1.22
+ */
+public final class PropertyPathProjection<X> {
+
+    private final Class<X> source;
+    private final List<String> propertyPaths;
+    private final Node[] roots;
+
+    public PropertyPathProjection(Class<X> source, List<String> propertyPaths) {
+        this(source, propertyPaths, false);
+    }
+
+    public PropertyPathProjection(Class<X> source, List<String> propertyPaths, boolean allowFieldAccess) {
+        if (source == null) {
+            throw new NullPointerException("source");
+        }
+        if (propertyPaths == null) {
+            throw new NullPointerException("propertyPaths");
+        }
+
+        final Builder root = new Builder(source);
+
+        for (int i = 0; i < propertyPaths.size(); i++) {
+            final String propertyPath = propertyPaths.get(i);
+
+            if (propertyPath == null) {
+                throw new NullPointerException("propertyPath");
+            }
+
+            Builder current = root;
+
+            for (String property : propertyPath.split("\\.", -1)) {
+                if (property.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid property path: " + propertyPath);
+                }
+
+                current = current.getChild(property, allowFieldAccess);
+            }
+
+            current.indexes.add(i);
+        }
+
+        this.source = source;
+        this.propertyPaths = Collections.unmodifiableList(new ArrayList<String>(propertyPaths));
+        this.roots = root.buildChildren(allowFieldAccess);
+    }
+
+    public Class<X> getSource() {
+        return source;
+    }
+
+    public List<String> getPropertyPaths() {
+        return propertyPaths;
+    }
+
+    /**
+     * Returns the values of the property paths for the given target in the
+     * order of the property paths.
+     *
+     * @param target The object from which to retrieve the values
+     * @return The values of the property paths
+     */
+    public Object[] getValues(X target) {
+        final Object[] values = new Object[propertyPaths.size()];
+        fill(roots, checkTarget(target), values);
+        return values;
+    }
+
+    /**
+     * Stores the values of the property paths for the given target into the
+     * given array in the order of the property paths, so that the array can
+     * be reused for multiple targets.
+     *
+     * @param target The object from which to retrieve the values
+     * @param values The array into which to store the values
+     * @throws IllegalArgumentException If the array is smaller than the
+     *                                  number of property paths
+     */
+    public void getValues(X target, Object[] values) {
+        if (values.length < propertyPaths.size()) {
+            throw new IllegalArgumentException("The values array has length " + values.length
+                    + " but there are " + propertyPaths.size() + " property paths");
+        }
+
+        fill(roots, checkTarget(target), values);
+    }
+
+    private Object checkTarget(X target) {
+        if (target != null && !source.isInstance(target)) {
+            throw new IllegalArgumentException(
+                    "Given target is not instance of the source class");
+        }
+
+        return target;
+    }
+
+    @Override
+    public String toString() {
+        return "PropertyPathProjection[source=" + source.getName() + ", propertyPaths="
+                + propertyPaths + "]";
+    }
+
+    private static void fill(Node[] nodes, Object parent, Object[] values) {
+        for (int i = 0; i < nodes.length; i++) {
+            final Node node = nodes[i];
+            final Object value = parent == null ? null : node.expression.getNullSafeValue(parent);
+            final int[] indexes = node.indexes;
+
+            for (int j = 0; j < indexes.length; j++) {
+                values[indexes[j]] = value;
+            }
+
+            if (node.children.length > 0) {
+                fill(node.children, value, values);
+            }
+        }
+    }
+
+    private static final class Node {
+
+        /* Retrieves the value of this node from the value of the parent */
+        private final PropertyPathExpression<Object, Object> expression;
+        private final Node[] children;
+        /* The indexes of the property paths that end at this node */
+        private final int[] indexes;
+
+        Node(PropertyPathExpression<Object, Object> expression, Node[] children, int[] indexes) {
+            this.expression = expression;
+            this.children = children;
+            this.indexes = indexes;
+        }
+    }
+
+    private static final class Builder {
+
+        /* The statically known type of the value of this node */
+        private final Class<?> type;
+        private final String property;
+        private final Map<String, Builder> children = new LinkedHashMap<String, Builder>();
+        private final List<Integer> indexes = new ArrayList<Integer>();
+
+        Builder(Class<?> type) {
+            this(type, null);
+        }
+
+        Builder(Class<?> type, String property) {
+            this.type = type;
+            this.property = property;
+        }
+
+        Builder getChild(String property, boolean allowFieldAccess) {
+            Builder child = children.get(property);
+
+            if (child == null) {
+                child = new Builder(resolveType(property, allowFieldAccess), property);
+                children.put(property, child);
+            }
+
+            return child;
+        }
+
+        /**
+         * Returns the type of the given property or Object if it can only be
+         * determined at runtime.
+         */
+        private Class<?> resolveType(String property, boolean allowFieldAccess) {
+            Class<?> resolvedType = null;
+            final Method getter = ReflectionUtils.getGetter(type, property);
+
+            if (getter != null) {
+                resolvedType = ReflectionUtils.getResolvedMethodReturnType(type, getter);
+            } else if (allowFieldAccess) {
+                final Field field = ReflectionUtils.getField(type, property);
+
+                if (field != null) {
+                    resolvedType = ReflectionUtils.getResolvedFieldType(type, field);
+                }
+            }
+
+            if (resolvedType == null) {
+                return Object.class;
+            } else if (resolvedType.isPrimitive()) {
+                return ReflectionUtils.getObjectClassOfPrimitve(resolvedType);
+            }
+
+            return resolvedType;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node[] buildChildren(boolean allowFieldAccess) {
+            final Node[] nodes = new Node[children.size()];
+            int i = 0;
+
+            for (Builder child : children.values()) {
+                final int[] childIndexes = new int[child.indexes.size()];
+
+                for (int j = 0; j < childIndexes.length; j++) {
+                    childIndexes[j] = child.indexes.get(j);
+                }
+
+                nodes[i++] = new Node(new PropertyPathExpression<Object, Object>(
+                        (Class<Object>) type, child.property, allowFieldAccess),
+                        child.buildChildren(allowFieldAccess), childIndexes);
+            }
+
+            return nodes;
+        }
+    }
+}
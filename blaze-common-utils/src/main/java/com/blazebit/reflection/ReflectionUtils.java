@@ -343,6 +343,20 @@ public final class ReflectionUtils {
         if (classThatContainsTypeVariable == null || concreteClass == classThatContainsTypeVariable) {
             return resolve(concreteClass, typeVariable.getBounds()[0]);
         }
+
+        // The bindings only depend on the hierarchy, so they are computed once per concrete class
+        ClassMetadata metadata = ClassMetadata.of(concreteClass);
+        Type resolvedType = metadata.getResolvedType(typeVariable);
+
+        if (resolvedType == null) {
+            resolvedType = resolveTypeVariableType(concreteClass, typeVariable, classThatContainsTypeVariable);
+            metadata.putResolvedType(typeVariable, resolvedType);
+        }
+
+        return resolvedType;
+    }
+
+    private static Type resolveTypeVariableType(Class<?> concreteClass, TypeVariable<?> typeVariable, Class<?> classThatContainsTypeVariable) {
         if (!isSubtype(concreteClass, classThatContainsTypeVariable)) {
             throw new IllegalArgumentException(
                     "The given concrete class is not a subtype of the class that contain the type variable!");
@@ -462,8 +476,21 @@ public final class ReflectionUtils {
      *                                  class in which the type variable has been declared.
      */
     public static Class<?> resolveTypeVariable(Class<?> concreteClass, TypeVariable<?> typeVariable) {
-        Type resolvedType = resolveTypeVariableType(concreteClass, typeVariable);
-        return resolveType(concreteClass, resolvedType);
+        // Type variables of methods are not cached since they may be declared outside of the hierarchy
+        if (getClassThatContainsTypeVariable(typeVariable) == null) {
+            return resolveType(concreteClass, resolveTypeVariableType(concreteClass, typeVariable));
+        }
+
+        ClassMetadata metadata = ClassMetadata.of(concreteClass);
+        Class<?> resolvedClass = metadata.getResolvedClass(typeVariable);
+
+        if (resolvedClass == null) {
+            Type resolvedType = resolveTypeVariableType(concreteClass, typeVariable);
+            resolvedClass = resolveType(concreteClass, resolvedType);
+            metadata.putResolvedClass(typeVariable, resolvedClass);
+        }
+
+        return resolvedClass;
     }
 
     /**
@@ -631,20 +658,7 @@ public final class ReflectionUtils {
      * found, otherwise null
      */
     public static Field getField(Class<?> clazz, String fieldName) {
-        final String internedName = fieldName.intern();
-        return traverseHierarchy(clazz, new TraverseTask<Field>() {
-
-            @Override
-            public Field run(Class<?> clazz) {
-                Field[] fields = clazz.getDeclaredFields();
-                for (int i = 0; i < fields.length; i++) {
-                    if (fields[i].getName() == internedName) {
-                        return fields[i];
-                    }
-                }
-                return null;
-            }
-        });
+        return copy(ClassMetadata.of(clazz).getField(fieldName));
     }
 
     /**
@@ -845,18 +859,16 @@ public final class ReflectionUtils {
      * found, otherwise null
      */
     public static Method getMethod(Class<?> clazz, final String methodName, final Class<?>... parameterTypes) {
-        final String internedName = methodName.intern();
-        return traverseHierarchy(clazz, new TraverseTask<Method>() {
+        return copy(traverseHierarchy(clazz, new TraverseTask<Method>() {
 
             @Override
             public Method run(Class<?> clazz) {
-                Method[] methods = clazz.getDeclaredMethods();
+                Method[] methods = ClassMetadata.of(clazz).getDeclaredMethods(methodName);
                 Method res = null;
 
                 for (int i = 0; i < methods.length; i++) {
                     Method m = methods[i];
-                    if (m.getName() == internedName
-                            && arrayContentsEq(parameterTypes, m.getParameterTypes())
+                    if (arrayContentsEq(parameterTypes, m.getParameterTypes())
                             && (res == null
                             || res.getReturnType().isAssignableFrom(m.getReturnType()))) {
                         res = m;
@@ -865,7 +877,20 @@ public final class ReflectionUtils {
 
                 return res;
             }
-        });
+        }));
+    }
+
+    /*
+     * The metadata holds shared member objects, every caller gets its own
+     * copy so that changing the accessible flag doesn't affect other callers
+     */
+
+    private static Method copy(Method method) {
+        return method == null ? null : ClassMetadata.copy(method);
+    }
+
+    private static Field copy(Field field) {
+        return field == null ? null : ClassMetadata.copy(field);
     }
 
     private static interface TraverseTask<T> {
@@ -873,26 +898,12 @@ public final class ReflectionUtils {
     }
 
     private static <T> T traverseHierarchy(Class<?> clazz, TraverseTask<T> task) {
-        Queue<Class<?>> classQueue = new LinkedList<Class<?>>();
-        Class<?> traverseClass;
-        classQueue.add(clazz);
-
-        while (!classQueue.isEmpty()) {
-            traverseClass = classQueue.remove();
-
+        for (Class<?> traverseClass : ClassMetadata.of(clazz).getHierarchy()) {
             T result = task.run(traverseClass);
 
             if (result != null) {
                 return result;
             }
-
-            if (traverseClass.getSuperclass() != null) {
-                classQueue.add(traverseClass.getSuperclass());
-            }
-
-            for (Class<?> interfaceClass : traverseClass.getInterfaces()) {
-                classQueue.add(interfaceClass);
-            }
         }
 
         return null;
@@ -940,22 +951,14 @@ public final class ReflectionUtils {
      * annotation type if the method can be found, otherwise null
      */
     public static Method getMethod(Class<?> clazz, final Class<? extends Annotation> annotation) {
-        return traverseHierarchy(clazz, new TraverseTask<Method>() {
+        return copy(traverseHierarchy(clazz, new TraverseTask<Method>() {
 
             @Override
             public Method run(Class<?> clazz) {
-                Method[] methods = clazz.getDeclaredMethods();
-
-                for (int i = 0; i < methods.length; i++) {
-                    Method m = methods[i];
-                    if (m.getAnnotation(annotation) != null) {
-                        return m;
-                    }
-                }
-
-                return null;
+                Method[] methods = ClassMetadata.of(clazz).getAnnotatedMethods(annotation);
+                return methods.length == 0 ? null : methods[0];
             }
-        });
+        }));
     }
 
     /**
@@ -980,13 +983,8 @@ public final class ReflectionUtils {
 
             @Override
             public Method run(Class<?> clazz) {
-                Method[] methodArray = clazz.getDeclaredMethods();
-
-                for (int i = 0; i < methodArray.length; i++) {
-                    Method m = methodArray[i];
-                    if (m.getAnnotation(annotation) != null) {
-                        methods.add(m);
-                    }
+                for (Method m : ClassMetadata.of(clazz).getAnnotatedMethods(annotation)) {
+                    methods.add(copy(m));
                 }
 
                 return null;
@@ -1014,40 +1012,10 @@ public final class ReflectionUtils {
      * otherwise null
      */
     public static Method getGetter(Class<?> clazz, String fieldName) {
-        StringBuilder sb = new StringBuilder("get").append(
-                Character.toUpperCase(fieldName.charAt(0))).append(fieldName,
-                1, fieldName.length());
-        final String internedGetName = sb.toString().intern();
-        final String internedIsName = sb.replace(0, 3, "is").toString().intern();
-        return traverseHierarchy(clazz, new TraverseTask<Method>() {
-
-            @Override
-            public Method run(Class<?> clazz) {
-                Method[] methods = clazz.getDeclaredMethods();
-                Method res = null;
-
-                for (int i = 0; i < methods.length; i++) {
-                    Method m = methods[i];
-                    if (isGetterSignature(m)) {
-                        if (m.getName() == internedGetName
-                                && (res == null
-                                || res.getReturnType().isAssignableFrom(m.getReturnType()))) {
-                            res = m;
-                        }
-                        if (m.getName() == internedIsName
-                                && (res == null
-                                || res.getReturnType().isAssignableFrom(m.getReturnType()))) {
-                            res = m;
-                        }
-                    }
-                }
-
-                return res;
-            }
-        });
+        return copy(ClassMetadata.of(clazz).getGetter(fieldName));
     }
 
-    private static boolean isGetterSignature(Method m) {
+    static boolean isGetterSignature(Method m) {
         return m != null && !void.class.equals(m.getReturnType())
                 && m.getParameterTypes().length == 0;
     }
@@ -1072,34 +1040,10 @@ public final class ReflectionUtils {
      * otherwise null
      */
     public static Method getSetter(Class<?> clazz, String fieldName) {
-        StringBuilder sb = new StringBuilder("set").append(
-                Character.toUpperCase(fieldName.charAt(0))).append(fieldName,
-                1, fieldName.length());
-        final String internedName = sb.toString().intern();
-        return traverseHierarchy(clazz, new TraverseTask<Method>() {
-
-            @Override
-            public Method run(Class<?> clazz) {
-                Method[] methods = clazz.getDeclaredMethods();
-                Method res = null;
-
-                for (int i = 0; i < methods.length; i++) {
-                    Method m = methods[i];
-                    if (isSetterSignature(m)) {
-                        if (m.getName() == internedName
-                                && (res == null
-                                || res.getParameterTypes()[0].isAssignableFrom(m.getParameterTypes()[0]))) {
-                            res = m;
-                        }
-                    }
-                }
-
-                return res;
-            }
-        });
+        return copy(ClassMetadata.of(clazz).getSetter(fieldName));
     }
 
-    private static boolean isSetterSignature(Method m) {
+    static boolean isSetterSignature(Method m) {
         return m != null && m.getReturnType().equals(void.class)
                 && m.getParameterTypes().length == 1;
     }
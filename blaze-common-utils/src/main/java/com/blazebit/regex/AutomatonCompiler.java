@@ -0,0 +1,743 @@
+package com.blazebit.regex;
+
+import com.blazebit.regex.node.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the node tree of a {@link Pattern} into a minimal
+ * {@link DeterministicAutomaton}. The tree is first translated into a
+ * nondeterministic automaton with epsilon transitions via Thompson's
+ * construction, then determinized via subset construction over the
+ * character classes of the pattern and finally minimized with Hopcroft's
+ * partition refinement.
+ *
+ * @since 0.1.22
+ */
+final class AutomatonCompiler {
+
+    /* Transitions of the nondeterministic automaton */
+    private int stateCount;
+    private int[][] epsilons = new int[16][];
+    private int[] epsilonCounts = new int[16];
+    /* Character transitions as low, high and target triples */
+    private int[][] ranges = new int[16][];
+    private int[] rangeCounts = new int[16];
+    /* Marks the states visited by the current closure computation */
+    private int[] stamps;
+    private int stamp;
+
+    private AutomatonCompiler() {
+    }
+
+    /**
+     * Compiles an automaton that accepts exactly the strings matched by the
+     * given node.
+     */
+    static DeterministicAutomaton compile(final Node node) {
+        final AutomatonCompiler compiler = new AutomatonCompiler();
+        final int start = compiler.newState();
+        final int end = compiler.compileSequence(node, start);
+        return compiler.determinize(start, end);
+    }
+
+    private int newState() {
+        if (stateCount == epsilons.length) {
+            final int capacity = stateCount << 1;
+            epsilons = Arrays.copyOf(epsilons, capacity);
+            epsilonCounts = Arrays.copyOf(epsilonCounts, capacity);
+            ranges = Arrays.copyOf(ranges, capacity);
+            rangeCounts = Arrays.copyOf(rangeCounts, capacity);
+        }
+
+        epsilons[stateCount] = new int[2];
+        ranges[stateCount] = new int[3];
+        return stateCount++;
+    }
+
+    private void epsilon(final int from, final int to) {
+        if (epsilonCounts[from] == epsilons[from].length) {
+            epsilons[from] = Arrays.copyOf(epsilons[from],
+                    epsilonCounts[from] << 1);
+        }
+
+        epsilons[from][epsilonCounts[from]++] = to;
+    }
+
+    private void range(final int from, final int low, final int high,
+                       final int to) {
+        if (rangeCounts[from] + 3 > ranges[from].length) {
+            ranges[from] = Arrays.copyOf(ranges[from],
+                    ranges[from].length << 1);
+        }
+
+        final int[] stateRanges = ranges[from];
+        stateRanges[rangeCounts[from]++] = low;
+        stateRanges[rangeCounts[from]++] = high;
+        stateRanges[rangeCounts[from]++] = to;
+    }
+
+    /* Thompson's construction */
+
+    /**
+     * Compiles the given node and all its successors starting at the given
+     * state and returns the state that is reached after them.
+     */
+    private int compileSequence(Node node, int state) {
+        while (node != null) {
+            state = compileNode(node, state);
+            node = node.getNext();
+        }
+
+        return state;
+    }
+
+    private int compileNode(final Node node, final int from) {
+        final int[] characterClass = characterClass(node);
+
+        if (characterClass != null) {
+            final int to = newState();
+
+            for (int i = 0; i < characterClass.length; i += 2) {
+                range(from, characterClass[i], characterClass[i + 1], to);
+            }
+
+            return to;
+        } else if (node instanceof EmptyNode) {
+            return from;
+        } else if (node instanceof OrNode) {
+            final List<Node> nodes = ((OrNode) node).getNodes();
+            final int to = newState();
+
+            for (int i = 0; i < nodes.size(); i++) {
+                final int start = newState();
+                epsilon(from, start);
+                epsilon(compileSequence(nodes.get(i), start), to);
+            }
+
+            return to;
+        } else if (node instanceof OptionalNode) {
+            final int to = newState();
+            epsilon(from, to);
+            epsilon(compileSequence(((OptionalNode) node).getDecorated(), from),
+                    to);
+            return to;
+        } else if (node instanceof RepeatNode) {
+            return compileRepeat((RepeatNode) node, from);
+        } else if (node instanceof ComplementNode) {
+            throw new IllegalArgumentException(
+                    "Only character classes can be complemented");
+        }
+
+        throw new IllegalArgumentException("Unsupported node: "
+                + node.getClass().getName());
+    }
+
+    private int compileRepeat(final RepeatNode node, final int from) {
+        final Node decorated = node.getDecorated();
+        final int min = node.getMin();
+        final int max = node.getMax();
+
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Invalid repetition {" + min
+                    + "," + max + "}");
+        }
+
+        int state = from;
+
+        for (int i = 0; i < min; i++) {
+            state = compileSequence(decorated, state);
+        }
+
+        if (max == Integer.MAX_VALUE) {
+            final int loop = newState();
+            epsilon(state, loop);
+            epsilon(compileSequence(decorated, loop), loop);
+            return loop;
+        }
+
+        final int to = newState();
+        epsilon(state, to);
+
+        for (int i = min; i < max; i++) {
+            state = compileSequence(decorated, state);
+            epsilon(state, to);
+        }
+
+        return to;
+    }
+
+    /**
+     * Returns the sorted and disjoint character ranges as low and high pairs
+     * if the given node matches exactly one character, otherwise null.
+     */
+    private static int[] characterClass(final Node node) {
+        if (node instanceof CharNode) {
+            final char c = ((CharNode) node).getCharacter();
+            return new int[]{c, c};
+        } else if (node instanceof CharRangeNode) {
+            final CharRangeNode range = (CharRangeNode) node;
+
+            if (range.getStart() > range.getEnd()) {
+                throw new IllegalArgumentException("Invalid character range "
+                        + range.getStart() + "-" + range.getEnd());
+            }
+
+            return new int[]{range.getStart(), range.getEnd()};
+        } else if (node instanceof CharClassNode) {
+            final CharacterClass characterClass = ((CharClassNode) node)
+                    .getCharacterClass();
+            final int[] ranges = new int[characterClass.getRangeCount() * 2];
+
+            for (int i = 0; i < ranges.length; i += 2) {
+                ranges[i] = characterClass.getStart(i / 2);
+                ranges[i + 1] = characterClass.getEnd(i / 2);
+            }
+
+            return ranges;
+        } else if (node instanceof DotNode) {
+            return new int[]{Character.MIN_VALUE, Character.MAX_VALUE};
+        } else if (node instanceof ComplementNode) {
+            final Node decorated = ((ComplementNode) node).getDecorated();
+            final int[] characterClass = decorated.getNext() == null ? characterClass(decorated)
+                    : null;
+
+            if (characterClass == null) {
+                throw new IllegalArgumentException(
+                        "Only character classes can be complemented");
+            }
+
+            return complement(characterClass);
+        } else if (node instanceof OrNode) {
+            final List<Node> nodes = ((OrNode) node).getNodes();
+            int[] union = new int[0];
+
+            for (int i = 0; i < nodes.size(); i++) {
+                final Node alternative = nodes.get(i);
+                final int[] characterClass = alternative.getNext() == null ? characterClass(alternative)
+                        : null;
+
+                if (characterClass == null) {
+                    return null;
+                }
+
+                union = union(union, characterClass);
+            }
+
+            return union.length == 0 ? null : union;
+        }
+
+        return null;
+    }
+
+    private static int[] union(final int[] a, final int[] b) {
+        final int[] all = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        final long[] sorted = new long[all.length / 2];
+
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = ((long) all[2 * i] << 32) | all[2 * i + 1];
+        }
+
+        Arrays.sort(sorted);
+        final int[] result = new int[all.length];
+        int size = 0;
+
+        for (int i = 0; i < sorted.length; i++) {
+            final int low = (int) (sorted[i] >>> 32);
+            final int high = (int) sorted[i];
+
+            if (size > 0 && low <= result[size - 1] + 1) {
+                result[size - 1] = Math.max(result[size - 1], high);
+            } else {
+                result[size++] = low;
+                result[size++] = high;
+            }
+        }
+
+        return Arrays.copyOf(result, size);
+    }
+
+    private static int[] complement(final int[] characterClass) {
+        final int[] result = new int[characterClass.length + 2];
+        int size = 0;
+        int next = Character.MIN_VALUE;
+
+        for (int i = 0; i < characterClass.length; i += 2) {
+            if (characterClass[i] > next) {
+                result[size++] = next;
+                result[size++] = characterClass[i] - 1;
+            }
+
+            next = characterClass[i + 1] + 1;
+        }
+
+        if (next <= Character.MAX_VALUE) {
+            result[size++] = next;
+            result[size++] = Character.MAX_VALUE;
+        }
+
+        return Arrays.copyOf(result, size);
+    }
+
+    /* Subset construction */
+
+    /**
+     * A set of states of the nondeterministic automaton.
+     */
+    private static final class StateSet {
+
+        private final int[] states;
+        private final int hashCode;
+
+        public StateSet(final int[] states) {
+            this.states = states;
+            this.hashCode = Arrays.hashCode(states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof StateSet
+                    && Arrays.equals(states, ((StateSet) obj).states);
+        }
+    }
+
+    private DeterministicAutomaton determinize(final int start,
+                                               final int accept) {
+        final char[] points = points();
+        final int classCount = points.length;
+        /* Character classes covered by the ranges as first and last pairs */
+        final int[][] rangeClasses = new int[stateCount][];
+
+        for (int state = 0; state < stateCount; state++) {
+            final int[] stateRanges = ranges[state];
+            final int[] classes = new int[rangeCounts[state] / 3 * 2];
+
+            for (int i = 0, j = 0; i < rangeCounts[state]; i += 3) {
+                classes[j++] = Arrays.binarySearch(points,
+                        (char) stateRanges[i]);
+                classes[j++] = classOf(points, (char) stateRanges[i + 1]);
+            }
+
+            rangeClasses[state] = classes;
+        }
+
+        final List<int[]> sets = new ArrayList<int[]>();
+        final List<int[]> rows = new ArrayList<int[]>();
+        final Map<StateSet, Integer> ids = new HashMap<StateSet, Integer>();
+        final int[][] buckets = new int[classCount][];
+        final int[] bucketSizes = new int[classCount];
+        final int[] startSet;
+
+        stamps = new int[stateCount];
+        startSet = closure(new int[]{start}, 1);
+
+        sets.add(startSet);
+        ids.put(new StateSet(startSet), 0);
+
+        for (int id = 0; id < sets.size(); id++) {
+            final int[] set = sets.get(id);
+            final int[] row = new int[classCount];
+            Arrays.fill(bucketSizes, 0);
+
+            for (int i = 0; i < set.length; i++) {
+                final int state = set[i];
+                final int[] classes = rangeClasses[state];
+
+                for (int j = 0; j < classes.length; j += 2) {
+                    final int target = ranges[state][j / 2 * 3 + 2];
+
+                    for (int c = classes[j]; c <= classes[j + 1]; c++) {
+                        if (buckets[c] == null) {
+                            buckets[c] = new int[4];
+                        } else if (bucketSizes[c] == buckets[c].length) {
+                            buckets[c] = Arrays.copyOf(buckets[c],
+                                    bucketSizes[c] << 1);
+                        }
+
+                        buckets[c][bucketSizes[c]++] = target;
+                    }
+                }
+            }
+
+            for (int c = 0; c < classCount; c++) {
+                if (bucketSizes[c] == 0) {
+                    row[c] = -1;
+                } else if (c > 0 && bucketSizes[c] == bucketSizes[c - 1]
+                        && equal(buckets[c], buckets[c - 1], bucketSizes[c])) {
+                    /* Neighbouring classes often have the same targets */
+                    row[c] = row[c - 1];
+                } else {
+                    final int[] target = closure(buckets[c], bucketSizes[c]);
+                    final StateSet key = new StateSet(target);
+                    Integer targetId = ids.get(key);
+
+                    if (targetId == null) {
+                        targetId = sets.size();
+                        sets.add(target);
+                        ids.put(key, targetId);
+                    }
+
+                    row[c] = targetId;
+                }
+            }
+
+            rows.add(row);
+        }
+
+        final boolean[] accepting = new boolean[sets.size()];
+
+        for (int i = 0; i < accepting.length; i++) {
+            accepting[i] = Arrays.binarySearch(sets.get(i), accept) >= 0;
+        }
+
+        return minimize(points, rows, accepting);
+    }
+
+    /**
+     * Returns the first characters of the classes of characters that are
+     * not distinguished by any transition.
+     */
+    private char[] points() {
+        final List<Integer> bounds = new ArrayList<Integer>();
+        bounds.add((int) Character.MIN_VALUE);
+
+        for (int state = 0; state < stateCount; state++) {
+            for (int i = 0; i < rangeCounts[state]; i += 3) {
+                bounds.add(ranges[state][i]);
+
+                if (ranges[state][i + 1] < Character.MAX_VALUE) {
+                    bounds.add(ranges[state][i + 1] + 1);
+                }
+            }
+        }
+
+        final int[] sorted = new int[bounds.size()];
+
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = bounds.get(i);
+        }
+
+        Arrays.sort(sorted);
+        final char[] points = new char[sorted.length];
+        int size = 0;
+
+        for (int i = 0; i < sorted.length; i++) {
+            if (size == 0 || points[size - 1] != sorted[i]) {
+                points[size++] = (char) sorted[i];
+            }
+        }
+
+        return Arrays.copyOf(points, size);
+    }
+
+    private static int classOf(final char[] points, final char c) {
+        final int index = Arrays.binarySearch(points, c);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private static boolean equal(final int[] a, final int[] b, final int size) {
+        for (int i = 0; i < size; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the sorted epsilon closure of the given states.
+     */
+    private int[] closure(final int[] states, final int size) {
+        final int stamp = ++this.stamp;
+        int[] stack = new int[Math.max(size, 8)];
+        int[] result = new int[Math.max(size, 8)];
+        int stackSize = 0;
+        int resultSize = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (stamps[states[i]] != stamp) {
+                stamps[states[i]] = stamp;
+                stack[stackSize++] = states[i];
+            }
+        }
+
+        while (stackSize > 0) {
+            final int state = stack[--stackSize];
+
+            if (resultSize == result.length) {
+                result = Arrays.copyOf(result, resultSize << 1);
+            }
+
+            result[resultSize++] = state;
+
+            for (int i = 0; i < epsilonCounts[state]; i++) {
+                final int target = epsilons[state][i];
+
+                if (stamps[target] != stamp) {
+                    stamps[target] = stamp;
+
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, stackSize << 1);
+                    }
+
+                    stack[stackSize++] = target;
+                }
+            }
+        }
+
+        result = Arrays.copyOf(result, resultSize);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /* Hopcroft's minimization */
+
+    private static DeterministicAutomaton minimize(final char[] points,
+                                                   final List<int[]> rows, final boolean[] accepting) {
+        final int k = points.length;
+        /* All states plus an explicit dead state to make the automaton total */
+        final int n = rows.size() + 1;
+        final int dead = n - 1;
+        final int[] delta = new int[n * k];
+
+        for (int s = 0; s < n; s++) {
+            for (int c = 0; c < k; c++) {
+                final int target = s == dead ? -1 : rows.get(s)[c];
+                delta[s * k + c] = target < 0 ? dead : target;
+            }
+        }
+
+        /* Predecessors grouped by class and target */
+        final int[] inverseStart = new int[k * n + 1];
+        final int[] inverse = new int[n * k];
+
+        for (int s = 0; s < n; s++) {
+            for (int c = 0; c < k; c++) {
+                inverseStart[c * n + delta[s * k + c] + 1]++;
+            }
+        }
+        for (int i = 1; i < inverseStart.length; i++) {
+            inverseStart[i] += inverseStart[i - 1];
+        }
+
+        final int[] fill = Arrays.copyOf(inverseStart, inverseStart.length);
+
+        for (int s = 0; s < n; s++) {
+            for (int c = 0; c < k; c++) {
+                inverse[fill[c * n + delta[s * k + c]]++] = s;
+            }
+        }
+
+        /* Blocks are contiguous ranges of the elements array */
+        final int[] elements = new int[n];
+        final int[] location = new int[n];
+        final int[] blockOf = new int[n];
+        final int[] first = new int[n];
+        final int[] end = new int[n];
+        final int[] marked = new int[n];
+        int blockCount = 0;
+        int size = 0;
+
+        for (int pass = 0; pass < 2; pass++) {
+            final int blockStart = size;
+
+            for (int s = 0; s < n; s++) {
+                if ((s != dead && accepting[s]) == (pass == 0)) {
+                    elements[size] = s;
+                    location[s] = size++;
+                    blockOf[s] = blockCount;
+                }
+            }
+
+            if (size > blockStart) {
+                first[blockCount] = blockStart;
+                end[blockCount++] = size;
+            }
+        }
+
+        final boolean[] inWork = new boolean[n * k];
+        final int[] work = new int[n * k];
+        int workSize = 0;
+
+        for (int b = 0; b < blockCount; b++) {
+            for (int c = 0; c < k; c++) {
+                inWork[b * k + c] = true;
+                work[workSize++] = b * k + c;
+            }
+        }
+
+        final int[] splitter = new int[n];
+        final int[] touched = new int[n];
+        final boolean[] isMarked = new boolean[n];
+
+        while (workSize > 0) {
+            final int pair = work[--workSize];
+            final int b = pair / k;
+            final int c = pair % k;
+            final int splitterSize = end[b] - first[b];
+            int touchedCount = 0;
+            inWork[pair] = false;
+            System.arraycopy(elements, first[b], splitter, 0, splitterSize);
+
+            for (int i = 0; i < splitterSize; i++) {
+                final int t = splitter[i];
+
+                for (int j = inverseStart[c * n + t]; j < inverseStart[c * n + t + 1]; j++) {
+                    final int s = inverse[j];
+
+                    if (!isMarked[s]) {
+                        final int y = blockOf[s];
+                        final int position = first[y] + marked[y];
+                        final int other = elements[position];
+                        isMarked[s] = true;
+
+                        if (marked[y]++ == 0) {
+                            touched[touchedCount++] = y;
+                        }
+
+                        elements[location[s]] = other;
+                        location[other] = location[s];
+                        elements[position] = s;
+                        location[s] = position;
+                    }
+                }
+            }
+
+            for (int i = 0; i < touchedCount; i++) {
+                final int y = touched[i];
+                final int markedCount = marked[y];
+                marked[y] = 0;
+
+                for (int p = first[y]; p < first[y] + markedCount; p++) {
+                    isMarked[elements[p]] = false;
+                }
+
+                if (markedCount == end[y] - first[y]) {
+                    continue;
+                }
+
+                /* Split the marked states off into a new block */
+                final int z = blockCount++;
+                first[z] = first[y];
+                end[z] = first[y] + markedCount;
+                first[y] = end[z];
+
+                for (int p = first[z]; p < end[z]; p++) {
+                    blockOf[elements[p]] = z;
+                }
+
+                final int smaller = end[z] - first[z] <= end[y] - first[y] ? z
+                        : y;
+
+                for (int d = 0; d < k; d++) {
+                    final int splitPair = inWork[y * k + d] ? z * k + d
+                            : smaller * k + d;
+
+                    if (!inWork[splitPair]) {
+                        inWork[splitPair] = true;
+                        work[workSize++] = splitPair;
+                    }
+                }
+            }
+        }
+
+        return build(points, delta, accepting, blockOf, first, elements, dead,
+                blockCount);
+    }
+
+    /**
+     * Builds the automaton of the blocks that are reachable from the block
+     * of the start state in breadth first order and merges neighbouring
+     * character classes that have the same transitions in every state.
+     */
+    private static DeterministicAutomaton build(final char[] points,
+                                                final int[] delta, final boolean[] accepting, final int[] blockOf,
+                                                final int[] first, final int[] elements, final int dead,
+                                                final int blockCount) {
+        final int k = points.length;
+        final int deadBlock = blockOf[dead];
+        final int[] ids = new int[blockCount];
+        final int[] order = new int[blockCount];
+        int count = 0;
+        Arrays.fill(ids, -1);
+
+        if (blockOf[0] != deadBlock) {
+            ids[blockOf[0]] = count;
+            order[count++] = blockOf[0];
+        }
+
+        for (int i = 0; i < count; i++) {
+            final int representative = elements[first[order[i]]];
+
+            for (int c = 0; c < k; c++) {
+                final int target = blockOf[delta[representative * k + c]];
+
+                if (target != deadBlock && ids[target] < 0) {
+                    ids[target] = count;
+                    order[count++] = target;
+                }
+            }
+        }
+
+        /* The dead start state still needs a state that accepts nothing */
+        final int stateCount = Math.max(count, 1);
+        final boolean[] minimalAccepting = new boolean[stateCount];
+        final boolean[] keep = new boolean[k];
+        int classCount = 0;
+
+        for (int c = 0; c < k; c++) {
+            keep[c] = c == 0;
+
+            for (int i = 0; i < count && !keep[c]; i++) {
+                final int representative = elements[first[order[i]]];
+                keep[c] = blockOf[delta[representative * k + c]] != blockOf[delta[representative
+                        * k + c - 1]];
+            }
+
+            if (keep[c]) {
+                classCount++;
+            }
+        }
+
+        final char[] minimalPoints = new char[classCount];
+        final int[] transitions = new int[stateCount * classCount];
+        Arrays.fill(transitions, -1);
+
+        for (int c = 0, j = 0; c < k; c++) {
+            if (!keep[c]) {
+                continue;
+            }
+
+            minimalPoints[j] = points[c];
+
+            for (int i = 0; i < count; i++) {
+                final int representative = elements[first[order[i]]];
+                final int target = blockOf[delta[representative * k + c]];
+                transitions[i * classCount + j] = target == deadBlock ? -1
+                        : ids[target];
+            }
+
+            j++;
+        }
+
+        for (int i = 0; i < count; i++) {
+            final int representative = elements[first[order[i]]];
+            minimalAccepting[i] = representative != dead
+                    && accepting[representative];
+        }
+
+        return new DeterministicAutomaton(minimalPoints, transitions,
+                minimalAccepting);
+    }
+}
@@ -0,0 +1,426 @@
+package com.blazebit.regex;
+
+import java.io.Serializable;
+import java.lang.Character.UnicodeBlock;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable set of characters stored as a sorted table of disjoint and
+ * non adjacent ranges. Membership of ASCII characters is answered by a bit
+ * mask, all other characters are looked up by a binary search over the
+ * ranges.
+ *
+ * @since 0.1.22
+ */
+public final class CharacterClass implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final CharacterClass EMPTY = new CharacterClass(new char[0]);
+    public static final CharacterClass ANY = range(Character.MIN_VALUE,
+            Character.MAX_VALUE);
+    /**
+     * The characters matched by \d
+     */
+    public static final CharacterClass DIGIT = range('0', '9');
+    /**
+     * The characters matched by \w
+     */
+    public static final CharacterClass WORD = of('a', 'z', 'A', 'Z', '0',
+            '9', '_', '_');
+    /**
+     * The characters matched by \s
+     */
+    public static final CharacterClass SPACE = of(' ', ' ', '\t', '\r');
+
+    private static final ConcurrentMap<String, CharacterClass> PROPERTIES = new ConcurrentHashMap<String, CharacterClass>();
+
+    /* Low and high pairs */
+    private final char[] ranges;
+    /* Membership of the characters 0 to 127 */
+    private final long asciiLow;
+    private final long asciiHigh;
+
+    private CharacterClass(final char[] ranges) {
+        long low = 0;
+        long high = 0;
+
+        for (int i = 0; i < ranges.length && ranges[i] < 128; i += 2) {
+            for (int c = ranges[i]; c <= ranges[i + 1] && c < 128; c++) {
+                if (c < 64) {
+                    low |= 1L << c;
+                } else {
+                    high |= 1L << (c - 64);
+                }
+            }
+        }
+
+        this.ranges = ranges;
+        this.asciiLow = low;
+        this.asciiHigh = high;
+    }
+
+    /**
+     * Returns the class of the characters from start to end inclusive.
+     *
+     * @param start
+     *            The first character
+     * @param end
+     *            The last character
+     * @return The character class
+     * @throws IllegalArgumentException
+     *             If start is greater than end
+     */
+    public static CharacterClass range(final char start, final char end) {
+        if (start > end) {
+            throw new IllegalArgumentException("Invalid character range "
+                    + start + "-" + end);
+        }
+
+        return new CharacterClass(new char[]{start, end});
+    }
+
+    /**
+     * Returns the class of the single given character.
+     *
+     * @param c
+     *            The character
+     * @return The character class
+     */
+    public static CharacterClass of(final char c) {
+        return new CharacterClass(new char[]{c, c});
+    }
+
+    /**
+     * Returns the class of the given ranges which may overlap and be given
+     * in any order.
+     *
+     * @param ranges
+     *            The start and end pairs of the ranges
+     * @return The character class
+     */
+    public static CharacterClass of(final char... ranges) {
+        if ((ranges.length & 1) != 0) {
+            throw new IllegalArgumentException(
+                    "Ranges must be given as start and end pairs");
+        }
+
+        final long[] sorted = new long[ranges.length / 2];
+
+        for (int i = 0; i < sorted.length; i++) {
+            if (ranges[2 * i] > ranges[2 * i + 1]) {
+                throw new IllegalArgumentException("Invalid character range "
+                        + ranges[2 * i] + "-" + ranges[2 * i + 1]);
+            }
+
+            sorted[i] = ((long) ranges[2 * i] << 16) | ranges[2 * i + 1];
+        }
+
+        Arrays.sort(sorted);
+        final char[] result = new char[ranges.length];
+        int size = 0;
+
+        for (int i = 0; i < sorted.length; i++) {
+            final char start = (char) (sorted[i] >>> 16);
+            final char end = (char) sorted[i];
+
+            if (size > 0 && start <= result[size - 1] + 1) {
+                if (end > result[size - 1]) {
+                    result[size - 1] = end;
+                }
+            } else {
+                result[size++] = start;
+                result[size++] = end;
+            }
+        }
+
+        return new CharacterClass(Arrays.copyOf(result, size));
+    }
+
+    /**
+     * Returns the class for the given property name as used by \p{name}.
+     * Supported are the POSIX classes of {@link java.util.regex.Pattern} like
+     * Alpha or Punct which only contain ASCII characters, the Unicode general
+     * categories like L or Lu with an optional Is prefix and Unicode blocks
+     * with the prefix In like InGreek.
+     *
+     * @param name
+     *            The name of the property
+     * @return The character class
+     * @throws IllegalArgumentException
+     *             If the property is unknown
+     */
+    public static CharacterClass property(final String name) {
+        CharacterClass characterClass = PROPERTIES.get(name);
+
+        if (characterClass == null) {
+            characterClass = createProperty(name);
+            PROPERTIES.putIfAbsent(name, characterClass);
+        }
+
+        return characterClass;
+    }
+
+    private static CharacterClass createProperty(final String name) {
+        if ("Lower".equals(name)) {
+            return range('a', 'z');
+        } else if ("Upper".equals(name)) {
+            return range('A', 'Z');
+        } else if ("ASCII".equals(name)) {
+            return range('\u0000', '\u007F');
+        } else if ("Alpha".equals(name)) {
+            return of('a', 'z', 'A', 'Z');
+        } else if ("Digit".equals(name)) {
+            return DIGIT;
+        } else if ("Alnum".equals(name)) {
+            return of('a', 'z', 'A', 'Z', '0', '9');
+        } else if ("Punct".equals(name)) {
+            return of('!', '/', ':', '@', '[', '`', '{', '~');
+        } else if ("Graph".equals(name)) {
+            return range('!', '~');
+        } else if ("Print".equals(name)) {
+            return range(' ', '~');
+        } else if ("Blank".equals(name)) {
+            return of(' ', ' ', '\t', '\t');
+        } else if ("Cntrl".equals(name)) {
+            return of('\u0000', '\u001F', '\u007F', '\u007F');
+        } else if ("XDigit".equals(name)) {
+            return of('0', '9', 'a', 'f', 'A', 'F');
+        } else if ("Space".equals(name)) {
+            return SPACE;
+        } else if (name.startsWith("In")) {
+            final UnicodeBlock block;
+
+            try {
+                block = UnicodeBlock.forName(name.substring(2));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException(
+                        "Unknown character property: " + name, ex);
+            }
+
+            final StringBuilder sb = new StringBuilder();
+
+            for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+                if (UnicodeBlock.of(c) == block) {
+                    append(sb, (char) c);
+                }
+            }
+
+            return new CharacterClass(sb.toString().toCharArray());
+        }
+
+        final String category = name.startsWith("Is") ? name.substring(2)
+                : name;
+        final boolean[] types = categoryTypes(category);
+
+        if (types == null) {
+            throw new IllegalArgumentException("Unknown character property: "
+                    + name);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            if (types[Character.getType(c)]) {
+                append(sb, (char) c);
+            }
+        }
+
+        return new CharacterClass(sb.toString().toCharArray());
+    }
+
+    /**
+     * Appends the given character to the ranges in the given builder which
+     * are built in ascending order.
+     */
+    private static void append(final StringBuilder sb, final char c) {
+        final int length = sb.length();
+
+        if (length > 0 && sb.charAt(length - 1) == c - 1) {
+            sb.setCharAt(length - 1, c);
+        } else {
+            sb.append(c).append(c);
+        }
+    }
+
+    /**
+     * Returns the types of {@link Character#getType(char)} that belong to
+     * the given Unicode general category or null if it is unknown.
+     */
+    private static boolean[] categoryTypes(final String category) {
+        final String[] names = {"Cn", "Lu", "Ll", "Lt", "Lm", "Lo", "Mn",
+                "Me", "Mc", "Nd", "Nl", "No", "Zs", "Zl", "Zp", "Cc", "Cf",
+                null, "Co", "Cs", "Pd", "Ps", "Pe", "Pc", "Po", "Sm", "Sc",
+                "Sk", "So", "Pi", "Pf"};
+        final boolean[] types = new boolean[names.length];
+        boolean found = false;
+
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null
+                    && (names[i].equals(category) || (category.length() == 1 && names[i]
+                    .charAt(0) == category.charAt(0)))) {
+                types[i] = true;
+                found = true;
+            }
+        }
+
+        return found ? types : null;
+    }
+
+    /**
+     * Returns true if the given character is contained in this class.
+     *
+     * @param c
+     *            The character
+     * @return True if the character is contained, otherwise false
+     */
+    public boolean contains(final char c) {
+        if (c < 64) {
+            return (asciiLow & (1L << c)) != 0;
+        } else if (c < 128) {
+            return (asciiHigh & (1L << (c - 64))) != 0;
+        }
+
+        int low = 0;
+        int high = ranges.length / 2 - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+
+            if (ranges[2 * mid + 1] < c) {
+                low = mid + 1;
+            } else if (ranges[2 * mid] > c) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the number of ranges of this class.
+     *
+     * @return The range count
+     */
+    public int getRangeCount() {
+        return ranges.length / 2;
+    }
+
+    /**
+     * Returns the first character of the range with the given index.
+     *
+     * @param index
+     *            The index of the range
+     * @return The first character of the range
+     */
+    public char getStart(final int index) {
+        return ranges[2 * index];
+    }
+
+    /**
+     * Returns the last character of the range with the given index.
+     *
+     * @param index
+     *            The index of the range
+     * @return The last character of the range
+     */
+    public char getEnd(final int index) {
+        return ranges[2 * index + 1];
+    }
+
+    /**
+     * Returns true if this class contains exactly one character.
+     *
+     * @return True if this class contains exactly one character
+     */
+    public boolean isSingleCharacter() {
+        return ranges.length == 2 && ranges[0] == ranges[1];
+    }
+
+    /**
+     * Returns the class of all characters that are not contained in this
+     * class.
+     *
+     * @return The complement of this class
+     */
+    public CharacterClass complement() {
+        final char[] result = new char[ranges.length + 2];
+        int size = 0;
+        int next = Character.MIN_VALUE;
+
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                result[size++] = (char) next;
+                result[size++] = (char) (ranges[i] - 1);
+            }
+
+            next = ranges[i + 1] + 1;
+        }
+
+        if (next <= Character.MAX_VALUE) {
+            result[size++] = (char) next;
+            result[size++] = Character.MAX_VALUE;
+        }
+
+        return new CharacterClass(Arrays.copyOf(result, size));
+    }
+
+    /**
+     * Returns the class of all characters that are contained in this or the
+     * given class.
+     *
+     * @param other
+     *            The other class
+     * @return The union of the classes
+     */
+    public CharacterClass union(final CharacterClass other) {
+        if (other.ranges.length == 0) {
+            return this;
+        } else if (ranges.length == 0) {
+            return other;
+        }
+
+        final char[] all = Arrays.copyOf(ranges, ranges.length
+                + other.ranges.length);
+        System.arraycopy(other.ranges, 0, all, ranges.length,
+                other.ranges.length);
+        return of(all);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CharacterClass)) {
+            return false;
+        }
+
+        return Arrays.equals(ranges, ((CharacterClass) obj).ranges);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append('[');
+
+        for (int i = 0; i < ranges.length; i += 2) {
+            sb.append(ranges[i]);
+
+            if (ranges[i + 1] != ranges[i]) {
+                sb.append('-').append(ranges[i + 1]);
+            }
+        }
+
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,186 @@
+package com.blazebit.regex;
+
+import java.util.Arrays;
+
+/**
+ * A minimal deterministic automaton over character classes. The alphabet is
+ * partitioned into intervals that are not distinguished by any transition
+ * of the automaton, so a state only needs one transition per interval. The
+ * start state is 0 and missing transitions are encoded as -1. Instances are
+ * immutable and can be used by multiple threads concurrently.
+ *
+ * @since 0.1.22
+ */
+final class DeterministicAutomaton {
+
+    private static final int ASCII = 128;
+
+    /* The first character of every character class, sorted */
+    private final char[] points;
+    /* Character classes of ASCII characters for fast lookup */
+    private final int[] asciiClasses;
+    private final int classCount;
+    /* Indexed by state * classCount + class */
+    private final int[] transitions;
+    private final boolean[] accepting;
+
+    DeterministicAutomaton(final char[] points, final int[] transitions,
+                           final boolean[] accepting) {
+        this.points = points;
+        this.classCount = points.length;
+        this.transitions = transitions;
+        this.accepting = accepting;
+        this.asciiClasses = new int[ASCII];
+
+        for (int c = 0; c < ASCII; c++) {
+            asciiClasses[c] = lookup((char) c);
+        }
+    }
+
+    int getStateCount() {
+        return accepting.length;
+    }
+
+    boolean isAccepting(final int state) {
+        return accepting[state];
+    }
+
+    private int lookup(final char c) {
+        final int index = Arrays.binarySearch(points, c);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Returns the state reached from the given state via the given character
+     * or -1 if there is no such state.
+     */
+    int step(final int state, final char c) {
+        final int characterClass = c < ASCII ? asciiClasses[c] : lookup(c);
+        return transitions[state * classCount + characterClass];
+    }
+
+    /**
+     * Returns true if the automaton accepts the given input.
+     */
+    boolean matches(final CharSequence input) {
+        final int length = input.length();
+        int state = 0;
+
+        for (int i = 0; i < length; i++) {
+            state = step(state, input.charAt(i));
+
+            if (state < 0) {
+                return false;
+            }
+        }
+
+        return accepting[state];
+    }
+
+    /**
+     * Returns the end of the longest accepted substring of the input that
+     * begins at the given offset or -1 if there is none.
+     */
+    int longestMatch(final CharSequence input, final int start) {
+        final int length = input.length();
+        int state = 0;
+        int end = accepting[state] ? start : -1;
+
+        for (int i = start; i < length; i++) {
+            state = step(state, input.charAt(i));
+
+            if (state < 0) {
+                break;
+            }
+            if (accepting[state]) {
+                end = i + 1;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Returns the smallest offset at or after the given offset at which an
+     * accepted substring of the input begins or -1 if there is none. The
+     * automaton is run forward from every offset at once. Runs that reach
+     * the same state accept the same continuations, so they are merged and
+     * only the smaller offset is kept, which bounds the work per character
+     * by the number of states. Scanning stops as soon as a run accepted and
+     * all runs that began before it died.
+     */
+    int leftmostMatchStart(final CharSequence input, final int from) {
+        final int length = input.length();
+        final int stateCount = accepting.length;
+        /* The offset at which the run in a state began or -1 */
+        int[] starts = new int[stateCount];
+        int[] nextStarts = new int[stateCount];
+        int[] states = new int[stateCount];
+        int[] nextStates = new int[stateCount];
+        int count = 0;
+        int leftmost = -1;
+
+        Arrays.fill(starts, -1);
+        Arrays.fill(nextStarts, -1);
+
+        for (int i = from; ; i++) {
+            if (leftmost < 0 && starts[0] < 0) {
+                starts[0] = i;
+                states[count++] = 0;
+            }
+
+            for (int j = 0; j < count; j++) {
+                final int state = states[j];
+
+                if (accepting[state]
+                        && (leftmost < 0 || starts[state] < leftmost)) {
+                    leftmost = starts[state];
+                }
+            }
+
+            if (i == length) {
+                break;
+            }
+
+            final char c = input.charAt(i);
+            int nextCount = 0;
+
+            for (int j = 0; j < count; j++) {
+                final int state = states[j];
+                final int start = starts[state];
+                starts[state] = -1;
+
+                /* Runs that began after a match can not be leftmost */
+                if (leftmost >= 0 && start >= leftmost) {
+                    continue;
+                }
+
+                final int next = step(state, c);
+
+                if (next < 0) {
+                    continue;
+                }
+                if (nextStarts[next] < 0) {
+                    nextStarts[next] = start;
+                    nextStates[nextCount++] = next;
+                } else if (start < nextStarts[next]) {
+                    nextStarts[next] = start;
+                }
+            }
+
+            int[] temp = starts;
+            starts = nextStarts;
+            nextStarts = temp;
+            temp = states;
+            states = nextStates;
+            nextStates = temp;
+            count = nextCount;
+
+            if (leftmost >= 0 && count == 0) {
+                break;
+            }
+        }
+
+        return leftmost;
+    }
+}
@@ -2,19 +2,143 @@ package com.blazebit.regex;
 
 import com.blazebit.regex.node.*;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public class Pattern {
 
+    /* Patterns beyond this number are parsed but not cached */
+    private static final int MAX_CACHE_SIZE = 1024;
+    private static final ConcurrentMap<String, Pattern> CACHE = new ConcurrentHashMap<String, Pattern>();
+
     private final String pattern;
     private final Node root;
     private int cursor = 0;
+    /* Compiled on first use, races only compile the same automaton twice */
+    private volatile DeterministicAutomaton automaton;
 
     public Pattern(String pattern) {
         this.pattern = pattern;
-        this.root = parseUnion();
+        OrNode union = parseUnion();
+        union.freeze();
+        this.root = union;
     }
 
+    /**
+     * Returns the node tree of the given pattern. The tree is frozen and may
+     * be shared with other callers that parse the same pattern.
+     *
+     * @param pattern
+     *            The pattern to parse
+     * @return The root node of the pattern
+     */
     public static Node parse(String pattern) {
-        return new Pattern(pattern).root;
+        return compile(pattern).root;
+    }
+
+    /**
+     * Parses the given pattern into a pattern that can be used for matching.
+     * Parsed patterns are immutable and cached, so the same instance is
+     * returned for equal patterns as long as the cache is not full.
+     *
+     * @param pattern
+     *            The pattern to parse
+     * @return The parsed pattern
+     * @since 0.1.22
+     */
+    public static Pattern compile(String pattern) {
+        Pattern compiled = CACHE.get(pattern);
+
+        if (compiled == null) {
+            compiled = new Pattern(pattern);
+
+            if (CACHE.size() < MAX_CACHE_SIZE) {
+                Pattern existing = CACHE.putIfAbsent(pattern, compiled);
+
+                if (existing != null) {
+                    compiled = existing;
+                }
+            }
+        }
+
+        return compiled;
+    }
+
+    /**
+     * Returns true if the whole input matches this pattern. The pattern is
+     * compiled into a minimal deterministic automaton on first use, so
+     * matching takes linear time in the length of the input.
+     *
+     * @param input
+     *            The input to match
+     * @return True if the input matches, otherwise false
+     * @since 0.1.22
+     */
+    public boolean matches(CharSequence input) {
+        if (input == null) {
+            throw new NullPointerException("input");
+        }
+
+        return getAutomaton().matches(input);
+    }
+
+    /**
+     * Finds the leftmost longest substring of the input that matches this
+     * pattern.
+     *
+     * @param input
+     *            The input to search
+     * @return The start and end offset of the match or null if there is none
+     * @since 0.1.22
+     */
+    public int[] find(CharSequence input) {
+        return find(input, 0);
+    }
+
+    /**
+     * Finds the leftmost longest substring of the input that begins at or
+     * after the given offset and matches this pattern. A forward pass that
+     * runs the automaton from every offset at once finds the leftmost offset
+     * at which a match begins and a second forward pass finds the longest
+     * match from there. Both passes stop as soon as the automaton can not
+     * accept anymore, so finding all matches by repeatedly calling this
+     * method with the end of the previous match takes linear time unless
+     * unsuccessful runs of the automaton are long.
+     *
+     * @param input
+     *            The input to search
+     * @param from
+     *            The offset at which to start searching
+     * @return The start and end offset of the match or null if there is none
+     * @since 0.1.22
+     */
+    public int[] find(CharSequence input, int from) {
+        if (input == null) {
+            throw new NullPointerException("input");
+        }
+        if (from < 0 || from > input.length()) {
+            throw new IndexOutOfBoundsException("Invalid offset: " + from);
+        }
+
+        final DeterministicAutomaton localAutomaton = getAutomaton();
+        final int start = localAutomaton.leftmostMatchStart(input, from);
+
+        if (start < 0) {
+            return null;
+        }
+
+        return new int[]{start, localAutomaton.longestMatch(input, start)};
+    }
+
+    DeterministicAutomaton getAutomaton() {
+        DeterministicAutomaton localAutomaton = automaton;
+
+        if (localAutomaton == null) {
+            localAutomaton = AutomatonCompiler.compile(root);
+            automaton = localAutomaton;
+        }
+
+        return localAutomaton;
     }
 
     private boolean hasNext() {
@@ -60,7 +184,7 @@ public class Pattern {
         return false;
     }
 
-    private Node parseUnion() {
+    private OrNode parseUnion() {
         OrNode rootNode = new OrNode();
 
         do {
@@ -146,10 +270,10 @@ public class Pattern {
                 negate = true;
             }
 
-            Node node = parseCharacterClasses();
+            CharacterClass characterClass = parseCharacterClasses();
 
             if (negate) {
-                node = new ComplementNode(node);
+                characterClass = characterClass.complement();
             }
 
             if (!match(']')) {
@@ -157,40 +281,101 @@ public class Pattern {
                         + cursor);
             }
 
-            return node;
+            return new CharClassNode(characterClass);
         } else
             return parseAtom();
     }
 
-    private Node parseCharacterClasses() {
-        OrNode node = new OrNode();
+    private CharacterClass parseCharacterClasses() {
+        CharacterClass characterClass = CharacterClass.EMPTY;
 
         do {
-            node.add(parseCharacterRange());
+            characterClass = characterClass.union(parseCharacterRange());
         } while (hasNext() && !peek("]"));
 
-        return node;
+        return characterClass;
     }
 
-    private Node parseCharacterRange() {
+    private CharacterClass parseCharacterRange() {
+        CharacterClass escapedClass = parseEscapedClass();
+
+        if (escapedClass != null) {
+            return escapedClass;
+        }
+
         char c = parseCharacter();
 
         if (match('-')) {
             if (peek("]")) {
-                OrNode node = new OrNode();
-                node.add(new CharNode(c));
-                node.add(new CharNode('-'));
-                return node;
+                return CharacterClass.of(c, c, '-', '-');
             } else {
-                return new CharRangeNode(c, parseCharacter());
+                char end = parseCharacter();
+
+                if (c > end) {
+                    throw new IllegalArgumentException(
+                            "invalid character range at position " + cursor);
+                }
+
+                return CharacterClass.range(c, end);
             }
         } else {
-            return new CharNode(c);
+            return CharacterClass.of(c);
         }
     }
 
+    /**
+     * Parses the escapes \d, \w, \s, \p{name} and their upper case
+     * negations or returns null if the next characters are no such escape.
+     */
+    private CharacterClass parseEscapedClass() {
+        if (cursor + 1 >= pattern.length() || pattern.charAt(cursor) != '\\'
+                || "dDwWsSpP".indexOf(pattern.charAt(cursor + 1)) == -1) {
+            return null;
+        }
+
+        char c = pattern.charAt(cursor + 1);
+        CharacterClass characterClass;
+        cursor += 2;
+
+        switch (Character.toLowerCase(c)) {
+            case 'd':
+                characterClass = CharacterClass.DIGIT;
+                break;
+            case 'w':
+                characterClass = CharacterClass.WORD;
+                break;
+            case 's':
+                characterClass = CharacterClass.SPACE;
+                break;
+            default:
+                if (!match('{')) {
+                    throw new IllegalArgumentException(
+                            "expected '{' at position " + cursor);
+                }
+
+                int end = pattern.indexOf('}', cursor);
+
+                if (end == -1) {
+                    throw new IllegalArgumentException(
+                            "expected '}' at position " + cursor);
+                }
+
+                characterClass = CharacterClass.property(pattern.substring(
+                        cursor, end));
+                cursor = end + 1;
+                break;
+        }
+
+        return Character.isUpperCase(c) ? characterClass.complement()
+                : characterClass;
+    }
+
     private Node parseAtom() throws IllegalArgumentException {
-        if (match('.')) {
+        CharacterClass escapedClass = parseEscapedClass();
+
+        if (escapedClass != null) {
+            return new CharClassNode(escapedClass);
+        } else if (match('.')) {
             return new DotNode();
         } else if (match('(')) {
             if (match(')')) {
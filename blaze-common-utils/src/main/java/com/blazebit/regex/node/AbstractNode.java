@@ -3,6 +3,7 @@ package com.blazebit.regex.node;
 public abstract class AbstractNode implements Node {
 
     private Node next;
+    private boolean frozen;
 
     @Override
     public Node getNext() {
@@ -11,6 +12,54 @@ public abstract class AbstractNode implements Node {
 
     @Override
     public void setNext(Node next) {
+        checkNotFrozen();
         this.next = next;
     }
+
+    /**
+     * Makes this node and all nodes reachable from it unmodifiable, so that
+     * the tree can be shared between threads once it has been published
+     * safely.
+     *
+     * @since 0.1.22
+     */
+    public void freeze() {
+        Node node = this;
+
+        /* Iterate over the successors to avoid deep recursion */
+        while (node instanceof AbstractNode && !((AbstractNode) node).frozen) {
+            AbstractNode abstractNode = (AbstractNode) node;
+            abstractNode.frozen = true;
+            abstractNode.freezeChildren();
+            node = abstractNode.next;
+        }
+    }
+
+    /**
+     * Returns true if this node has been frozen.
+     *
+     * @return True if this node is unmodifiable
+     * @since 0.1.22
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Freezes the nodes that this node contains apart from its successor.
+     */
+    protected void freezeChildren() {
+    }
+
+    protected final void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Node is frozen");
+        }
+    }
+
+    protected static void freeze(Node node) {
+        if (node instanceof AbstractNode) {
+            ((AbstractNode) node).freeze();
+        }
+    }
 }
@@ -0,0 +1,16 @@
+package com.blazebit.regex.node;
+
+import com.blazebit.regex.CharacterClass;
+
+public class CharClassNode extends AbstractNode {
+
+    private final CharacterClass characterClass;
+
+    public CharClassNode(CharacterClass characterClass) {
+        this.characterClass = characterClass;
+    }
+
+    public CharacterClass getCharacterClass() {
+        return characterClass;
+    }
+}
@@ -11,4 +11,9 @@ public abstract class DecoratorNode extends AbstractNode {
     public Node getDecorated() {
         return decorated;
     }
+
+    @Override
+    protected void freezeChildren() {
+        freeze(decorated);
+    }
 }
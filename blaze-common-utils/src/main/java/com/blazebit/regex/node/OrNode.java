@@ -1,17 +1,28 @@
 package com.blazebit.regex.node;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class OrNode extends AbstractNode {
 
     private final List<Node> nodes = new ArrayList<Node>();
+    private final List<Node> unmodifiableNodes = Collections
+            .unmodifiableList(nodes);
 
     public void add(Node node) {
+        checkNotFrozen();
         nodes.add(node);
     }
 
     public List<Node> getNodes() {
-        return nodes;
+        return unmodifiableNodes;
+    }
+
+    @Override
+    protected void freezeChildren() {
+        for (int i = 0; i < nodes.size(); i++) {
+            freeze(nodes.get(i));
+        }
     }
 }
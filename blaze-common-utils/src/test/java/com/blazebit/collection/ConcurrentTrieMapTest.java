@@ -0,0 +1,170 @@
+package com.blazebit.collection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentTrieMapTest {
+
+    public ConcurrentTrieMap<String> map() {
+        ConcurrentTrieMap<String> map = new ConcurrentTrieMap<String>();
+        map.put("/page/main", "/main.xhtml");
+        map.put("/page/main/home", "/pages/home.xhtml");
+        map.put("/page/main/pictures", "/pages/pictures.xhtml");
+        map.put("/page/main/projects", "/pages/projects.xhtml");
+        map.put("/page/main/projects/triemap", "/pages/projectDetails.xhtml");
+        map.put("/page/admin", "/admin.xhtml");
+        map.put("/page/sitemap", "/sitemap.xhtml");
+        map.put("/file/picture", "/picture.xhtml");
+        return map;
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        ConcurrentTrieMap<String> map = map();
+
+        assertEquals(8, map.size());
+        assertEquals("/main.xhtml", map.get("/page/main"));
+        assertNull(map.get("/page/mai"));
+        assertEquals("/main.xhtml", map.put("/page/main", "test"));
+        assertEquals(8, map.size());
+        assertEquals("test", map.get("/page/main"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() {
+        new ConcurrentTrieMap<String>().put("/page/main", null);
+    }
+
+    @Test
+    public void testConditionalOperations() throws Exception {
+        ConcurrentTrieMap<String> map = map();
+
+        assertEquals("/main.xhtml", map.putIfAbsent("/page/main", "test"));
+        assertNull(map.putIfAbsent("/page/other", "other"));
+        assertFalse(map.replace("/page/other", "wrong", "new"));
+        assertTrue(map.replace("/page/other", "other", "new"));
+        assertEquals("new", map.replace("/page/other", "newer"));
+        assertNull(map.replace("/page/missing", "value"));
+        assertFalse(map.remove("/page/other", "new"));
+        assertTrue(map.remove("/page/other", "newer"));
+        assertEquals(8, map.size());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        ConcurrentTrieMap<String> map = map();
+
+        assertEquals("/main.xhtml", map.remove("/page/main"));
+        assertNull(map.remove("/page/main"));
+        assertEquals(7, map.size());
+        assertTrue(map.containsKeyPrefix("/page/main"));
+        assertEquals("/picture.xhtml", map.remove("/file/picture"));
+        assertFalse(map.containsKeyPrefix("/f"));
+    }
+
+    @Test
+    public void testSubMap() throws Exception {
+        ConcurrentTrieMap<String> map = map();
+        ConcurrentTrieMap<String> subMap = map.subMap("/page/main");
+
+        assertEquals(5, subMap.size());
+        assertEquals("/main.xhtml", subMap.get(""));
+
+        subMap.put("/blaze", "/pages/blaze.xhtml");
+
+        assertEquals(9, map.size());
+        assertEquals("/pages/blaze.xhtml", map.get("/page/main/blaze"));
+
+        subMap.clear();
+
+        assertTrue(subMap.isEmpty());
+        assertEquals(3, map.size());
+        assertEquals(map.subMap("/page/main").subMap("/pro"), map.subMap("/page/main/pro"));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        ConcurrentTrieMap<String> map = map();
+        ConcurrentTrieMap<String> snapshot = map.snapshot();
+        Iterator<CharSequence> iter = map.keySet().iterator();
+
+        map.remove("/page/main");
+        snapshot.put("/page/other", "other");
+
+        assertEquals(7, map.size());
+        assertEquals(9, snapshot.size());
+        assertFalse(map.containsKey("/page/other"));
+        assertEquals("/main.xhtml", snapshot.get("/page/main"));
+
+        /* Iterators see the map at the time of their creation */
+        int count = 0;
+
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+
+        assertEquals(8, count);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnlySnapshot() {
+        map().readOnlySnapshot().put("/page/other", "other");
+    }
+
+    @Test
+    public void testEquals() throws Exception {
+        Map<CharSequence, String> expectedMap = new HashMap<CharSequence, String>(map());
+
+        assertEquals(expectedMap, map());
+        assertEquals(map(), expectedMap);
+    }
+
+    @Test
+    public void testConcurrentPut() throws Exception {
+        final ConcurrentTrieMap<Integer> map = new ConcurrentTrieMap<Integer>();
+        final int threads = 4;
+        final int keysPerThread = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+            for (int i = 0; i < threads; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < keysPerThread; j++) {
+                            map.put("/key/" + j + "/" + thread, j);
+                            map.putIfAbsent("/shared/" + j, j);
+                        }
+
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(threads * keysPerThread + keysPerThread, map.size());
+        assertEquals(keysPerThread, map.subMap("/shared/").size());
+    }
+}
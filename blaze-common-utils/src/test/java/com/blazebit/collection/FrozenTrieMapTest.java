@@ -0,0 +1,130 @@
+package com.blazebit.collection;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class FrozenTrieMapTest {
+
+    public TrieMap<String> map(TrieMap<String> map) {
+        map.put("/page/main", "/main.xhtml");
+        map.put("/page/main/home", "/pages/home.xhtml");
+        map.put("/page/main/pictures", "/pages/pictures.xhtml");
+        map.put("/page/main/projects", "/pages/projects.xhtml");
+        map.put("/page/main/projects/triemap", "/pages/projectDetails.xhtml");
+        map.put("/page/admin", "/admin.xhtml");
+        map.put("/page/sitemap", "/sitemap.xhtml");
+        map.put("/file/picture", "/picture.xhtml");
+        return map;
+    }
+
+    @Test
+    public void testFreeze() throws Exception {
+        testFreeze(map(new TrieMap<String>()));
+        testFreeze(map(TrieMap.<String>compressed()));
+    }
+
+    private void testFreeze(TrieMap<String> map) {
+        FrozenTrieMap<String> frozenMap = map.freeze();
+
+        assertEquals(map, frozenMap);
+        assertEquals(frozenMap, map);
+        assertEquals(8, frozenMap.size());
+        assertEquals("/pages/projectDetails.xhtml",
+                frozenMap.get("/page/main/projects/triemap"));
+        assertNull(frozenMap.get("/page/mai"));
+        assertFalse(frozenMap.containsKey("/page/mai"));
+        assertTrue(frozenMap.containsKeyPrefix("/page/mai"));
+        assertFalse(frozenMap.containsKeyPrefix("/page/maim"));
+        assertEquals("/page/main/projects/",
+                frozenMap.getBestMatch("/page/main/projects/ai-utils"));
+        assertEquals(map.getBestMatch("/page/main/projects/tree"),
+                frozenMap.getBestMatch("/page/main/projects/tree"));
+        assertEquals("/page/main", frozenMap.getBestMatch("/page/main"));
+        assertEquals("", frozenMap.getBestMatch(""));
+        assertEquals("/page/main/projects".length(),
+                frozenMap.longestPrefixOf("/page/main/projects/ai-utils"));
+        assertEquals("/main.xhtml",
+                frozenMap.valueOfLongestPrefix("/page/main/pro"));
+        assertEquals(-1, frozenMap.longestPrefixOf("/page/mai"));
+        assertEquals(map.longestPrefixOf("/page/main/projects/triemap"),
+                frozenMap.longestPrefixOf("/page/main/projects/triemap"));
+
+        /* Modifications of the source map are not reflected */
+        map.put("/page/other", "/other.xhtml");
+        assertFalse(frozenMap.containsKey("/page/other"));
+    }
+
+    @Test
+    public void testSubMap() throws Exception {
+        FrozenTrieMap<String> frozenMap = map(TrieMap.<String>compressed())
+                .freeze();
+        FrozenTrieMap<String> subMap = frozenMap.subMap("/page/main/proj");
+
+        assertEquals(2, subMap.size());
+        assertEquals("/pages/projects.xhtml", subMap.get("ects"));
+        assertNull(subMap.get(""));
+        assertEquals(map(new TrieMap<String>()).subMap("/page/main/proj"),
+                subMap);
+        assertEquals(frozenMap.subMap("/page/main/projects"),
+                subMap.subMap("ects"));
+        assertEquals(4, subMap.longestPrefixOf("ects/tree"));
+        assertEquals("ects", subMap.getBestMatch("ectsx"));
+        assertTrue(frozenMap.subMap("/none").isEmpty());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        FrozenTrieMap<String> subMap = map(TrieMap.<String>compressed())
+                .freeze().subMap("/page/main/proj");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(subMap);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray()));
+        @SuppressWarnings("unchecked")
+        FrozenTrieMap<String> copy = (FrozenTrieMap<String>) in.readObject();
+
+        assertEquals(subMap, copy);
+        assertEquals(2, copy.size());
+        assertEquals("/pages/projects.xhtml", copy.get("ects"));
+    }
+
+    @Test
+    public void testIterationOrder() throws Exception {
+        Iterator<CharSequence> iter = map(new TrieMap<String>()).freeze()
+                .keySet().iterator();
+
+        assertEquals("/file/picture", iter.next());
+        assertEquals("/page/admin", iter.next());
+        assertEquals("/page/main", iter.next());
+        assertEquals("/page/main/home", iter.next());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        FrozenTrieMap<String> frozenMap = new TrieMap<String>().freeze();
+
+        assertTrue(frozenMap.isEmpty());
+        assertFalse(frozenMap.containsKeyPrefix(""));
+        assertNull(frozenMap.get(""));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPut() {
+        map(new TrieMap<String>()).freeze().put("/page/other", "/other.xhtml");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullGet() {
+        map(new TrieMap<String>()).freeze().get(null);
+    }
+}
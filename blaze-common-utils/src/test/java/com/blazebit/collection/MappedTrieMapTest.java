@@ -0,0 +1,182 @@
+package com.blazebit.collection;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class MappedTrieMapTest {
+
+    public TrieMap<String> map(TrieMap<String> map) {
+        map.put("/page/main", "/main.xhtml");
+        map.put("/page/main/home", "/pages/home.xhtml");
+        map.put("/page/main/pictures", "/pages/pictures.xhtml");
+        map.put("/page/main/projects", "/pages/projects.xhtml");
+        map.put("/page/main/projects/triemap", "/pages/projectDetails.xhtml");
+        map.put("/page/admin", "/admin.xhtml");
+        map.put("/page/sitemap", "/sitemap.xhtml");
+        map.put("/file/picture", "/picture.xhtml");
+        map.put("/file/empty", null);
+        return map;
+    }
+
+    private MappedTrieMap<String> mapped(FrozenTrieMap<String> map) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MappedTrieMap.write(map, MappedTrieMap.STRING_CODEC, os);
+        return MappedTrieMap.open(ByteBuffer.wrap(os.toByteArray()),
+                MappedTrieMap.STRING_CODEC);
+    }
+
+    @Test
+    public void testWriteAndOpen() throws Exception {
+        File file = File.createTempFile("trie", ".bin");
+
+        try {
+            TrieMap<String> map = map(TrieMap.<String>compressed());
+            MappedTrieMap.write(map.freeze(), MappedTrieMap.STRING_CODEC,
+                    file.toPath());
+            MappedTrieMap<String> mappedMap = MappedTrieMap.open(
+                    file.toPath(), MappedTrieMap.STRING_CODEC);
+
+            assertEquals(map, mappedMap);
+            assertEquals(mappedMap, map);
+            assertEquals(9, mappedMap.size());
+            assertEquals("/pages/projectDetails.xhtml",
+                    mappedMap.get("/page/main/projects/triemap"));
+            assertTrue(mappedMap.containsKey("/file/empty"));
+            assertNull(mappedMap.get("/file/empty"));
+            assertFalse(mappedMap.containsKey("/page/mai"));
+            assertTrue(mappedMap.containsKeyPrefix("/page/mai"));
+            assertEquals(map.getBestMatch("/page/main/projects/ai-utils"),
+                    mappedMap.getBestMatch("/page/main/projects/ai-utils"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSubMap() throws Exception {
+        MappedTrieMap<String> mappedMap = mapped(map(new TrieMap<String>())
+                .freeze());
+
+        assertEquals(map(new TrieMap<String>()).subMap("/page/main/proj"),
+                mappedMap.subMap("/page/main/proj"));
+        assertTrue(mappedMap.subMap("/none").isEmpty());
+
+        /* Views keep the prefix operations, also when chained */
+        MappedTrieMap<String> subMap = mappedMap.subMap("/page/").subMap("main");
+
+        assertEquals(5, subMap.size());
+        assertTrue(subMap.containsKeyPrefix("/pro"));
+        assertEquals("/pages/projects.xhtml", subMap.subMap("/proj").get("ects"));
+        assertEquals(9, subMap.longestPrefixOf("/projects/blaze"));
+        assertEquals("/pages/projects.xhtml",
+                subMap.valueOfLongestPrefix("/projects/blaze"));
+        assertEquals(0, subMap.longestPrefixOf("x"));
+
+        MappedTrieMap<String> emptyMap = mappedMap.subMap("/none");
+
+        assertFalse(emptyMap.containsKeyPrefix(""));
+        assertTrue(emptyMap.subMap("/page").isEmpty());
+        assertEquals(-1, emptyMap.longestPrefixOf("/page"));
+        assertFalse(emptyMap.entrySet().iterator().hasNext());
+    }
+
+    @Test
+    public void testWriteView() throws Exception {
+        FrozenTrieMap<String> frozenMap = map(new TrieMap<String>()).freeze();
+        MappedTrieMap<String> mappedMap = mapped(frozenMap.subMap("/page/"));
+
+        assertEquals(7, mappedMap.size());
+        assertEquals("/admin.xhtml", mappedMap.get("admin"));
+        assertFalse(mappedMap.containsKey("/page/admin"));
+    }
+
+    @Test
+    public void testIterationOrder() throws Exception {
+        Iterator<CharSequence> iter = mapped(map(new TrieMap<String>())
+                .freeze()).keySet().iterator();
+
+        assertEquals("/file/empty", iter.next());
+        assertEquals("/file/picture", iter.next());
+        assertEquals("/page/admin", iter.next());
+        assertEquals("/page/main", iter.next());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        MappedTrieMap<String> mappedMap = mapped(new TrieMap<String>().freeze());
+
+        assertTrue(mappedMap.isEmpty());
+        assertNull(mappedMap.get(""));
+    }
+
+    @Test
+    public void testWriteTooLarge() throws Exception {
+        /* The same array for every value keeps the memory footprint small */
+        final byte[] encoded = new byte[64 * 1024 * 1024];
+        MappedTrieMap.ValueCodec<String> codec = new MappedTrieMap.ValueCodec<String>() {
+
+            @Override
+            public byte[] encode(String value) {
+                return encoded;
+            }
+
+            @Override
+            public String decode(ByteBuffer buffer, int offset, int length) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        TrieMap<String> map = TrieMap.compressed();
+
+        for (int i = 0; i < 33; i++) {
+            map.put("/value/" + i, "");
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        try {
+            MappedTrieMap.write(map.freeze(), codec, os);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+
+        assertEquals(0, os.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBuffer() {
+        MappedTrieMap.open(ByteBuffer.allocate(64), MappedTrieMap.STRING_CODEC);
+    }
+
+    @Test
+    public void testCorruptBuffer() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MappedTrieMap.write(map(new TrieMap<String>()).freeze(),
+                MappedTrieMap.STRING_CODEC, os);
+        byte[] bytes = os.toByteArray();
+
+        assertCorrupt(ByteBuffer.wrap(bytes, 0, 12));
+        assertCorrupt(ByteBuffer.wrap(bytes, 0, bytes.length / 2));
+        /* Node count, edge count, label length and value count */
+        for (int i = 8; i <= 20; i += 4) {
+            assertCorrupt(ByteBuffer.wrap(bytes.clone()).putInt(i, -1));
+            assertCorrupt(ByteBuffer.wrap(bytes.clone()).putInt(i,
+                    Integer.MAX_VALUE));
+        }
+    }
+
+    private static void assertCorrupt(ByteBuffer buffer) {
+        try {
+            MappedTrieMap.open(buffer, MappedTrieMap.STRING_CODEC);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("trie file"));
+        }
+    }
+}
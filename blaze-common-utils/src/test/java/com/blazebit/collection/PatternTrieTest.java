@@ -4,7 +4,12 @@ import com.blazebit.collection.PatternTrie.ParameterizedValue;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.*;
 
@@ -197,6 +202,299 @@ public class PatternTrieTest {
     // "/pages/invalidModule.xhtml", "pageName", "home", "pageNumber", "1");
     // }
 
+    @Test
+    public void testResolveStaticAndPatterns() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+
+        trie.add("/dashboard", "/dashboard.xhtml");
+        trie.parameterized("/{page}", "/page.xhtml")
+                .matching("page", "index|about|impressum").add();
+        trie.parameterized("/x/{bla}", "/bla.xhtml").matching("bla", ".")
+                .add();
+
+        assertTrieContains(trie, "/dashboard", 1, "/dashboard.xhtml");
+        assertTrieContains(trie, "/index", 1, "/page.xhtml", "page", "index");
+        assertTrieContains(trie, "/about", 1, "/page.xhtml", "page", "about");
+        assertTrieContains(trie, "/x/i", 1, "/bla.xhtml", "bla", "i");
+        assertEquals(0, trie.resolve("/foo").size());
+        assertEquals(0, trie.resolve("").size());
+    }
+
+    @Test
+    public void testResolveRepeat() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+
+        trie.parameterized("/{r}", "/r.xhtml").matching("r", "a*d").add();
+
+        assertTrieContains(trie, "/d", 1, "/r.xhtml", "r", "d");
+        assertTrieContains(trie, "/aad", 1, "/r.xhtml", "r", "aad");
+        assertEquals(0, trie.resolve("/aa").size());
+
+        trie = new PatternTrie<String>();
+        trie.parameterized("/{r}", "/r.xhtml").matching("r", "a{2}d").add();
+
+        assertTrieContains(trie, "/aad", 1, "/r.xhtml", "r", "aad");
+        assertEquals(0, trie.resolve("/ad").size());
+        assertEquals(0, trie.resolve("/aaad").size());
+    }
+
+    @Test
+    public void testResolveMultipleParameters() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+
+        trie.parameterized("/p/{name}", "/p.xhtml")
+                .matching("name", "[a-c]+").add();
+        trie.parameterized("/p/{name}/{num}", "/pn.xhtml")
+                .matching("name", "(ab|cd)").matching("num", "[1-9][0-9]*")
+                .add();
+
+        assertTrieContains(trie, "/p/abc", 1, "/p.xhtml", "name", "abc");
+        assertTrieContains(trie, "/p/ab/12", 1, "/pn.xhtml", "name", "ab",
+                "num", "12");
+        assertTrieContains(trie, "/p/cd/1", 1, "/pn.xhtml", "name", "cd",
+                "num", "1");
+        assertEquals(0, trie.resolve("/p/cd/01").size());
+    }
+
+    @Test
+    public void testResolveCharacterClasses() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+
+        trie.parameterized("/u/{user}/{page}", "/user.xhtml")
+                .matching("user", "[^/]+").matching("page", "[a-zA-Z0-9_-]+")
+                .add();
+        trie.parameterized("/n/{num}", "/num.xhtml").matching("num", "\\d+")
+                .add();
+        trie.add("/u/admin/home", "/admin.xhtml");
+
+        assertTrieContains(trie, "/u/j\u00fcrgen/my-page_1", 1, "/user.xhtml",
+                "user", "j\u00fcrgen", "page", "my-page_1");
+        assertTrieContains(trie, "/n/42", 1, "/num.xhtml", "num", "42");
+        assertEquals(0, trie.resolve("/u/a/b/c").size());
+        assertEquals(0, trie.resolve("/u/a/b.c").size());
+        assertEquals(0, trie.resolve("/n/4a").size());
+        assertEquals(2, trie.resolve("/u/admin/home").size());
+        assertEquals("/admin.xhtml", trie.resolveBest("/u/admin/home")
+                .getValue());
+    }
+
+    @Test(timeout = 5000)
+    public void testResolveNegatedCharacterClass() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+
+        trie.parameterized("/{x}", "/x.xhtml").matchingNot("x", "\\p{L}")
+                .add();
+        assertTrieContains(trie, "/1", 1, "/x.xhtml", "x", "1");
+
+        trie = new PatternTrie<String>();
+        trie.parameterized("/{y}", "/y.xhtml")
+                .matchingNot("y", "[\u0100-\u3fff]").add();
+        assertTrieContains(trie, "/1", 1, "/y.xhtml", "y", "1");
+    }
+
+    @Test
+    public void testResolveOverlappingCharacterClasses() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+
+        for (int i = 0; i < 1000; i++) {
+            char c = (char) ('\u0100' + 2 * i);
+            trie.parameterized("/{x}", "/x" + i + ".xhtml")
+                    .matching("x", "[" + c + "-" + (char) (c + 2) + "]+").add();
+        }
+
+        assertTrieContains(trie, "/\u0101", 1, "/x0.xhtml", "x", "\u0101");
+        assertEquals(2, trie.resolve("/\u0102").size());
+        assertEquals(2, trie.resolve("/\u0102\u0102").size());
+        assertEquals(1, trie.resolve("/\u0102\u0103\u0104").size());
+        assertEquals(1, trie.resolve("/\u0104\u0105").size());
+        assertEquals(0, trie.resolve("/\u00ff").size());
+        assertEquals(0, trie.resolve("/\u0100\u0104").size());
+    }
+
+    @Test
+    public void testResolveAfterModification() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+
+        trie.add("/a", "/a.xhtml");
+        assertEquals(0, trie.resolve("/b").size());
+
+        trie.add("/b", "/b.xhtml");
+        assertTrieContains(trie, "/b", 1, "/b.xhtml");
+
+        trie.parameterized("/c{x}", "/c.xhtml").matching("x", "[0-9]").add();
+        assertTrieContains(trie, "/c1", 1, "/c.xhtml", "x", "1");
+    }
+
+    @Test
+    public void testResolutionCache() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>(2);
+
+        trie.parameterized("/p/{name}", "/p.xhtml")
+                .matching("name", "[a-c]+").add();
+
+        assertTrieContains(trie, "/p/abc", 1, "/p.xhtml", "name", "abc");
+        assertTrieContains(trie, "/p/abc", 1, "/p.xhtml", "name", "abc");
+        assertEquals(1, trie.getCacheHitCount());
+        assertEquals(1, trie.getCacheMissCount());
+
+        /* Modifications invalidate the cache */
+        trie.add("/p/abc", "/static.xhtml");
+        assertEquals(2, trie.resolve("/p/abc").size());
+        assertEquals(2, trie.getCacheMissCount());
+
+        /* The least recently used key is evicted */
+        trie.resolve("/p/a");
+        trie.resolve("/p/abc");
+        trie.resolve("/p/b");
+        trie.resolve("/p/abc");
+        assertEquals(3, trie.getCacheHitCount());
+        trie.resolve("/p/a");
+        assertEquals(5, trie.getCacheMissCount());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCachedResultUnmodifiable() {
+        PatternTrie<String> trie = new PatternTrie<String>(2);
+        trie.add("/a", "/a.xhtml");
+        trie.resolve("/a").clear();
+    }
+
+    @Test
+    public void testCacheDisabled() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+        trie.add("/a", "/a.xhtml");
+        trie.resolve("/a");
+        trie.resolve("/a");
+
+        assertEquals(0, trie.getCacheHitCount());
+        assertEquals(0, trie.getCacheMissCount());
+    }
+
+    @Test
+    public void testResolveWithMatchContext() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+        PatternTrie.MatchContext<String> context = new PatternTrie.MatchContext<String>();
+
+        trie.add("/p/ab", "/static.xhtml");
+        trie.parameterized("/p/{name}/{num}", "/pn.xhtml")
+                .matching("name", "(ab|cd)").matching("num", "[1-9][0-9]*")
+                .add();
+
+        assertTrue(trie.resolve("/p/cd/12", context));
+        assertEquals(1, context.getMatchCount());
+        assertEquals("/pn.xhtml", context.getValue(0));
+        assertEquals(2, context.getParameterCount(0));
+        assertEquals("name", context.getParameterName(0, 0));
+        assertEquals(3, context.getParameterStart(0, 0));
+        assertEquals(5, context.getParameterEnd(0, 0));
+
+        int num = context.getParameterIndex(0, "num");
+        assertEquals(6, context.getParameterStart(0, num));
+        assertEquals(8, context.getParameterEnd(0, num));
+        assertEquals(-1, context.getParameterIndex(0, "other"));
+
+        /* The context is reused and only holds the last result */
+        assertTrue(trie.resolve(new StringBuilder("/p/ab"), context));
+        assertEquals(1, context.getMatchCount());
+        assertEquals("/static.xhtml", context.getValue(0));
+
+        assertFalse(trie.resolve("/p/xy", context));
+        assertEquals(0, context.getMatchCount());
+    }
+
+    @Test
+    public void testResolveBest() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+
+        trie.parameterized("/page/{name}", "/name.xhtml")
+                .matching("name", "main|more|other").add();
+        trie.parameterized("/page/m{name}", "/mName.xhtml")
+                .matching("name", "ain|ore").add();
+        trie.add("/page/main", "/main.xhtml");
+
+        assertEquals(3, trie.resolve("/page/main").size());
+        ParameterizedValue<String> best = trie.resolveBest("/page/main");
+        assertEquals("/main.xhtml", best.getValue());
+        assertTrue(best.getParameterNames().isEmpty());
+
+        best = trie.resolveBest("/page/more");
+        assertEquals("/mName.xhtml", best.getValue());
+        assertEquals("ore", best.getParameter("name"));
+
+        best = trie.resolveBest("/page/other");
+        assertEquals("/name.xhtml", best.getValue());
+        assertEquals("other", best.getParameter("name"));
+
+        assertNull(trie.resolveBest("/file"));
+    }
+
+    @Test
+    public void testResolveBestPriority() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+
+        trie.parameterized("/{name}", "/low.xhtml")
+                .matching("name", "abc|def").add();
+        trie.parameterized("/{id}", "/high.xhtml", 10)
+                .matching("id", "abc|a1").add();
+
+        assertEquals(2, trie.resolve("/abc").size());
+        assertEquals("/high.xhtml", trie.resolveBest("/abc").getValue());
+        assertEquals("/low.xhtml", trie.resolveBest("/def").getValue());
+        assertEquals("a1", trie.resolveBest("/a1").getParameter("id"));
+    }
+
+    @Test
+    public void testResolveAll() throws Exception {
+        PatternTrie<String> trie = new PatternTrie<String>();
+
+        trie.add("/dashboard", "/dashboard.xhtml");
+        trie.parameterized("/p/{name}", "/p.xhtml")
+                .matching("name", "[a-c]+").add();
+        trie.parameterized("/p/{name}/{num}", "/pn.xhtml")
+                .matching("name", "(ab|cd)").matching("num", "[1-9][0-9]*")
+                .add();
+
+        Random random = new Random(42);
+        String[] samples = {"/dashboard", "/dash", "/p/", "/p/abc", "/p/ab/",
+                "/p/ab/12", "/p/cd/1", "/p/cd/01", "/x"};
+        List<String> keys = new ArrayList<String>();
+
+        for (int i = 0; i < 5000; i++) {
+            String key = samples[random.nextInt(samples.length)];
+            keys.add(random.nextBoolean() ? key : key + random.nextInt(10));
+        }
+
+        List<String> sortedKeys = new ArrayList<String>(keys);
+        Collections.sort(sortedKeys);
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            assertResolveAll(trie, keys, trie.resolveAll(keys));
+            assertResolveAll(trie, keys, trie.resolveAll(keys, pool));
+            assertResolveAll(trie, sortedKeys,
+                    trie.resolveAll(sortedKeys, pool));
+        } finally {
+            pool.shutdown();
+        }
+
+        assertTrue(trie.resolveAll(Collections.<String>emptyList()).isEmpty());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testResolveAllNullKey() {
+        PatternTrie<String> trie = new PatternTrie<String>();
+        trie.resolveAll(Arrays.asList("/a", null));
+    }
+
+    private void assertResolveAll(PatternTrie<String> trie, List<String> keys,
+                                  List<Set<ParameterizedValue<String>>> results) {
+        assertEquals(keys.size(), results.size());
+
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(keys.get(i), trie.resolve(keys.get(i)), results.get(i));
+        }
+    }
+
     private void assertTrieContains(PatternTrie<String> trie, String test,
                                     int size, String expectedValue, String... keyValues) {
         assertTrie(trie, test, size, expectedValue, true, keyValues);
@@ -0,0 +1,131 @@
+package com.blazebit.collection;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrieAutomatonTest {
+
+    private static final class CollectingListener implements
+            TrieAutomaton.MatchListener<String> {
+
+        private final List<String> matches = new ArrayList<String>();
+
+        @Override
+        public boolean match(long start, long end, String value) {
+            matches.add(start + "-" + end + ":" + value);
+            return true;
+        }
+    }
+
+    private TrieMap<String> map(TrieMap<String> map) {
+        map.put("he", "he");
+        map.put("she", "she");
+        map.put("his", "his");
+        map.put("hers", "hers");
+        return map;
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        testScan(map(new TrieMap<String>()));
+        testScan(map(TrieMap.<String>compressed()));
+    }
+
+    private void testScan(TrieMap<String> map) throws Exception {
+        TrieAutomaton<String> automaton = map.automaton();
+        CollectingListener listener = new CollectingListener();
+
+        assertTrue(automaton.scan("ushers", listener));
+        assertEquals(
+                Arrays.asList("1-4:she", "2-4:he", "2-6:hers"),
+                listener.matches);
+
+        CollectingListener readerListener = new CollectingListener();
+        assertTrue(automaton.scan(new StringReader("ushers"), readerListener));
+        assertEquals(listener.matches, readerListener.matches);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        final List<String> matches = new ArrayList<String>();
+        boolean completed = map(new TrieMap<String>()).automaton().scan(
+                "ushers his", new TrieAutomaton.MatchListener<String>() {
+
+                    @Override
+                    public boolean match(long start, long end, String value) {
+                        matches.add(value);
+                        return false;
+                    }
+                });
+
+        assertFalse(completed);
+        assertEquals(Collections.singletonList("she"), matches);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        CollectingListener listener = new CollectingListener();
+        TrieMap<String> map = new TrieMap<String>();
+        map.put("", "empty");
+
+        assertTrue(map.automaton().scan("text", listener));
+        assertTrue(listener.matches.isEmpty());
+    }
+
+    @Test
+    public void testSubMap() throws Exception {
+        CollectingListener listener = new CollectingListener();
+        map(new TrieMap<String>()).subMap("h").automaton().scan("ers",
+                listener);
+
+        assertEquals(Arrays.asList("0-1:he", "0-3:hers"),
+                listener.matches);
+    }
+
+    @Test
+    public void testRandomText() throws Exception {
+        Random random = new Random(42);
+        TrieMap<String> map = TrieMap.compressed();
+
+        for (int i = 0; i < 200; i++) {
+            String key = randomString(random, 1 + random.nextInt(5));
+            map.put(key, key);
+        }
+
+        String text = randomString(random, 5000);
+        CollectingListener listener = new CollectingListener();
+        map.automaton().scan(new StringReader(text), listener);
+
+        List<String> expected = new ArrayList<String>();
+
+        for (int end = 1; end <= text.length(); end++) {
+            for (int start = Math.max(0, end - 5); start < end; start++) {
+                String candidate = text.substring(start, end);
+
+                if (map.containsKey(candidate)) {
+                    expected.add(start + "-" + end + ":" + candidate);
+                }
+            }
+        }
+
+        assertEquals(expected, listener.matches);
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(4)));
+        }
+
+        return sb.toString();
+    }
+}
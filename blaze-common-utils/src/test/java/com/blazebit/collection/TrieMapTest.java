@@ -2,8 +2,16 @@ package com.blazebit.collection;
 
 import org.junit.Test;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -56,6 +64,48 @@ public class TrieMapTest {
     public void testGetBestMatch() throws Exception {
         assertEquals("/page/main/projects/",
                 map().getBestMatch("/page/main/projects/ai-utils"));
+        assertEquals("/page/main", map().getBestMatch("/page/main"));
+        assertEquals("", map().getBestMatch(""));
+        assertEquals("", map().getBestMatch("x"));
+    }
+
+    @Test
+    public void testLongestPrefixOf() throws Exception {
+        testLongestPrefixOf(map());
+
+        TrieMap<String> compressedMap = TrieMap.compressed();
+        compressedMap.putAll(map());
+        testLongestPrefixOf(compressedMap);
+    }
+
+    private void testLongestPrefixOf(TrieMap<String> map) {
+        assertEquals("/page/main/projects".length(),
+                map.longestPrefixOf("/page/main/projects/ai-utils"));
+        assertEquals("/pages/projects.xhtml",
+                map.valueOfLongestPrefix("/page/main/projects/ai-utils"));
+        assertEquals("/page/main".length(), map.longestPrefixOf("/page/main"));
+        assertEquals("/main.xhtml", map.valueOfLongestPrefix("/page/main/pro"));
+        assertEquals(-1, map.longestPrefixOf("/page/mai"));
+        assertNull(map.valueOfLongestPrefix("/file"));
+        assertEquals(-1, map.longestPrefixOf(""));
+
+        map.put("", "/index.xhtml");
+        assertEquals(0, map.longestPrefixOf("/other"));
+        assertEquals("/index.xhtml", map.valueOfLongestPrefix("/other"));
+        assertEquals("/main/projects".length(),
+                map.subMap("/page").longestPrefixOf("/main/projects/triem"));
+    }
+
+    @Test
+    public void testPrefixesOf() throws Exception {
+        Iterator<Map.Entry<CharSequence, String>> iter = map().prefixesOf(
+                "/page/main/projects/triemap/details");
+
+        assertEquals("/page/main", iter.next().getKey());
+        assertEquals("/page/main/projects", iter.next().getKey());
+        assertEquals("/pages/projectDetails.xhtml", iter.next().getValue());
+        assertFalse(iter.hasNext());
+        assertFalse(map().prefixesOf("/page").hasNext());
     }
 
     @Test
@@ -206,6 +256,302 @@ public class TrieMapTest {
         assertTrue(expectedMap.values().containsAll(map.values()));
     }
 
+    @Test
+    public void testManyChildren() throws Exception {
+        TrieMap<String> map = new TrieMap<String>();
+        Map<CharSequence, String> expectedMap = new HashMap<CharSequence, String>();
+
+        /* Dense children */
+        for (char c = 'a'; c <= 'z'; c++) {
+            map.put("/" + c, String.valueOf(c));
+            expectedMap.put("/" + c, String.valueOf(c));
+        }
+
+        /* Sparse children */
+        for (char c = '\u4e00'; c < '\u4e00' + 2000; c += 100) {
+            map.put("/" + c, String.valueOf(c));
+            expectedMap.put("/" + c, String.valueOf(c));
+        }
+
+        assertEquals(expectedMap, map);
+
+        for (char c = 'a'; c <= 'z'; c += 2) {
+            assertEquals(String.valueOf(c), map.remove("/" + c));
+            expectedMap.remove("/" + c);
+        }
+
+        assertEquals(expectedMap, map);
+        assertNull(map.get("/a"));
+        assertEquals("b", map.get("/b"));
+        assertEquals("\u4e00", map.get("/\u4e00"));
+    }
+
+    @Test
+    public void testIterationOrder() throws Exception {
+        TrieMap<String> map = new TrieMap<String>();
+        map.put("b", "b");
+        map.put("ab", "ab");
+        map.put("a", "a");
+        map.put("c", "c");
+
+        Iterator<CharSequence> iter = map.keySet().iterator();
+        assertEquals("a", iter.next());
+        assertEquals("ab", iter.next());
+        assertEquals("b", iter.next());
+        assertEquals("c", iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testCompressed() throws Exception {
+        TrieMap<String> map = TrieMap.compressed();
+        map.putAll(map());
+
+        assertTrue(map.isCompressed());
+        assertEquals(map(), map);
+        assertEquals("/pages/projectDetails.xhtml",
+                map.get("/page/main/projects/triemap"));
+        assertNull(map.get("/page/main/projects/trie"));
+        assertFalse(map.containsKey("/page/mai"));
+        assertTrue(map.containsKeyPrefix("/page/mai"));
+        assertTrue(map.containsKeyPrefix("/page/main/projects/trie"));
+        assertFalse(map.containsKeyPrefix("/page/main/projects/triemaps"));
+        assertEquals("/page/main/projects/",
+                map.getBestMatch("/page/main/projects/ai-utils"));
+        assertEquals("/page/main/projects/tr",
+                map.getBestMatch("/page/main/projects/tree"));
+
+        assertEquals("/main.xhtml", map.remove("/page/main"));
+        assertEquals("/pages/projects.xhtml",
+                map.remove("/page/main/projects"));
+        assertEquals(6, map.size());
+        assertEquals("/pages/projectDetails.xhtml",
+                map.get("/page/main/projects/triemap"));
+        assertTrue(map.containsKeyPrefix("/page/main/projects/trie"));
+    }
+
+    @Test
+    public void testCompressedSubMap() throws Exception {
+        TrieMap<String> map = TrieMap.compressed();
+        map.putAll(map());
+
+        /* The prefix ends within a compressed run of characters */
+        TrieMap<String> subMap = map.subMap("/page/main/proj");
+
+        assertEquals(2, subMap.size());
+        assertEquals("/pages/projects.xhtml", subMap.get("ects"));
+        assertEquals("/pages/projectDetails.xhtml", subMap.get("ects/triemap"));
+
+        subMap.put("ects/blaze", "/pages/blaze.xhtml");
+
+        assertEquals(3, subMap.size());
+        assertEquals(9, map.size());
+        assertEquals("/pages/blaze.xhtml", map.get("/page/main/projects/blaze"));
+
+        subMap.remove("ects/triemap");
+
+        assertEquals(2, subMap.size());
+        assertEquals(8, map.size());
+        assertNull(map.get("/page/main/projects/triemap"));
+    }
+
+    @Test
+    public void testCompressedSubMapReads() throws Exception {
+        TrieMap<String> map = TrieMap.compressed();
+        map.putAll(map());
+        int nodeCount = map.freeze().valueIndex.length;
+
+        /* Reads through the view must not split the edge of the prefix */
+        TrieMap<String> subMap = map.subMap("/page/main/proj");
+
+        assertEquals(2, subMap.size());
+        assertTrue(subMap.containsKey("ects"));
+        assertFalse(subMap.containsKey("ect"));
+        assertTrue(subMap.containsKeyPrefix("ec"));
+        assertFalse(subMap.containsKeyPrefix("ex"));
+        assertEquals("e", subMap.getBestMatch("ex"));
+        assertEquals(-1, subMap.longestPrefixOf("ect"));
+        assertEquals(4, subMap.longestPrefixOf("ects/trie"));
+        assertEquals("/pages/projects.xhtml",
+                subMap.valueOfLongestPrefix("ects/trie"));
+        assertNull(subMap.valueOfLongestPrefix("ex"));
+        assertEquals("ects", subMap.prefixesOf("ects/triemap").next().getKey());
+        assertEquals("ects", subMap.fuzzy("ecta", 1).get(0).getKey());
+        assertEquals(Arrays.asList("ects", "ects/triemap"),
+                new ArrayList<CharSequence>(subMap.keySet()));
+        assertEquals(subMap, subMap.freeze());
+        assertEquals(subMap, new TrieMap<String>(subMap));
+        assertEquals(13, subMap.automaton().getStateCount());
+        assertEquals(nodeCount, map.freeze().valueIndex.length);
+
+        /* Entries of the view write through to the map */
+        subMap.entrySet().iterator().next().setValue("/pages/other.xhtml");
+
+        assertEquals("/pages/other.xhtml", map.get("/page/main/projects"));
+        assertEquals(nodeCount, map.freeze().valueIndex.length);
+    }
+
+    @Test
+    public void testCompressedSubMapWrites() throws Exception {
+        TrieMap<String> map = TrieMap.compressed();
+        map.putAll(map());
+        int nodeCount = map.freeze().valueIndex.length;
+        TrieMap<String> subMap = map.subMap("/page/main/proj");
+
+        /* Writes that do not insert a key must not split the edge */
+        assertNull(subMap.remove("ex"));
+        assertNull(subMap.remove("ect"));
+        assertFalse(subMap.entrySet().remove(
+                new AbstractMap.SimpleEntry<String, String>("ects", "x")));
+        assertEquals("/pages/projects.xhtml",
+                subMap.put("ects", "/pages/projects.xhtml"));
+        assertEquals(nodeCount, map.freeze().valueIndex.length);
+
+        /* Split nodes are merged again when the inserted key is removed */
+        subMap.put("", "/pages/proj.xhtml");
+        assertEquals(nodeCount + 1, map.freeze().valueIndex.length);
+        assertEquals("/pages/proj.xhtml", subMap.remove(""));
+        assertEquals(nodeCount, map.freeze().valueIndex.length);
+
+        subMap.put("ex", "/pages/projex.xhtml");
+        assertEquals(nodeCount + 2, map.freeze().valueIndex.length);
+        assertTrue(subMap.entrySet().remove(
+                new AbstractMap.SimpleEntry<String, String>("ex",
+                        "/pages/projex.xhtml")));
+        assertEquals(nodeCount, map.freeze().valueIndex.length);
+        assertEquals(map(), map);
+
+        /* Clearing the view removes the nodes of the view */
+        subMap.clear();
+
+        assertEquals(0, subMap.size());
+        assertEquals(6, map.size());
+        assertEquals(nodeCount - 3, map.freeze().valueIndex.length);
+        assertTrue(map.containsKey("/page/main"));
+        assertFalse(map.containsKeyPrefix("/page/main/proj"));
+    }
+
+    @Test
+    public void testRandomOperations() throws Exception {
+        testRandomOperations(new TrieMap<String>());
+        testRandomOperations(TrieMap.<String>compressed());
+    }
+
+    private void testRandomOperations(TrieMap<String> map) {
+        Random random = new Random(42);
+        Map<CharSequence, String> expectedMap = new HashMap<CharSequence, String>();
+
+        for (int i = 0; i < 5000; i++) {
+            String key = randomKey(random);
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expectedMap.remove(key), map.remove(key));
+            } else {
+                assertEquals(expectedMap.put(key, key), map.put(key, key));
+            }
+
+            String prefix = randomKey(random);
+            boolean expectedPrefix = false;
+            int expectedSubMapSize = 0;
+
+            for (CharSequence expectedKey : expectedMap.keySet()) {
+                if (expectedKey.toString().startsWith(prefix)) {
+                    expectedPrefix = true;
+                    expectedSubMapSize++;
+                }
+            }
+
+            assertEquals(expectedMap.size(), map.size());
+            assertEquals(expectedPrefix, map.containsKeyPrefix(prefix));
+            assertEquals(expectedSubMapSize, map.subMap(prefix).size());
+        }
+
+        assertEquals(expectedMap, map);
+        assertEquals(expectedMap.keySet(), new HashSet<CharSequence>(map.keySet()));
+        assertEquals(expectedMap, map.freeze());
+    }
+
+    private static String randomKey(Random random) {
+        int length = random.nextInt(6);
+        StringBuilder sb = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+
+        return sb.toString();
+    }
+
+    @Test
+    public void testFuzzy() throws Exception {
+        TrieMap<String> map = map();
+        List<TrieMap.FuzzyEntry<String>> result = map.fuzzy("/page/mian", 2);
+
+        assertEquals(1, result.size());
+        assertEquals("/page/main", result.get(0).getKey());
+        assertEquals(2, result.get(0).getDistance());
+
+        result = map.fuzzy("/page/admins", 4);
+        assertEquals("/page/admin", result.get(0).getKey());
+        assertEquals(1, result.get(0).getDistance());
+        assertEquals("/page/main", result.get(1).getKey());
+        assertEquals(4, result.get(1).getDistance());
+        assertTrue(map.fuzzy("/none", 1).isEmpty());
+        assertEquals("/home",
+                map.subMap("/page/main").fuzzy("/hone", 1).get(0).getKey());
+    }
+
+    @Test
+    public void testFuzzyRandom() throws Exception {
+        Random random = new Random(42);
+        TrieMap<String> map = TrieMap.compressed();
+
+        for (int i = 0; i < 300; i++) {
+            String key = randomKey(random);
+            map.put(key, key);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            String probe = randomKey(random);
+            int maxEdits = random.nextInt(3);
+            List<TrieMap.FuzzyEntry<String>> result = map.fuzzy(probe, maxEdits);
+            int expectedCount = 0;
+
+            for (CharSequence key : map.keySet()) {
+                if (distance(key.toString(), probe) <= maxEdits) {
+                    expectedCount++;
+                }
+            }
+
+            assertEquals(expectedCount, result.size());
+
+            for (int j = 0; j < result.size(); j++) {
+                TrieMap.FuzzyEntry<String> entry = result.get(j);
+                assertEquals(distance(entry.getKey().toString(), probe),
+                        entry.getDistance());
+                assertTrue(j == 0
+                        || result.get(j - 1).getDistance() <= entry.getDistance());
+            }
+        }
+    }
+
+    private static int distance(String s1, String s2) {
+        int[][] d = new int[s1.length() + 1][s2.length() + 1];
+
+        for (int i = 0; i <= s1.length(); i++) {
+            for (int j = 0; j <= s2.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                } else {
+                    d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+                            d[i - 1][j - 1] + (s1.charAt(i - 1) == s2.charAt(j - 1) ? 0 : 1));
+                }
+            }
+        }
+
+        return d[s1.length()][s2.length()];
+    }
+
     @Test
     public void testSubMapPutAndGet() throws Exception {
         TrieMap<String> map = new TrieMap<String>();
@@ -310,6 +656,51 @@ public class TrieMapTest {
         assertFalse(map.isEmpty());
         assertEquals(1, map.size());
         assertTrue(subMap.isEmpty());
+        assertFalse(map.containsKey("/page/main"));
+        assertFalse(map.containsKeyPrefix("/page"));
+        assertEquals(Collections.singleton("/file/picture"),
+                new HashSet<CharSequence>(map.keySet()));
+    }
+
+    @Test
+    public void testSubMapSizeAfterWrites() throws Exception {
+        testSubMapSizeAfterWrites(map());
+
+        TrieMap<String> compressedMap = TrieMap.compressed();
+        compressedMap.putAll(map());
+        testSubMapSizeAfterWrites(compressedMap);
+    }
+
+    private void testSubMapSizeAfterWrites(TrieMap<String> map) {
+        TrieMap<String> subMap = map.subMap("/page/main");
+        TrieMap<String> nestedSubMap = subMap.subMap("/pro");
+
+        assertEquals(5, subMap.size());
+        assertEquals(2, nestedSubMap.size());
+
+        subMap.put("/projects/blaze", "/pages/blaze.xhtml");
+        map.put("/page/main/pro", "/pages/pro.xhtml");
+        map.put("/page/mainly", "/pages/mainly.xhtml");
+
+        assertEquals(11, map.size());
+        assertEquals(8, subMap.size());
+        assertEquals(4, nestedSubMap.size());
+        assertEquals(4, map.subMap("/page/main/pro").size());
+
+        subMap.remove("/projects");
+        map.remove("/page/main");
+
+        assertEquals(9, map.size());
+        assertEquals(6, subMap.size());
+        assertEquals(3, nestedSubMap.size());
+
+        nestedSubMap.clear();
+
+        assertEquals(6, map.size());
+        assertEquals(3, subMap.size());
+        assertTrue(nestedSubMap.isEmpty());
+        assertEquals(new TrieMap<String>(map).subMap("/page/main"), subMap);
+        assertEquals(6, new TrieMap<String>(map).size());
     }
 
     @Test
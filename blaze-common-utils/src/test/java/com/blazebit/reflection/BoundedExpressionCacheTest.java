@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011 Blazebit
+ */
+package com.blazebit.reflection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BoundedExpressionCacheTest {
+
+    public static class Bean {
+        private String d = "d";
+
+        public String getA() {
+            return "a";
+        }
+
+        public String getB() {
+            return "b";
+        }
+
+        public String getC() {
+            return "c";
+        }
+    }
+
+    @Test
+    public void testStatistics() {
+        BoundedExpressionCache cache = new BoundedExpressionCache(10);
+        PropertyPathExpression<Bean, Object> expression = cache.getExpression(
+                Bean.class, "a", false);
+
+        assertSame(expression, cache.getExpression(Bean.class, "a", false));
+        assertNotSame(expression, cache.getExpression(Bean.class, "b", false));
+        assertEquals("a", expression.getValue(new Bean()));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNotSame(expression, cache.getExpression(Bean.class, "a", false));
+    }
+
+    @Test
+    public void testEviction() {
+        BoundedExpressionCache cache = new BoundedExpressionCache(2);
+        PropertyPathExpression<Bean, Object> a = cache.getExpression(
+                Bean.class, "a", false);
+        cache.getExpression(Bean.class, "b", false);
+        // Accessing a gives it a second chance, so b is evicted
+        cache.getExpression(Bean.class, "a", false);
+        cache.getExpression(Bean.class, "c", false);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(a, cache.getExpression(Bean.class, "a", false));
+        assertEquals(2, cache.getHitCount());
+
+        cache.getExpression(Bean.class, "b", false);
+        assertEquals(4, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testFieldAccessModes() {
+        BoundedExpressionCache cache = new BoundedExpressionCache(10);
+        PropertyPathExpression<Bean, Object> getterOnly = cache.getExpression(
+                Bean.class, "d", false);
+        PropertyPathExpression<Bean, Object> fieldAccess = cache.getExpression(
+                Bean.class, "d", true);
+
+        assertNotSame(getterOnly, fieldAccess);
+        assertEquals("d", fieldAccess.getValue(new Bean()));
+        assertSame(getterOnly, cache.getExpression(Bean.class, "d", false));
+        assertSame(fieldAccess, cache.getExpression(Bean.class, "d", true));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new BoundedExpressionCache(0);
+    }
+
+    @Test
+    public void testExpressionUtilsCache() {
+        ExpressionCache oldCache = ExpressionUtils.getCache();
+        BoundedExpressionCache cache = new BoundedExpressionCache(10);
+
+        try {
+            ExpressionUtils.setCache(cache);
+            assertEquals("b", ExpressionUtils.getValue(new Bean(), "b"));
+            assertEquals("b", ExpressionUtils.getValue(new Bean(), "b"));
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+        } finally {
+            ExpressionUtils.setCache(oldCache);
+        }
+    }
+}
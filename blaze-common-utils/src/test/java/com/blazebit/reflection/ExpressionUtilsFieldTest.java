@@ -10,11 +10,13 @@ public class ExpressionUtilsFieldTest {
 
     @Test
     public void testExpressionCaching() {
-        assertTrue(ExpressionUtils.getExpression(Car.class, "name", null, true) == ExpressionUtils
+        assertTrue(ExpressionUtils.getExpression(Car.class, "name", null, false) == ExpressionUtils
                 .getExpression(Car.class, "name"));
         assertTrue(ExpressionUtils.getExpression(Car.class, "name",
                 String.class, true) == ExpressionUtils.getExpression(Car.class,
-                "name", String.class));
+                "name", String.class, true));
+        assertTrue(ExpressionUtils.getExpression(Car.class, "name", null, true) != ExpressionUtils
+                .getExpression(Car.class, "name"));
     }
 
     @Test
@@ -2,6 +2,11 @@ package com.blazebit.reflection;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.Assert.*;
 
 public class ExpressionUtilsTest {
@@ -215,8 +220,100 @@ public class ExpressionUtilsTest {
                 o, "vendor.name", String.class));
     }
 
+    /***********************
+     * Extract *
+     ***********************/
+
+    @Test
+    public void testExtractPrimitiveColumns() {
+        List<Measurement> measurements = Arrays.asList(new Measurement(1, 2.5f), new Measurement(2, 0.5f));
+
+        assertArrayEquals(new int[]{1, 2}, (int[]) ExpressionUtils.extract(measurements,
+                new PropertyPathExpression<Measurement, Integer>(Measurement.class, "count")));
+        assertArrayEquals(new int[]{'a', 'b'}, (int[]) ExpressionUtils.extract(measurements,
+                new PropertyPathExpression<Measurement, Character>(Measurement.class, "code")));
+        assertArrayEquals(new long[]{10L, 20L}, (long[]) ExpressionUtils.extract(measurements,
+                new PropertyPathExpression<Measurement, Long>(Measurement.class, "total")));
+        assertArrayEquals(new double[]{2.5d, 0.5d}, (double[]) ExpressionUtils.extract(measurements,
+                new PropertyPathExpression<Measurement, Float>(Measurement.class, "weight")), 0d);
+        assertArrayEquals(new double[]{1d, 2d}, (double[]) ExpressionUtils.extract(measurements,
+                new PropertyPathExpression<Measurement, Double>(Measurement.class, "car.vendor.rating")), 0d);
+    }
+
+    @Test
+    public void testExtractObjectColumn() {
+        List<Car> cars = Arrays.asList(new Car("A", "X"), new Car("B", "Y"));
+
+        assertArrayEquals(new Object[]{"X", "Y"}, (Object[]) ExpressionUtils.extract(cars,
+                ExpressionUtils.<Car, String>getExpression(Car.class, "vendor.name")));
+    }
+
+    @Test
+    public void testExtractParallel() {
+        List<Measurement> measurements = new ArrayList<Measurement>();
+
+        for (int i = 0; i < 100000; i++) {
+            measurements.add(new Measurement(i, i));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            int[] counts = (int[]) ExpressionUtils.extract(measurements,
+                    new PropertyPathExpression<Measurement, Integer>(Measurement.class, "count"), pool);
+
+            for (int i = 0; i < counts.length; i++) {
+                assertEquals(i, counts[i]);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testExtractNullIntermediate() {
+        Measurement measurement = new Measurement(1, 1f);
+        measurement.car.vendor = null;
+        ExpressionUtils.extract(Arrays.asList(measurement),
+                new PropertyPathExpression<Measurement, Double>(Measurement.class, "car.vendor.rating"));
+    }
+
+    public class Measurement {
+        final int count;
+        final float weight;
+        final Car car;
+
+        public Measurement(int count, float weight) {
+            this.count = count;
+            this.weight = weight;
+            this.car = new Car("Car", "Vendor");
+            this.car.vendor.rating = count;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public char getCode() {
+            return (char) ('a' + count - 1);
+        }
+
+        public long getTotal() {
+            return count * 10L;
+        }
+
+        public float getWeight() {
+            return weight;
+        }
+
+        public Car getCar() {
+            return car;
+        }
+    }
+
     public class Vendor {
         String name;
+        double rating;
 
         public Vendor(String name) {
             this.name = name;
@@ -229,6 +326,10 @@ public class ExpressionUtilsTest {
         public void setName(String name) {
             this.name = name;
         }
+
+        public double getRating() {
+            return rating;
+        }
     }
 
     public class Car {
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 Blazebit
+ */
+package com.blazebit.reflection;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MethodInvokerTest {
+
+    public static class Counter {
+        private int value;
+
+        public int getValue() {
+            return value;
+        }
+
+        public void add(int delta) {
+            value += delta;
+        }
+
+        public String join(String a, Object b, long c) {
+            return a + b + c;
+        }
+
+        public void fail() {
+            throw new IllegalStateException("fail");
+        }
+
+        public static String describe(Object o) {
+            return "static " + o;
+        }
+
+        private String secret() {
+            return "secret";
+        }
+    }
+
+    private static Method method(String name, Class<?>... parameterTypes)
+            throws NoSuchMethodException {
+        return Counter.class.getMethod(name, parameterTypes);
+    }
+
+    @Test
+    public void testInvoke() throws Exception {
+        Counter counter = new Counter();
+
+        assertNull(MethodInvoker.of(method("add", int.class)).invoke(counter, 3));
+        assertEquals(3, MethodInvoker.of(method("getValue")).invoke(counter));
+        assertEquals("a1" + 2L, MethodInvoker.of(
+                method("join", String.class, Object.class, long.class))
+                .invoke(counter, "a", 1, 2L));
+        assertEquals("static x", MethodInvoker.of(
+                method("describe", Object.class)).invoke(null, "x"));
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        assertSame(MethodInvoker.of(method("getValue")),
+                MethodInvoker.of(method("getValue")));
+    }
+
+    @Test
+    public void testAccessibleFlagNotShared() throws Exception {
+        Method accessible = Counter.class.getDeclaredMethod("secret");
+        accessible.setAccessible(true);
+        assertEquals("secret", MethodInvoker.of(accessible).invoke(new Counter()));
+
+        Method inaccessible = Counter.class.getDeclaredMethod("secret");
+
+        try {
+            MethodInvoker.of(inaccessible).invoke(new Counter());
+            fail("Expected exception");
+        } catch (IllegalAccessException ex) {
+            // expected
+        }
+
+        assertSame(MethodInvoker.of(inaccessible), MethodInvoker.of(
+                Counter.class.getDeclaredMethod("secret")));
+        assertNotSame(MethodInvoker.of(accessible), MethodInvoker.of(inaccessible));
+    }
+
+    @Test
+    public void testGetMethodReturnsCopy() throws Exception {
+        MethodInvoker invoker = MethodInvoker.of(Counter.class.getDeclaredMethod("secret"));
+        invoker.getMethod().setAccessible(true);
+
+        assertEquals(Counter.class.getDeclaredMethod("secret"), invoker.getMethod());
+        assertFalse(invoker.getMethod().isAccessible());
+    }
+
+    @Test
+    public void testInvocationTargetException() throws Exception {
+        try {
+            MethodInvoker.of(method("fail")).invoke(new Counter());
+            fail("Expected exception");
+        } catch (InvocationTargetException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongArgumentType() throws Exception {
+        MethodInvoker.of(method("add", int.class)).invoke(new Counter(), "1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullPrimitiveArgument() throws Exception {
+        MethodInvoker.of(method("add", int.class)).invoke(new Counter(),
+                (Object) null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongArgumentCount() throws Exception {
+        MethodInvoker.of(method("add", int.class)).invoke(new Counter());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongTarget() throws Exception {
+        MethodInvoker.of(method("getValue")).invoke("test");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullTarget() throws Exception {
+        MethodInvoker.of(method("getValue")).invoke(null);
+    }
+}
@@ -2,7 +2,12 @@ package com.blazebit.reflection;
 
 import org.junit.Test;
 
+import java.lang.reflect.InvocationTargetException;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class PropertyPathExpressionTest {
 
@@ -62,6 +67,94 @@ public class PropertyPathExpressionTest {
         vendorNameExpression.setValue(new Car(null), "Test");
     }
 
+    @Test
+    public void testSetNestedValue() {
+        Car o = new Car("Test", "Test");
+        vendorNameExpression.setValue(o, "Vendor");
+        new PropertyPathExpression<Car, Integer>(Car.class, "vendor.rating")
+                .setValue(o, 5);
+
+        assertEquals("Vendor", vendorNameExpression.getValue(o));
+        assertEquals(5, o.getVendor().getRating());
+        assertEquals(Integer.valueOf(5), new PropertyPathExpression<Car, Integer>(
+                Car.class, "vendor.rating").getValue(o));
+    }
+
+    @Test
+    public void testGetNullSafeValueWithNullTarget() {
+        assertNull(vendorNameExpression.getNullSafeValue(null));
+    }
+
+    @Test
+    public void testGetValueWrapsGetterException() {
+        try {
+            new PropertyPathExpression<Car, String>(Car.class, "vendor.failing")
+                    .getValue(new Car("Test", "Test"));
+            fail("Expected exception");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getCause() instanceof InvocationTargetException);
+            assertTrue(ex.getCause().getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testPolymorphicDynamicPath() {
+        PropertyPathExpression<Holder, Object> expression = new PropertyPathExpression<Holder, Object>(
+                Holder.class, "value.name");
+        Object[] values = {new Car("Car"), new Vendor("Vendor"),
+                new Named("D") {
+                }, new Car("Car2"), new Named("A"),
+                new Named("B") {
+                }, new Named("C") {
+                }};
+
+        for (int round = 0; round < 2; round++) {
+            for (Object value : values) {
+                Holder holder = new Holder(value);
+                expression.setValue(holder, "x" + round);
+                assertEquals("x" + round, expression.getValue(holder));
+            }
+        }
+    }
+
+    @Test
+    public void testPolymorphicDynamicPathWithoutProperty() {
+        PropertyPathExpression<Holder, Object> expression = new PropertyPathExpression<Holder, Object>(
+                Holder.class, "value.vendor.name");
+
+        assertEquals("Vendor", expression.getValue(new Holder(new Car("Car",
+                "Vendor"))));
+        assertNull(expression.getNullSafeValue(new Holder(new Vendor("Vendor"))));
+    }
+
+    public static class Holder {
+        Object value;
+
+        public Holder(Object value) {
+            this.value = value;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+
+    public static class Named {
+        String name;
+
+        public Named(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
     public class GenericId<X> {
         X id;
 
@@ -80,6 +173,7 @@ public class PropertyPathExpressionTest {
 
     public class Vendor {
         String name;
+        int rating;
 
         public Vendor(String name) {
             this.name = name;
@@ -92,6 +186,18 @@ public class PropertyPathExpressionTest {
         public void setName(String name) {
             this.name = name;
         }
+
+        public int getRating() {
+            return rating;
+        }
+
+        public void setRating(int rating) {
+            this.rating = rating;
+        }
+
+        public String getFailing() {
+            throw new IllegalStateException();
+        }
     }
 
     public class Car {
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 Blazebit
+ */
+package com.blazebit.reflection;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PropertyPathProjectionTest {
+
+    public static class Address {
+        private final String street;
+        private final String city;
+
+        public Address(String street, String city) {
+            this.street = street;
+            this.city = city;
+        }
+
+        public String getStreet() {
+            return street;
+        }
+
+        public String getCity() {
+            return city;
+        }
+    }
+
+    public static class Customer {
+        private final String name;
+        private final Address address;
+        private int addressCalls;
+
+        public Customer(String name, Address address) {
+            this.name = name;
+            this.address = address;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Address getAddress() {
+            addressCalls++;
+            return address;
+        }
+
+        public int getAge() {
+            return 42;
+        }
+    }
+
+    public static class Order {
+        private final Customer customer;
+        private final Object attachment;
+
+        public Order(Customer customer, Object attachment) {
+            this.customer = customer;
+            this.attachment = attachment;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+
+        public Object getAttachment() {
+            return attachment;
+        }
+    }
+
+    private final PropertyPathProjection<Order> projection = new PropertyPathProjection<Order>(
+            Order.class, Arrays.asList("customer.address.street", "customer.name",
+            "customer.address.city", "customer.age", "customer.address.street"));
+
+    @Test
+    public void testGetValues() {
+        Customer customer = new Customer("Max", new Address("Main Street", "Vienna"));
+
+        assertArrayEquals(new Object[]{"Main Street", "Max", "Vienna", 42, "Main Street"},
+                projection.getValues(new Order(customer, null)));
+        assertEquals(1, customer.addressCalls);
+    }
+
+    @Test
+    public void testGetValuesNullSafe() {
+        Object[] values = projection.getValues(new Order(new Customer("Max",
+                new Address("Main Street", "Vienna")), null));
+
+        projection.getValues(new Order(new Customer("Moritz", null), null), values);
+        assertArrayEquals(new Object[]{null, "Moritz", null, 42, null}, values);
+
+        projection.getValues(null, values);
+        assertArrayEquals(new Object[5], values);
+    }
+
+    @Test
+    public void testGetValuesRuntimeTypes() {
+        PropertyPathProjection<Order> runtimeProjection = new PropertyPathProjection<Order>(
+                Order.class, Arrays.asList("attachment.street", "attachment.city"));
+
+        assertArrayEquals(new Object[]{"Main Street", "Vienna"}, runtimeProjection
+                .getValues(new Order(null, new Address("Main Street", "Vienna"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPath() {
+        new PropertyPathProjection<Order>(Order.class, Arrays.asList("customer..name"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValuesArrayTooSmall() {
+        projection.getValues(null, new Object[1]);
+    }
+}
@@ -5,6 +5,10 @@ package com.blazebit.reflection;
 
 import org.junit.Test;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.TypeVariable;
 import java.util.Collection;
@@ -766,4 +770,83 @@ public class ReflectionUtilsTest {
         assertNotNull(ReflectionUtils.getSetter(C.class, "b"));
         assertNull(ReflectionUtils.getSetter(B.class, "b"));
     }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public static @interface Marker {
+    }
+
+    public static class Annotated {
+        @Marker
+        public Object getValue() {
+            return null;
+        }
+
+        @Marker
+        public void other() {
+        }
+    }
+
+    public static class AnnotatedSub extends Annotated {
+    }
+
+    public static class CovariantSub extends Annotated {
+        @Override
+        public String getValue() {
+            return null;
+        }
+    }
+
+    @Test
+    public void testGetMethodsByAnnotation() throws Exception {
+        assertEquals(2, ReflectionUtils.getMethods(AnnotatedSub.class,
+                Marker.class).size());
+        assertEquals(Annotated.class, ReflectionUtils.getMethod(
+                AnnotatedSub.class, Marker.class).getDeclaringClass());
+        assertNull(ReflectionUtils.getMethod(AnnotatedSub.class, Test.class));
+    }
+
+    @Test
+    public void testGetGetterMostSpecific() {
+        assertEquals(String.class, ReflectionUtils.getGetter(
+                CovariantSub.class, "value").getReturnType());
+        assertEquals(ReflectionUtils.getGetter(CovariantSub.class, "value"),
+                ReflectionUtils.getGetter(CovariantSub.class, "value"));
+        assertNull(ReflectionUtils.getSetter(CovariantSub.class, "value"));
+        assertNull(ReflectionUtils.getField(CovariantSub.class, "value"));
+    }
+
+    @Test
+    public void testReturnedMembersAreNotShared() throws Exception {
+        Method getter = ReflectionUtils.getGetter(CovariantSub.class, "value");
+        getter.setAccessible(true);
+        Field field = ReflectionUtils.getField(ConcreteClassA.class, "field");
+        field.setAccessible(true);
+
+        assertNotSame(getter, ReflectionUtils.getGetter(CovariantSub.class, "value"));
+        assertFalse(ReflectionUtils.getGetter(CovariantSub.class, "value").isAccessible());
+        assertFalse(ReflectionUtils.getField(ConcreteClassA.class, "field").isAccessible());
+        assertFalse(ReflectionUtils.getMethod(AnnotatedSub.class, Marker.class).isAccessible());
+    }
+
+    @Test
+    public void testResolveTypeVariablePerConcreteClass() throws Exception {
+        TypeVariable<?> typeVariable = (TypeVariable<?>) ReflectionUtils
+                .getField(ConcreteClassA.class, "field").getGenericType();
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(Integer.class, ReflectionUtils.resolveTypeVariable(
+                    ConcreteClassA.class, typeVariable));
+            assertEquals(Integer.class, ReflectionUtils.resolveTypeVariableType(
+                    ConcreteClassA.class, typeVariable));
+            assertEquals(Object.class, ReflectionUtils.resolveTypeVariable(
+                    GenericClassA.class, typeVariable));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResolveTypeVariableOfUnrelatedClass() throws Exception {
+        TypeVariable<?> typeVariable = (TypeVariable<?>) ReflectionUtils
+                .getField(ConcreteClassA.class, "field").getGenericType();
+        ReflectionUtils.resolveTypeVariable(String.class, typeVariable);
+    }
 }
@@ -0,0 +1,62 @@
+package com.blazebit.regex;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CharacterClassTest {
+
+    @Test
+    public void testOf() {
+        CharacterClass characterClass = CharacterClass.of('x', 'z', 'a', 'c',
+                'b', 'd', '\u00e0', '\u00e5');
+
+        assertEquals(3, characterClass.getRangeCount());
+        assertEquals('a', characterClass.getStart(0));
+        assertEquals('d', characterClass.getEnd(0));
+        assertTrue(characterClass.contains('c'));
+        assertTrue(characterClass.contains('\u00e2'));
+        assertFalse(characterClass.contains('e'));
+        assertFalse(characterClass.contains('\u00e6'));
+        assertEquals(CharacterClass.of('a', 'd', 'x', 'z', '\u00e0', '\u00e5'),
+                characterClass);
+    }
+
+    @Test
+    public void testComplement() {
+        CharacterClass characterClass = CharacterClass.of('/').complement();
+
+        assertEquals(2, characterClass.getRangeCount());
+        assertFalse(characterClass.contains('/'));
+        assertTrue(characterClass.contains('a'));
+        assertTrue(characterClass.contains('\uffff'));
+        assertEquals(CharacterClass.of('/'), characterClass.complement());
+        assertEquals(CharacterClass.ANY, CharacterClass.EMPTY.complement());
+    }
+
+    @Test
+    public void testUnion() {
+        assertEquals(CharacterClass.of('0', '9', 'A', 'Z', '_', '_', 'a', 'z'),
+                CharacterClass.DIGIT.union(CharacterClass.WORD));
+        assertTrue(CharacterClass.of('a').union(CharacterClass.of('b'))
+                .equals(CharacterClass.range('a', 'b')));
+    }
+
+    @Test
+    public void testProperty() {
+        CharacterClass upper = CharacterClass.property("Lu");
+
+        assertTrue(upper.contains('A'));
+        assertTrue(upper.contains('\u00c4'));
+        assertFalse(upper.contains('a'));
+        assertEquals(upper, CharacterClass.property("IsLu"));
+        assertTrue(CharacterClass.property("L").contains('\u00e4'));
+        assertTrue(CharacterClass.property("InGreek").contains('\u03b1'));
+        assertFalse(CharacterClass.property("Alpha").contains('\u00e4'));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownProperty() {
+        CharacterClass.property("Unknown");
+    }
+}
@@ -1,16 +1,179 @@
 package com.blazebit.regex;
 
+import com.blazebit.regex.node.CharNode;
 import com.blazebit.regex.node.Node;
+import com.blazebit.regex.node.OrNode;
 import org.junit.Test;
 
-import static org.junit.Assert.assertNotNull;
+import java.util.Random;
+
+import static org.junit.Assert.*;
 
 public class PatternTest {
 
+    private static final String[] PATTERNS = {"abc", "a|b", "a*", "a+b",
+            "(a|b)*abb", "[a-c]+d?", "[^ab]c", "a{2,3}", "a{2}b", "(ab|a)(c|bcd)",
+            "(a*)*b", ".b.", "a?a?aa", "((a|b)c)+", "[ab]{1,3}c*"};
+
     @Test
     public void test() {
         Node node = Pattern.parse("[a-zA-Z]-vector");
         assertNotNull(node);
     }
 
+    @Test
+    public void testMatches() {
+        Pattern pattern = Pattern.compile("[a-zA-Z]-vector");
+
+        assertTrue(pattern.matches("a-vector"));
+        assertTrue(pattern.matches(new StringBuilder("Z-vector")));
+        assertFalse(pattern.matches("1-vector"));
+        assertFalse(pattern.matches("a-vectors"));
+        assertFalse(pattern.matches(""));
+    }
+
+    @Test
+    public void testMatchesRandom() {
+        Random random = new Random(42);
+
+        for (String regex : PATTERNS) {
+            Pattern pattern = Pattern.compile(regex);
+            java.util.regex.Pattern expected = java.util.regex.Pattern
+                    .compile(regex);
+
+            for (int i = 0; i < 500; i++) {
+                String input = randomString(random, random.nextInt(8));
+                assertEquals(regex + " " + input, expected.matcher(input)
+                        .matches(), pattern.matches(input));
+            }
+        }
+    }
+
+    @Test
+    public void testFind() {
+        Pattern pattern = Pattern.compile("ab|abcd|bc");
+
+        assertArrayEquals(new int[]{1, 5}, pattern.find("xabcdbc"));
+        assertArrayEquals(new int[]{2, 4}, pattern.find("xabcdbc", 2));
+        assertArrayEquals(new int[]{5, 7}, pattern.find("xabcdbc", 3));
+        assertNull(pattern.find("xabcdbc", 6));
+        assertArrayEquals(new int[]{3, 3}, Pattern.compile("a*").find("bbb", 3));
+    }
+
+    @Test
+    public void testFindRandom() {
+        Random random = new Random(7);
+
+        for (String regex : PATTERNS) {
+            Pattern pattern = Pattern.compile(regex);
+            java.util.regex.Pattern expected = java.util.regex.Pattern
+                    .compile(regex);
+
+            for (int i = 0; i < 200; i++) {
+                String input = randomString(random, random.nextInt(10));
+                int from = random.nextInt(input.length() + 1);
+                assertArrayEquals(regex + " " + input + " " + from,
+                        leftmostLongest(expected, input, from),
+                        pattern.find(input, from));
+            }
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testFindAllLargeInput() {
+        Pattern pattern = Pattern.compile("ab|abcd|bc");
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < 50000; i++) {
+            sb.append("xabcd");
+        }
+
+        String input = sb.toString();
+        int count = 0;
+        int[] match = pattern.find(input);
+
+        while (match != null) {
+            assertArrayEquals(new int[]{count * 5 + 1, count * 5 + 5}, match);
+            count++;
+            match = pattern.find(input, match[1]);
+        }
+
+        assertEquals(50000, count);
+    }
+
+    @Test
+    public void testMinimalStateCount() {
+        assertEquals(4, Pattern.compile("(a|b)*abb").getAutomaton()
+                .getStateCount());
+        assertEquals(1, Pattern.compile("a*").getAutomaton().getStateCount());
+        assertEquals(1, Pattern.compile("(a|aa)*").getAutomaton()
+                .getStateCount());
+        assertEquals(3, Pattern.compile("a{2}").getAutomaton().getStateCount());
+    }
+
+    @Test
+    public void testCharacterClassEscapes() {
+        String[] patterns = {"\\d+", "[\\w-]+", "a\\sb", "\\p{Lu}\\p{Ll}*",
+                "[^/]+", "\\P{Alpha}", "[\\D]", "\\W\\S", "[^\\s/]+\\.xhtml"};
+        String[] inputs = {"", "123", "a-b_c", "a b", "a\tb", "Abc", "\u00c4\u00e4",
+                "a/b", "x", "1", "-", "??", "page.xhtml", "a b.xhtml"};
+
+        for (String regex : patterns) {
+            Pattern pattern = Pattern.compile(regex);
+            java.util.regex.Pattern expected = java.util.regex.Pattern
+                    .compile(regex);
+
+            for (String input : inputs) {
+                assertEquals(regex + " " + input, expected.matcher(input)
+                        .matches(), pattern.matches(input));
+            }
+        }
+    }
+
+    @Test
+    public void testParseCache() {
+        assertSame(Pattern.parse("[0-9]+"), Pattern.parse("[0-9]+"));
+        assertSame(Pattern.compile("[^/]+"), Pattern.compile("[^/]+"));
+        assertNotSame(Pattern.compile("[^/]+"), new Pattern("[^/]+"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFrozenNext() {
+        OrNode root = (OrNode) Pattern.parse("ab|c");
+        root.getNodes().get(0).setNext(new CharNode('x'));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFrozenAlternatives() {
+        OrNode root = (OrNode) Pattern.parse("ab|c");
+        root.getNodes().add(new CharNode('x'));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        Pattern.compile("[z-a]").matches("b");
+    }
+
+    private static int[] leftmostLongest(java.util.regex.Pattern pattern,
+                                         String input, int from) {
+        for (int start = from; start <= input.length(); start++) {
+            for (int end = input.length(); end >= start; end--) {
+                if (pattern.matcher(input.substring(start, end)).matches()) {
+                    return new int[]{start, end};
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static String randomString(Random random, int length) {
+        char[] chars = new char[length];
+
+        for (int i = 0; i < length; i++) {
+            chars[i] = "abcd".charAt(random.nextInt(4));
+        }
+
+        return new String(chars);
+    }
 }
@@ -8,6 +8,7 @@ import com.blazebit.cdi.cleanup.annotation.Cleanup;
 import com.blazebit.cdi.cleanup.annotation.CleanupHandler;
 import com.blazebit.cdi.cleanup.annotation.CleanupHandling;
 import com.blazebit.exception.ExceptionUtils;
+import com.blazebit.reflection.MethodInvoker;
 import com.blazebit.reflection.ReflectionUtils;
 
 import javax.interceptor.AroundInvoke;
@@ -137,9 +138,9 @@ public class CleanupHandlerInterceptor implements Serializable {
                         }
                     }
                     // Invoked either with set or null exception
-                    m.invoke(target, exception);
+                    MethodInvoker.of(m).invoke(target, exception);
                 } else {
-                    m.invoke(target);
+                    MethodInvoker.of(m).invoke(target);
                 }
                 return true;
             }
@@ -8,6 +8,7 @@ import com.blazebit.cdi.cleanup.annotation.Cleanup;
 import com.blazebit.cdi.exception.annotation.CatchHandler;
 import com.blazebit.cdi.exception.annotation.CatchHandling;
 import com.blazebit.exception.ExceptionUtils;
+import com.blazebit.reflection.MethodInvoker;
 import com.blazebit.reflection.ReflectionUtils;
 import org.apache.deltaspike.core.api.exception.control.event.ExceptionToCatchEvent;
 
@@ -192,13 +193,13 @@ public class CatchHandlerInterceptor implements Serializable {
                 final Class<?>[] parameterTypes = m.getParameterTypes();
                 if (parameterTypes.length == 1) {
                     if (ReflectionUtils.isSubtype(exception.getClass(), parameterTypes[0])) {
-                        m.invoke(target, exception);
+                        MethodInvoker.of(m).invoke(target, exception);
                         invoked = true;
                     } else {
                         throw new IllegalArgumentException("Cleanup method with name " + cleanupClazz.getName() + " requires a parameter that is not a subtype of the exception class " + exception.getClass().getName());
                     }
                 } else {
-                    m.invoke(target);
+                    MethodInvoker.of(m).invoke(target);
                     invoked = true;
                 }
             }